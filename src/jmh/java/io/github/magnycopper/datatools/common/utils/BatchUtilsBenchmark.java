@@ -0,0 +1,53 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: BatchUtils分批处理吞吐量基准测试
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-09-23 10:40
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchUtilsBenchmark {
+
+    @Param({"100000"})
+    private int rows;
+
+    @Param({"100", "1000"})
+    private int batchSize;
+
+    @Param({"1", "4", "16"})
+    private int parallelism;
+
+    /**
+     * 每条数据模拟的处理耗时(JMH CPU消耗单位)
+     */
+    @Param({"0", "100"})
+    private int workPerRow;
+
+    private List<Map<String, Object>> datas;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        datas = BenchmarkData.rows(rows, 8, 0, 1L);
+    }
+
+    @Benchmark
+    public void batchProcess(Blackhole blackhole) {
+        BatchUtils.batchProcess(datas, batchSize, parallelism, batch -> {
+            Blackhole.consumeCPU((long) workPerRow * batch.size());
+            blackhole.consume(batch);
+        });
+    }
+}
@@ -0,0 +1,122 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import java.util.*;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: 基准测试数据生成器,同一种子生成的数据完全一致
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-09-23 09:40
+ */
+public class BenchmarkData {
+
+    /**
+     * 唯一键字段
+     */
+    public static final List<String> KEYS = Arrays.asList("tenant_id", "id");
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * 生成数据
+     *
+     * @param rows    数据条数
+     * @param columns 非唯一键字段数
+     * @param keySkew 租户分布的Zipf指数,0为均匀分布,越大数据越集中于少数租户
+     * @param seed    随机种子
+     * @return 数据
+     */
+    public static List<Map<String, Object>> rows(int rows, int columns, double keySkew, long seed) {
+        Random random = new Random(seed);
+        ZipfSampler tenants = new ZipfSampler(Math.max(rows / 100, 1), keySkew);
+        List<Map<String, Object>> datas = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            Map<String, Object> data = new HashMap<>(columns * 2 + 4);
+            data.put("tenant_id", tenants.next(random));
+            data.put("id", (long) i);
+            for (int c = 0; c < columns; c++) {
+                data.put("col_" + c, value(random, c));
+            }
+            datas.add(data);
+        }
+        return datas;
+    }
+
+    /**
+     * 复制数据并按比例修改、删除、新增,作为差分的目标数据
+     *
+     * @param source     来源数据
+     * @param changeRate 修改、删除、新增各自占来源数据的比例
+     * @param seed       随机种子
+     * @return 目标数据
+     */
+    public static List<Map<String, Object>> mutate(List<Map<String, Object>> source, double changeRate, long seed) {
+        Random random = new Random(seed);
+        List<Map<String, Object>> target = new ArrayList<>(source.size());
+        for (Map<String, Object> data : source) {
+            double dice = random.nextDouble();
+            if (dice < changeRate) {
+                // 删除
+                continue;
+            }
+            Map<String, Object> copy = new HashMap<>(data);
+            if (dice < changeRate * 2) {
+                copy.put("col_0", value(random, 0));
+            }
+            target.add(copy);
+        }
+        long nextId = source.size();
+        for (int i = 0; i < source.size() * changeRate; i++) {
+            Map<String, Object> copy = new HashMap<>(source.get(random.nextInt(source.size())));
+            copy.put("id", nextId++);
+            target.add(copy);
+        }
+        return target;
+    }
+
+    /**
+     * 按列序号生成不同类型的字段值
+     *
+     * @param random 随机数
+     * @param column 列序号
+     * @return 字段值
+     */
+    private static Object value(Random random, int column) {
+        switch (column % 4) {
+            case 0:
+                return Long.toHexString(random.nextLong());
+            case 1:
+                return random.nextInt(1_000_000);
+            case 2:
+                return random.nextDouble();
+            default:
+                return random.nextBoolean() ? null : "v" + random.nextInt(100);
+        }
+    }
+
+    /**
+     * Zipf分布采样(按累计概率二分查找)
+     */
+    private static class ZipfSampler {
+
+        private final double[] cumulative;
+
+        ZipfSampler(int size, double exponent) {
+            cumulative = new double[size];
+            double sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += 1 / Math.pow(i + 1, exponent);
+                cumulative[i] = sum;
+            }
+            for (int i = 0; i < size; i++) {
+                cumulative[i] /= sum;
+            }
+        }
+
+        int next(Random random) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble());
+            return index >= 0 ? index : Math.min(-index - 1, cumulative.length - 1);
+        }
+    }
+}
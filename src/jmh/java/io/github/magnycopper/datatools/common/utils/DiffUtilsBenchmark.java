@@ -0,0 +1,118 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: DiffUtils入桶及差分比较基准测试
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-09-23 10:05
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class DiffUtilsBenchmark {
+
+    @Param({"10000", "100000"})
+    private int rows;
+
+    @Param({"8", "32"})
+    private int columns;
+
+    @Param({"0", "1.2"})
+    private double keySkew;
+
+    @Param({"0", "16"})
+    private int buckets;
+
+    @Param({"1", "4"})
+    private int parallelism;
+
+    private DiffUtils diffUtils;
+    private DiffBucketStore bucketStore;
+    private Path spillDir;
+    private List<Map<String, Object>> source;
+    private List<Map<String, Object>> target;
+    private AtomicLong taskIds;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        source = BenchmarkData.rows(rows, columns, keySkew, 1L);
+        target = BenchmarkData.mutate(source, 0.01, 2L);
+        spillDir = Files.createTempDirectory("diff-benchmark");
+        diffUtils = new DiffUtils();
+        ReflectionTestUtils.setField(diffUtils, "BUCKETS", buckets);
+        ReflectionTestUtils.setField(diffUtils, "MAX_BUCKETS", 256);
+        ReflectionTestUtils.setField(diffUtils, "ROWS_PER_BUCKET", 100000L);
+        ReflectionTestUtils.setField(diffUtils, "PARALLELISM", parallelism);
+        ReflectionTestUtils.setField(diffUtils, "SPLIT_THRESHOLD", 100000);
+        // 内存预算足够大,避免溢写磁盘影响比较结果
+        ReflectionTestUtils.setField(diffUtils, "MEM_BUDGET_ROWS", Long.MAX_VALUE);
+        ReflectionTestUtils.setField(diffUtils, "SPILL_DIR_PATH", spillDir.toString());
+        ReflectionTestUtils.setField(diffUtils, "SNAPSHOT_DIR_PATH", spillDir.resolve("snapshot").toString());
+        ReflectionTestUtils.setField(diffUtils, "RESULT_CHUNK_SIZE", 1000);
+        diffUtils.init();
+        bucketStore = new DiffBucketStore(spillDir, Long.MAX_VALUE);
+        taskIds = new AtomicLong();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        diffUtils.destroy();
+        FileUtils.deleteDirectory(spillDir.toFile());
+    }
+
+    /**
+     * 仅入桶,入桶后直接清空
+     */
+    @Benchmark
+    public void ingest(Blackhole blackhole) {
+        // 不经过差分时任务状态不会清除,固定任务ID避免累积
+        String taskId = "ingest";
+        diffUtils.addToBucket(taskId, DiffUtils.DataType.SOURCE, BenchmarkData.KEYS, source, bucketStore);
+        diffUtils.addToBucket(taskId, DiffUtils.DataType.TARGET, BenchmarkData.KEYS, target, bucketStore);
+        blackhole.consume(bucketStore.readFromBucket(taskId, DiffUtils.DataType.SOURCE, 0));
+        bucketStore.cleanBucket(taskId);
+    }
+
+    /**
+     * 入桶后分桶比较
+     */
+    @Benchmark
+    public void ingestAndDiff(Blackhole blackhole) {
+        String taskId = "diff-" + taskIds.incrementAndGet();
+        diffUtils.addToMemBucket(taskId, DiffUtils.DataType.SOURCE, BenchmarkData.KEYS, source);
+        diffUtils.addToMemBucket(taskId, DiffUtils.DataType.TARGET, BenchmarkData.KEYS, target);
+        diffUtils.memDiff(taskId, (resultType, datas) -> blackhole.consume(datas));
+    }
+
+    /**
+     * 无序数据外排序后归并比较
+     */
+    @Benchmark
+    public void mergeDiff(Blackhole blackhole) throws Exception {
+        diffUtils.mergeDiff("merge-" + taskIds.incrementAndGet(), BenchmarkData.KEYS, source.iterator(), target.iterator(), false,
+                (resultType, datas) -> blackhole.consume(datas));
+    }
+
+    /**
+     * 与快照增量比较
+     */
+    @Benchmark
+    public void snapshotDiff(Blackhole blackhole) throws Exception {
+        diffUtils.snapshotDiff("snapshot", BenchmarkData.KEYS, target.iterator(), (resultType, datas) -> blackhole.consume(datas));
+    }
+}
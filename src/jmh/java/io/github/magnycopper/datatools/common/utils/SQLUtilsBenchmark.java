@@ -0,0 +1,61 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: SQLUtils语句生成速率基准测试
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-09-23 10:55
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SQLUtilsBenchmark {
+
+    @Param({"8", "32", "128"})
+    private int columns;
+
+    private List<Map<String, Object>> datas;
+    private Object[] values;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        datas = BenchmarkData.rows(1024, columns, 0, 1L);
+        values = new Object[columns + 2];
+    }
+
+    private Map<String, Object> nextData() {
+        next = (next + 1) & 1023;
+        return datas.get(next);
+    }
+
+    @Benchmark
+    public String getInsertSQL() {
+        return SQLUtils.getInsertSQL("benchmark_table", nextData(), "id");
+    }
+
+    @Benchmark
+    public String getInsertSQLWithUpdate() {
+        return SQLUtils.getInsertSQLWithUpdate("benchmark_table", nextData(), "id");
+    }
+
+    @Benchmark
+    public Object[] getValues() {
+        return SQLUtils.getValues(nextData(), "id");
+    }
+
+    @Benchmark
+    public Object[] getTemplateValues() {
+        Map<String, Object> data = nextData();
+        return SQLUtils.getInsertTemplate("benchmark_table", data, true, "id").getValues(data, values);
+    }
+}
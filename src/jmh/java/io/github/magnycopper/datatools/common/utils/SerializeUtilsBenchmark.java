@@ -0,0 +1,60 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import io.github.magnycopper.datatools.buss.ascp.common.AppleProductEnums;
+import io.github.magnycopper.datatools.buss.ascp.common.AppleStoreEnums;
+import io.github.magnycopper.datatools.buss.ascp.entity.InStockStateEntity;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: SerializeUtils各编解码器序列化及反序列化吞吐量基准测试
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-09-29 17:30
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializeUtilsBenchmark {
+
+    @Param({"java", "binary"})
+    private String codec;
+
+    @Param({"entity", "node"})
+    private String payload;
+
+    private Serializable value;
+    private byte[] serialized;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        if ("entity".equals(payload)) {
+            InStockStateEntity entity = new InStockStateEntity();
+            entity.setAppleStoreEnums(AppleStoreEnums.values()[0]);
+            entity.setAppleProductEnums(AppleProductEnums.values()[0]);
+            entity.setPickupDate("2022-09-30");
+            entity.setDeliveryDate("2022-10-08");
+            value = entity;
+        } else {
+            value = new DiffUtils.Node("benchmark", DiffUtils.DataType.SOURCE, new DiffSchema(), BenchmarkData.KEYS.toArray(new String[0]),
+                    BenchmarkData.rows(1, 32, 0, 1L).get(0), new String[0]);
+        }
+        serialized = SerializeUtils.serializeToBytes(value, codec);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return SerializeUtils.serializeToBytes(value, codec);
+    }
+
+    @Benchmark
+    public Object deserialize() throws IOException {
+        return SerializeUtils.deserialize(serialized);
+    }
+}
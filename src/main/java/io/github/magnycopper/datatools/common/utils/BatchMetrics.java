@@ -0,0 +1,177 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: 单次分批处理的计数器及单批耗时直方图,可在多个线程中同时记录
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-09-30 10:40
+ */
+final class BatchMetrics {
+
+    /**
+     * 每个2的幂区间划分的子区间数,相对误差不超过1/16
+     */
+    private static final int SUB_BUCKETS = 16;
+    /**
+     * 子区间数的位数
+     */
+    private static final int SUB_BUCKET_BITS = 4;
+    /**
+     * 直方图区间数,覆盖全部long范围的微秒数
+     */
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final long startNanos = System.nanoTime();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder succeededBatches = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+    private final LongAdder failedRows = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder deadLetterRows = new LongAdder();
+    private final AtomicReference<String> firstError = new AtomicReference<>();
+    private final AtomicReference<Throwable> abortCause = new AtomicReference<>();
+    /**
+     * 单批耗时(微秒)直方图
+     */
+    private final AtomicLongArray latencies = new AtomicLongArray(BUCKETS);
+
+    void rows(long count) {
+        rows.add(count);
+    }
+
+    void retry() {
+        retries.increment();
+    }
+
+    void timeout() {
+        timeouts.increment();
+    }
+
+    void deadLetter(long count) {
+        deadLetterRows.add(count);
+    }
+
+    /**
+     * 记录提前结束的异常,只保留第一个
+     *
+     * @param cause 读取数据源或提交批次的异常
+     */
+    void abort(Throwable cause) {
+        abortCause.compareAndSet(null, cause);
+    }
+
+    /**
+     * 记录批次处理结果
+     *
+     * @param size         批次条数
+     * @param elapsedNanos 耗时(含重试)
+     * @param error        失败异常,成功时为null
+     */
+    void batch(int size, long elapsedNanos, Throwable error) {
+        batches.increment();
+        if (error == null) {
+            succeededBatches.increment();
+        } else {
+            failedBatches.increment();
+            failedRows.add(size);
+            firstError.compareAndSet(null, error.toString());
+        }
+        latencies.incrementAndGet(bucket(Math.max(TimeUnit.NANOSECONDS.toMicros(elapsedNanos), 0)));
+    }
+
+    long batches() {
+        return batches.sum();
+    }
+
+    /**
+     * 生成结果汇总
+     *
+     * @return 结果汇总
+     */
+    BatchReport toReport() {
+        BatchReport report = new BatchReport();
+        report.setRows(rows.sum());
+        report.setBatches(batches.sum());
+        report.setSucceededBatches(succeededBatches.sum());
+        report.setFailedBatches(failedBatches.sum());
+        report.setFailedRows(failedRows.sum());
+        report.setRetries(retries.sum());
+        report.setTimeouts(timeouts.sum());
+        report.setDeadLetterRows(deadLetterRows.sum());
+        report.setElapsedMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        report.setRowsPerSecond(report.getElapsedMillis() > 0 ? report.getRows() * 1000.0 / report.getElapsedMillis() : report.getRows());
+        report.setLatencyP50Millis(percentileMillis(0.5));
+        report.setLatencyP90Millis(percentileMillis(0.9));
+        report.setLatencyP99Millis(percentileMillis(0.99));
+        report.setLatencyMaxMillis(percentileMillis(1));
+        report.setFirstError(firstError.get());
+        Throwable cause = abortCause.get();
+        if (cause != null) {
+            report.setAborted(true);
+            report.setAbortError(cause.toString());
+            report.setAbortCause(cause);
+        }
+        return report;
+    }
+
+    /**
+     * 按直方图估算分位数,取所在区间的上界
+     *
+     * @param quantile 分位
+     * @return 耗时(毫秒)
+     */
+    private double percentileMillis(double quantile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += latencies.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max((long) Math.ceil(total * quantile), 1);
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += latencies.get(i);
+            if (count >= rank) {
+                long upper = i + 1 < BUCKETS ? lowerBound(i + 1) - 1 : Long.MAX_VALUE;
+                return upper / 1000.0;
+            }
+        }
+        return Long.MAX_VALUE / 1000.0;
+    }
+
+    /**
+     * 数值所在的直方图区间:小于16时每个值一个区间,之后每个2的幂区间等分为16个子区间
+     *
+     * @param value 数值
+     * @return 区间下标
+     */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * 直方图区间的下界
+     *
+     * @param bucket 区间下标
+     * @return 下界
+     */
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return ((long) SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    }
+}
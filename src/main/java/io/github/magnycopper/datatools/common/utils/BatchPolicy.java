@@ -0,0 +1,77 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: 分批处理策略:失败重试、单次处理超时及失败批次的死信输出
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-09-30 10:10
+ */
+@Data
+@NoArgsConstructor
+public class BatchPolicy {
+
+    /**
+     * 每批最多处理次数(含首次),1为不重试
+     */
+    private int maxAttempts = 3;
+
+    /**
+     * 首次重试前的等待时间(毫秒)
+     */
+    private long initialBackoffMillis = 1000;
+
+    /**
+     * 每次重试等待时间的倍数
+     */
+    private double backoffMultiplier = 2;
+
+    /**
+     * 重试等待时间上限(毫秒)
+     */
+    private long maxBackoffMillis = 30000;
+
+    /**
+     * 单次处理超时时间(毫秒),超时后中断处理线程,处理因此失败时按超时重试,忽略中断并正常完成时视为成功,不大于0时不限制;
+     * 分批操作需响应中断才能在超时后及时结束,超时的处理可能已部分生效,重试时会再次执行,设置超时时分批操作需幂等
+     */
+    private long timeoutMillis = 0;
+
+    /**
+     * 死信日志名称,重试后仍失败的批次逐条序列化后写入该日志,为空时只记录异常日志
+     */
+    private String deadLetterLogName;
+
+    /**
+     * 自适应模式的单批目标耗时(毫秒),大于0时按实际单批耗时调整每批数量及并发数,不大于0时每批数量及并发数固定
+     */
+    private long targetLatencyMillis = 0;
+
+    /**
+     * 自适应模式的每批最少数量
+     */
+    private int minBatchSize = 1;
+
+    /**
+     * 自适应模式的每批最多数量
+     */
+    private int maxBatchSize = 10000;
+
+    /**
+     * 自适应模式的最大并发数,不大于0时为初始线程数的4倍
+     */
+    private int maxParallelism = 0;
+
+    /**
+     * 不重试、不写入死信的策略,与未指定策略时的行为一致
+     *
+     * @return 策略
+     */
+    public static BatchPolicy noRetry() {
+        BatchPolicy policy = new BatchPolicy();
+        policy.setMaxAttempts(1);
+        return policy;
+    }
+}
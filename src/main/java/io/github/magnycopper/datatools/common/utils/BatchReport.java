@@ -0,0 +1,117 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: 分批处理结果汇总
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-09-30 10:20
+ */
+@Data
+@NoArgsConstructor
+public class BatchReport implements Serializable {
+
+    /**
+     * 数据条数
+     */
+    private long rows;
+
+    /**
+     * 批次数
+     */
+    private long batches;
+
+    /**
+     * 处理成功的批次数
+     */
+    private long succeededBatches;
+
+    /**
+     * 重试后仍失败的批次数
+     */
+    private long failedBatches;
+
+    /**
+     * 重试后仍失败的数据条数
+     */
+    private long failedRows;
+
+    /**
+     * 重试次数(不含首次处理)
+     */
+    private long retries;
+
+    /**
+     * 超时次数
+     */
+    private long timeouts;
+
+    /**
+     * 写入死信日志的数据条数
+     */
+    private long deadLetterRows;
+
+    /**
+     * 总耗时(毫秒)
+     */
+    private long elapsedMillis;
+
+    /**
+     * 吞吐量(条/秒)
+     */
+    private double rowsPerSecond;
+
+    /**
+     * 单批耗时(含重试)的中位数(毫秒)
+     */
+    private double latencyP50Millis;
+
+    /**
+     * 单批耗时的90分位(毫秒)
+     */
+    private double latencyP90Millis;
+
+    /**
+     * 单批耗时的99分位(毫秒)
+     */
+    private double latencyP99Millis;
+
+    /**
+     * 单批最大耗时(毫秒)
+     */
+    private double latencyMaxMillis;
+
+    /**
+     * 第一个失败批次的异常信息
+     */
+    private String firstError;
+
+    /**
+     * 是否因读取数据源或提交批次异常而提前结束,提前结束时异常之后的数据未处理
+     */
+    private boolean aborted;
+
+    /**
+     * 提前结束的异常信息
+     */
+    private String abortError;
+
+    /**
+     * 提前结束的异常,不参与序列化
+     */
+    private transient Throwable abortCause;
+
+    /**
+     * 结束时的每批数量,自适应模式下为调整后的结果
+     */
+    private int finalBatchSize;
+
+    /**
+     * 结束时的并发数,自适应模式下为调整后的结果
+     */
+    private int finalParallelism;
+}
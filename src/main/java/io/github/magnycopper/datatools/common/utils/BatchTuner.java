@@ -0,0 +1,162 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: 流水线批处理的每批数量及并发数控制,自适应模式下以加性增、乘性减(AIMD)方式调整:
+ * 每批数量在每批完成后按单批耗时与目标耗时的比较调整;并发数在每完成一轮(并发数个批次)后按吞吐量的变化调整,
+ * 本轮有失败或耗时超过目标2倍的批次时按比例减小
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-10-08 14:30
+ */
+@Slf4j
+final class BatchTuner {
+
+    /**
+     * 吞吐量提升超过该比例时增加并发数,下降超过该比例时减少并发数
+     */
+    private static final double THROUGHPUT_GAIN = 1.05;
+
+    private final boolean adaptive;
+    private final long targetNanos;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final int maxParallelism;
+    /**
+     * 每批数量的加性增量,为初始每批数量的1/4
+     */
+    private final int batchSizeStep;
+
+    private volatile int batchSize;
+    /**
+     * 当前并发数
+     */
+    private int limit;
+    /**
+     * 正在处理的批次数
+     */
+    private int inFlight;
+
+    private long windowStartNanos = System.nanoTime();
+    private int windowBatches;
+    private long windowRows;
+    private boolean windowOverloaded;
+    private double lastThroughput;
+
+    BatchTuner(int batchSize, int parallelism, BatchPolicy policy) {
+        int initialBatchSize = Math.max(batchSize, 1);
+        int initialParallelism = Math.max(parallelism, 1);
+        this.adaptive = policy.getTargetLatencyMillis() > 0;
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(policy.getTargetLatencyMillis());
+        if (adaptive) {
+            this.minBatchSize = Math.max(policy.getMinBatchSize(), 1);
+            this.maxBatchSize = Math.max(policy.getMaxBatchSize(), minBatchSize);
+            this.maxParallelism = policy.getMaxParallelism() > 0 ? policy.getMaxParallelism() : initialParallelism * 4;
+        } else {
+            this.minBatchSize = initialBatchSize;
+            this.maxBatchSize = initialBatchSize;
+            this.maxParallelism = initialParallelism;
+        }
+        this.batchSize = Math.min(Math.max(initialBatchSize, minBatchSize), maxBatchSize);
+        this.batchSizeStep = Math.max(initialBatchSize / 4, 1);
+        this.limit = Math.min(initialParallelism, maxParallelism);
+    }
+
+    /**
+     * 新组批次的目标数量
+     *
+     * @return 每批数量
+     */
+    int batchSize() {
+        return batchSize;
+    }
+
+    /**
+     * 需要启动的处理线程数,超出当前并发数的线程等待
+     *
+     * @return 线程数
+     */
+    int maxParallelism() {
+        return maxParallelism;
+    }
+
+    /**
+     * 当前并发数
+     *
+     * @return 并发数
+     */
+    synchronized int parallelism() {
+        return limit;
+    }
+
+    /**
+     * 开始处理一个批次前调用,正在处理的批次数达到当前并发数时等待
+     *
+     * @throws InterruptedException 等待被中断
+     */
+    synchronized void acquire() throws InterruptedException {
+        while (inFlight >= limit) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    /**
+     * 批次处理结束后调用
+     */
+    synchronized void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * 记录批次处理结果并调整每批数量及并发数
+     *
+     * @param rows         批次条数
+     * @param elapsedNanos 耗时(含重试)
+     * @param succeeded    是否成功
+     */
+    synchronized void onBatch(int rows, long elapsedNanos, boolean succeeded) {
+        if (!adaptive) {
+            return;
+        }
+        boolean overTarget = !succeeded || elapsedNanos > targetNanos;
+        if (overTarget) {
+            // 只按不小于当前每批数量的批次减小,避免减小前已组好的批次连续触发减小
+            if (rows >= batchSize && batchSize > minBatchSize) {
+                batchSize = Math.max(batchSize / 2, minBatchSize);
+                log.debug("批次耗时{}毫秒超过目标,每批数量减小为{}", TimeUnit.NANOSECONDS.toMillis(elapsedNanos), batchSize);
+            }
+        } else if (batchSize < maxBatchSize) {
+            batchSize = Math.min(batchSize + batchSizeStep, maxBatchSize);
+        }
+        windowBatches++;
+        windowRows += rows;
+        windowOverloaded |= !succeeded || elapsedNanos > targetNanos * 2;
+        if (windowBatches < limit) {
+            return;
+        }
+        long now = System.nanoTime();
+        double throughput = windowRows * 1e9 / Math.max(now - windowStartNanos, 1);
+        int previous = limit;
+        if (windowOverloaded) {
+            limit = Math.max(limit * 3 / 4, 1);
+        } else if (throughput > lastThroughput * THROUGHPUT_GAIN) {
+            limit = Math.min(limit + 1, maxParallelism);
+        } else if (throughput * THROUGHPUT_GAIN < lastThroughput) {
+            limit = Math.max(limit - 1, 1);
+        }
+        if (limit != previous) {
+            log.debug("本轮吞吐量{}条/秒,并发数由{}调整为{}", (long) throughput, previous, limit);
+            notifyAll();
+        }
+        lastThroughput = throughput;
+        windowStartNanos = now;
+        windowBatches = 0;
+        windowRows = 0;
+        windowOverloaded = false;
+    }
+}
@@ -2,12 +2,30 @@ package io.github.magnycopper.datatools.common.utils;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.ListUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.retry.support.RetryTemplate;
+import org.springframework.retry.support.RetryTemplateBuilder;
+import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * @program: datatools-spring-boot-project
@@ -16,8 +34,119 @@ import java.util.concurrent.atomic.AtomicInteger;
  * @create: 2020-11-18 11:26
  */
 @Slf4j
+@Component
 public class BatchUtils {
 
+    /**
+     * 是否使用虚拟线程执行分批操作(需JDK21及以上,不支持时使用平台线程)
+     */
+    private static boolean VIRTUAL_THREADS = false;
+
+    /**
+     * 全部调用共用的执行器,各调用的并发数由调用方的线程数参数限制
+     */
+    private static volatile ExecutorService EXECUTOR;
+
+    /**
+     * 执行器是否由本工具创建,外部注入的执行器不由本工具关闭
+     */
+    private static volatile boolean OWNED_EXECUTOR;
+
+    /**
+     * 平台线程编号
+     */
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+    /**
+     * 单次处理超时的计时线程,处理在调用线程中执行,超时后由计时线程中断调用线程,不占用执行器的线程
+     */
+    private static final ScheduledThreadPoolExecutor WATCHDOG = newWatchdog();
+
+    /**
+     * 获取共用的执行器,首次使用时创建
+     *
+     * @return 执行器
+     */
+    private static ExecutorService executor() {
+        ExecutorService executor = EXECUTOR;
+        if (executor == null) {
+            synchronized (BatchUtils.class) {
+                executor = EXECUTOR;
+                if (executor == null) {
+                    executor = VIRTUAL_THREADS ? newVirtualThreadExecutor() : null;
+                    if (executor == null) {
+                        executor = newPlatformThreadExecutor();
+                    }
+                    EXECUTOR = executor;
+                    OWNED_EXECUTOR = true;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * 创建虚拟线程执行器,通过反射调用以兼容低版本JDK
+     *
+     * @return 执行器,JDK不支持时返回null
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            log.info("批处理使用虚拟线程执行");
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            log.warn("当前JDK{}不支持虚拟线程,批处理使用平台线程执行", System.getProperty("java.version"));
+            return null;
+        }
+    }
+
+    /**
+     * 创建平台线程执行器:线程按需创建、空闲60秒后回收,不限制线程数,
+     * 避免嵌套调用或多个调用同时执行时因线程不足而互相等待
+     *
+     * @return 执行器
+     */
+    private static ExecutorService newPlatformThreadExecutor() {
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "batch-utils-" + THREAD_NUMBER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 创建超时计时线程
+     *
+     * @return 计时执行器
+     */
+    private static ScheduledThreadPoolExecutor newWatchdog() {
+        ScheduledThreadPoolExecutor watchdog = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "batch-utils-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watchdog.setRemoveOnCancelPolicy(true);
+        return watchdog;
+    }
+
+    /**
+     * 设置共用的执行器,之前由本工具创建的执行器在执行中的任务完成后关闭;
+     * 每次调用占用与线程数(自适应模式下为最大并发数)相同的线程直到处理完成,
+     * 线程数固定的执行器会限制实际并发数,分批操作中嵌套调用分批处理时可能因线程耗尽而互相等待,
+     * 应使用不限制线程数的执行器(如Executors.newCachedThreadPool)或虚拟线程执行器
+     *
+     * @param executor 执行器,为null时恢复为本工具创建的执行器
+     */
+    public static synchronized void setExecutor(ExecutorService executor) {
+        ExecutorService previous = EXECUTOR;
+        if (previous != null && OWNED_EXECUTOR && previous != executor) {
+            previous.shutdown();
+        }
+        EXECUTOR = executor;
+        OWNED_EXECUTOR = false;
+    }
+
     /**
      * 批处理方法
      *
@@ -27,15 +156,7 @@ public class BatchUtils {
      * @param <T>       元素类型
      */
     public static <T> void batchProcess(List<T> tList, int batchSize, BatchOps<T> batchOps) {
-        List<List<T>> batchLists = ListUtils.partition(tList, batchSize);
-        for (int i = 1; i <= batchLists.size(); i++) {
-            try {
-                log.info("开始单线程处理第{}批数据，总计：{}批", i, batchLists.size());
-                batchOps.batchOp(batchLists.get(i - 1));
-            } catch (Exception e) {
-                log.error("batchOp发生异常", e);
-            }
-        }
+        batchProcess(tList, batchSize, 1, BatchPolicy.noRetry(), batchOps);
     }
 
     /**
@@ -48,31 +169,471 @@ public class BatchUtils {
      * @param <T>         元素类型
      */
     public static <T> void batchProcess(List<T> tList, int batchSize, int parallelism, BatchOps<T> batchOps) {
+        batchProcess(tList, batchSize, parallelism, BatchPolicy.noRetry(), batchOps);
+    }
+
+    /**
+     * 按策略重试、超时及输出死信的批处理方法,线程数不大于1时在调用线程中依次处理;
+     * 策略为自适应模式时按流水线方式处理,每批数量及并发数由策略调整;
+     * 提交批次异常时等待已提交的批次处理完成后返回,结果汇总标记为提前结束({@link BatchReport#isAborted()})
+     *
+     * @param tList       待处理的list
+     * @param batchSize   每批数量
+     * @param parallelism 线程数
+     * @param policy      分批处理策略
+     * @param batchOps    分批操作
+     * @param <T>         元素类型
+     * @return 处理结果汇总
+     */
+    public static <T> BatchReport batchProcess(List<T> tList, int batchSize, int parallelism, BatchPolicy policy, BatchOps<T> batchOps) {
+        if (policy.getTargetLatencyMillis() > 0) {
+            return batchProcess(tList.iterator(), batchSize, parallelism, policy, batchOps);
+        }
+        BatchMetrics metrics = new BatchMetrics();
+        RetryTemplate retryTemplate = retryTemplate(policy);
+        List<List<T>> batchLists = ListUtils.partition(tList, batchSize);
+        metrics.rows(tList.size());
         if (parallelism <= 1) {
-            batchProcess(tList, batchSize, batchOps);
+            for (int i = 1; i <= batchLists.size(); i++) {
+                log.info("开始单线程处理第{}批数据，总计：{}批", i, batchLists.size());
+                runBatch(batchLists.get(i - 1), policy, retryTemplate, metrics, batchOps);
+            }
         } else {
-            ExecutorService executorService = Executors.newFixedThreadPool(parallelism);
+            // 同时提交的批次不超过线程数,其余批次等待有批次完成后再提交
+            Semaphore permits = new Semaphore(parallelism);
             try {
-                List<List<T>> batchLists = ListUtils.partition(tList, batchSize);
                 AtomicInteger atomicInteger = new AtomicInteger(0);
-                CountDownLatch countDownLatch = new CountDownLatch(batchLists.size());
+                ExecutorService executorService = executor();
                 for (List<T> datas : batchLists) {
-                    executorService.submit(() -> {
-                        try {
-                            log.info("多线程处理第{}批数据，总计：{}批,线程数:{}", atomicInteger.incrementAndGet(), batchLists.size(), parallelism);
-                            batchOps.batchOp(datas);
-                        } catch (Exception e) {
-                            log.error("batchOp发生异常", e);
-                        } finally {
-                            countDownLatch.countDown();
+                    permits.acquire();
+                    try {
+                        executorService.execute(() -> {
+                            try {
+                                log.info("多线程处理第{}批数据，总计：{}批,线程数:{}", atomicInteger.incrementAndGet(), batchLists.size(), parallelism);
+                                runBatch(datas, policy, retryTemplate, metrics, batchOps);
+                            } finally {
+                                permits.release();
+                            }
+                        });
+                    } catch (RuntimeException e) {
+                        permits.release();
+                        throw e;
+                    }
+                }
+                // 取回全部许可即全部批次处理完成
+                permits.acquire(parallelism);
+            } catch (InterruptedException e) {
+                log.error("多线程分批被中断", e);
+                Thread.currentThread().interrupt();
+                metrics.abort(e);
+            } catch (RuntimeException e) {
+                log.error("多线程分批异常,等待已提交的批次处理完成", e);
+                metrics.abort(e);
+                permits.acquireUninterruptibly(parallelism);
+            }
+        }
+        BatchReport report = metrics.toReport();
+        report.setFinalBatchSize(batchSize);
+        report.setFinalParallelism(Math.max(parallelism, 1));
+        log.info("分批处理完成:{}", report);
+        return report;
+    }
+
+    /**
+     * 流水线批处理方法,队列容量为线程数的2倍
+     *
+     * @param iterator    数据源
+     * @param batchSize   每批数量
+     * @param parallelism 处理线程数
+     * @param batchOps    分批操作
+     * @param <T>         元素类型
+     * @return 读取的数据条数
+     * @throws RuntimeException 读取数据源异常,已读取的数据处理完成后抛出
+     */
+    public static <T> long batchProcess(Iterator<T> iterator, int batchSize, int parallelism, BatchOps<T> batchOps) {
+        return batchProcess(iterator, batchSize, parallelism, Math.max(parallelism, 1) * 2, batchOps);
+    }
+
+    /**
+     * 流水线批处理方法,调用线程读取数据源并组批放入有界队列,处理线程同时从队列中取批处理;
+     * 队列满时读取等待,内存中最多只有队列容量加处理线程数个批次,不需要一次性载入全部数据
+     *
+     * @param iterator      数据源
+     * @param batchSize     每批数量
+     * @param parallelism   处理线程数
+     * @param queueCapacity 等待处理的批次队列容量
+     * @param batchOps      分批操作
+     * @param <T>           元素类型
+     * @return 读取的数据条数
+     * @throws RuntimeException 读取数据源异常,已读取的数据处理完成后抛出
+     */
+    public static <T> long batchProcess(Iterator<T> iterator, int batchSize, int parallelism, int queueCapacity, BatchOps<T> batchOps) {
+        BatchReport report = batchProcess(iterator, batchSize, parallelism, queueCapacity, BatchPolicy.noRetry(), batchOps);
+        Throwable cause = report.getAbortCause();
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        } else if (cause != null) {
+            throw new IllegalStateException("流水线处理提前结束", cause);
+        }
+        return report.getRows();
+    }
+
+    /**
+     * 按策略重试、超时及输出死信的流水线批处理方法,队列容量为线程数的2倍
+     *
+     * @param iterator    数据源
+     * @param batchSize   每批数量
+     * @param parallelism 处理线程数
+     * @param policy      分批处理策略
+     * @param batchOps    分批操作
+     * @param <T>         元素类型
+     * @return 处理结果汇总
+     */
+    public static <T> BatchReport batchProcess(Iterator<T> iterator, int batchSize, int parallelism, BatchPolicy policy, BatchOps<T> batchOps) {
+        return batchProcess(iterator, batchSize, parallelism, Math.max(parallelism, 1) * 2, policy, batchOps);
+    }
+
+    /**
+     * 按策略重试、超时及输出死信的流水线批处理方法,重试等待期间占用处理线程,不再从队列中取批;
+     * 策略为自适应模式时,每批数量从batchSize开始、并发数从parallelism开始按单批耗时调整;
+     * 读取数据源异常时停止读取,已读取的数据处理完成后返回,结果汇总标记为提前结束({@link BatchReport#isAborted()})
+     *
+     * @param iterator      数据源
+     * @param batchSize     每批数量
+     * @param parallelism   处理线程数
+     * @param queueCapacity 等待处理的批次队列容量
+     * @param policy        分批处理策略
+     * @param batchOps      分批操作
+     * @param <T>           元素类型
+     * @return 处理结果汇总
+     */
+    public static <T> BatchReport batchProcess(Iterator<T> iterator, int batchSize, int parallelism, int queueCapacity, BatchPolicy policy, BatchOps<T> batchOps) {
+        BatchTuner tuner = new BatchTuner(batchSize, parallelism, policy);
+        // 按最大并发数启动处理线程,超出当前并发数的线程等待
+        int workers = tuner.maxParallelism();
+        BlockingQueue<List<T>> queue = new ArrayBlockingQueue<>(Math.max(queueCapacity, 1));
+        // 结束标记,按引用比较
+        List<T> end = new ArrayList<>(0);
+        BatchMetrics metrics = new BatchMetrics();
+        RetryTemplate retryTemplate = retryTemplate(policy);
+        CountDownLatch finished = new CountDownLatch(workers);
+        List<Future<?>> futures = new ArrayList<>(workers);
+        long rows = 0;
+        try {
+            ExecutorService executorService = executor();
+            for (int i = 0; i < workers; i++) {
+                futures.add(executorService.submit(() -> {
+                    try {
+                        while (true) {
+                            tuner.acquire();
+                            List<T> datas;
+                            long startNanos;
+                            boolean succeeded;
+                            try {
+                                datas = queue.take();
+                                if (datas == end) {
+                                    break;
+                                }
+                                log.debug("流水线处理第{}批数据,{}条,并发数:{}", metrics.batches() + 1, datas.size(), tuner.parallelism());
+                                startNanos = System.nanoTime();
+                                succeeded = runBatch(datas, policy, retryTemplate, metrics, batchOps);
+                            } finally {
+                                tuner.release();
+                            }
+                            tuner.onBatch(datas.size(), System.nanoTime() - startNanos, succeeded);
                         }
-                    });
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        finished.countDown();
+                    }
+                }));
+            }
+            // 每组一批时读取一次目标数量
+            int size = tuner.batchSize();
+            List<T> batch = new ArrayList<>(size);
+            try {
+                while (iterator.hasNext()) {
+                    batch.add(iterator.next());
+                    rows++;
+                    if (batch.size() >= size) {
+                        queue.put(batch);
+                        metrics.rows(batch.size());
+                        size = tuner.batchSize();
+                        batch = new ArrayList<>(size);
+                    }
+                }
+            } catch (RuntimeException e) {
+                log.error("读取数据源异常,已读取{}条,等待已读取的数据处理完成", rows, e);
+                metrics.abort(e);
+            }
+            if (!batch.isEmpty()) {
+                queue.put(batch);
+                metrics.rows(batch.size());
+            }
+            for (int i = 0; i < workers; i++) {
+                queue.put(end);
+            }
+            while (!finished.await(1, TimeUnit.MINUTES)) {
+                log.info("等待流水线处理完成,已处理{}批,待处理{}批", metrics.batches(), queue.size());
+            }
+            log.info("流水线处理完成,共{}条数据,{}批,并发数:{}", rows, metrics.batches(), tuner.parallelism());
+        } catch (InterruptedException e) {
+            log.error("流水线处理被中断,已读取{}条", rows, e);
+            Thread.currentThread().interrupt();
+            futures.forEach(future -> future.cancel(true));
+            metrics.abort(e);
+        }
+        BatchReport report = metrics.toReport();
+        report.setFinalBatchSize(tuner.batchSize());
+        report.setFinalParallelism(tuner.parallelism());
+        log.info("分批处理完成:{}", report);
+        return report;
+    }
+
+    /**
+     * 流水线批处理方法,流由调用方关闭
+     *
+     * @param stream      数据源
+     * @param batchSize   每批数量
+     * @param parallelism 处理线程数
+     * @param batchOps    分批操作
+     * @param <T>         元素类型
+     * @return 读取的数据条数
+     */
+    public static <T> long batchProcess(Stream<T> stream, int batchSize, int parallelism, BatchOps<T> batchOps) {
+        return batchProcess(stream.iterator(), batchSize, parallelism, batchOps);
+    }
+
+    /**
+     * 流水线批处理方法
+     *
+     * @param supplier    数据源,返回null时结束
+     * @param batchSize   每批数量
+     * @param parallelism 处理线程数
+     * @param batchOps    分批操作
+     * @param <T>         元素类型
+     * @return 读取的数据条数
+     */
+    public static <T> long batchProcess(Supplier<T> supplier, int batchSize, int parallelism, BatchOps<T> batchOps) {
+        Iterator<T> iterator = new Iterator<T>() {
+            private T next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    next = supplier.get();
+                }
+                return next != null;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                T value = next;
+                next = null;
+                return value;
+            }
+        };
+        return batchProcess(iterator, batchSize, parallelism, batchOps);
+    }
+
+    /**
+     * 重新处理死信日志中的数据,死信日志读取后不删除;策略中的死信日志名称应与读取的死信日志不同
+     *
+     * @param deadLetterLogName 死信日志名称
+     * @param batchSize         每批数量
+     * @param parallelism       处理线程数
+     * @param policy            分批处理策略
+     * @param batchOps          分批操作
+     * @param <T>               元素类型
+     * @return 处理结果汇总
+     * @throws IOException 打开日志文件异常
+     */
+    public static <T> BatchReport replayDeadLetters(String deadLetterLogName, int batchSize, int parallelism, BatchPolicy policy, BatchOps<T> batchOps) throws IOException {
+        String logFilePath = LogUtils.LOG_DIR_PATH + File.separator + deadLetterLogName + ".logx";
+        try (Stream<String> lines = LogUtils.streamLogs(logFilePath)) {
+            Stream<T> datas = lines.map(line -> {
+                try {
+                    return SerializeUtils.<T>deserialize(line);
+                } catch (Exception e) {
+                    log.error("死信日志{}中的数据反序列化失败,已跳过", deadLetterLogName, e);
+                    return null;
+                }
+            }).filter(Objects::nonNull);
+            return batchProcess(datas.iterator(), batchSize, parallelism, policy, batchOps);
+        }
+    }
+
+    /**
+     * 按策略创建重试模板
+     *
+     * @param policy 分批处理策略
+     * @return 重试模板
+     */
+    private static RetryTemplate retryTemplate(BatchPolicy policy) {
+        RetryTemplateBuilder builder = RetryTemplate.builder()
+                .maxAttempts(Math.max(policy.getMaxAttempts(), 1))
+                .retryOn(Exception.class);
+        if (policy.getInitialBackoffMillis() <= 0) {
+            builder.noBackoff();
+        } else if (policy.getBackoffMultiplier() <= 1) {
+            builder.fixedBackoff(policy.getInitialBackoffMillis());
+        } else {
+            builder.exponentialBackoff(policy.getInitialBackoffMillis(), policy.getBackoffMultiplier(),
+                    Math.max(policy.getMaxBackoffMillis(), policy.getInitialBackoffMillis() + 1));
+        }
+        return builder.build();
+    }
+
+    /**
+     * 按策略处理单个批次,重试后仍失败时记录异常并写入死信日志,不抛出异常
+     *
+     * @param batch         批次
+     * @param policy        分批处理策略
+     * @param retryTemplate 重试模板
+     * @param metrics       统计
+     * @param batchOps      分批操作
+     * @param <T>           元素类型
+     * @return 是否处理成功
+     */
+    private static <T> boolean runBatch(List<T> batch, BatchPolicy policy, RetryTemplate retryTemplate, BatchMetrics metrics, BatchOps<T> batchOps) {
+        long startNanos = System.nanoTime();
+        Exception error = null;
+        try {
+            retryTemplate.execute(context -> {
+                if (context.getRetryCount() > 0) {
+                    metrics.retry();
+                    log.warn("第{}次重试批次,共{}条数据", context.getRetryCount(), batch.size(), context.getLastThrowable());
+                }
+                attempt(batch, policy.getTimeoutMillis(), metrics, batchOps);
+                return null;
+            });
+        } catch (Exception e) {
+            error = e;
+            log.error("batchOp发生异常", e);
+        }
+        metrics.batch(batch.size(), System.nanoTime() - startNanos, error);
+        if (error != null && StringUtils.isNotBlank(policy.getDeadLetterLogName())) {
+            deadLetter(batch, policy.getDeadLetterLogName(), metrics);
+        }
+        return error == null;
+    }
+
+    /**
+     * 在当前线程处理一次批次,超时时由计时线程中断当前线程,处理结束后抛出超时异常,
+     * 重试不会与上一次处理同时执行,也不额外占用执行器的线程
+     *
+     * @param batch         批次
+     * @param timeoutMillis 超时时间(毫秒),不大于0时不限制
+     * @param metrics       统计
+     * @param batchOps      分批操作
+     * @param <T>           元素类型
+     * @throws Exception 处理异常或超时
+     */
+    private static <T> void attempt(List<T> batch, long timeoutMillis, BatchMetrics metrics, BatchOps<T> batchOps) throws Exception {
+        if (timeoutMillis <= 0) {
+            batchOps.batchOp(batch);
+            return;
+        }
+        Thread worker = Thread.currentThread();
+        // 处理状态,计时线程与当前线程在该对象上同步,处理结束后不会再被中断
+        AtomicBoolean timedOut = new AtomicBoolean();
+        AtomicBoolean done = new AtomicBoolean();
+        ScheduledFuture<?> watchdog = WATCHDOG.schedule(() -> {
+            synchronized (done) {
+                if (!done.get()) {
+                    timedOut.set(true);
+                    worker.interrupt();
                 }
-                countDownLatch.await();
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        Exception error = null;
+        try {
+            batchOps.batchOp(batch);
+        } catch (Exception e) {
+            error = e;
+        } finally {
+            watchdog.cancel(false);
+            synchronized (done) {
+                done.set(true);
+            }
+        }
+        if (timedOut.get()) {
+            // 清除计时线程设置的中断标记
+            Thread.interrupted();
+            metrics.timeout();
+            if (error != null) {
+                TimeoutException timeout = new TimeoutException(String.format("批次处理超过%d毫秒", timeoutMillis));
+                timeout.initCause(error);
+                throw timeout;
+            }
+            log.warn("批次处理超过{}毫秒,中断前已完成", timeoutMillis);
+        } else if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * 将失败批次逐条序列化后写入死信日志,每条一行
+     *
+     * @param batch             批次
+     * @param deadLetterLogName 死信日志名称
+     * @param metrics           统计
+     * @param <T>               元素类型
+     */
+    private static <T> void deadLetter(List<T> batch, String deadLetterLogName, BatchMetrics metrics) {
+        List<String> lines = new ArrayList<>(batch.size());
+        for (T data : batch) {
+            if (!(data instanceof Serializable)) {
+                log.error("数据{}未实现Serializable,无法写入死信日志{}", data, deadLetterLogName);
+                continue;
+            }
+            try {
+                lines.add(SerializeUtils.serialize((Serializable) data));
             } catch (Exception e) {
-                log.error("多线程分批异常", e);
-            } finally {
-                executorService.shutdown();
+                log.error("数据序列化失败,无法写入死信日志{}", deadLetterLogName, e);
+            }
+        }
+        if (!lines.isEmpty()) {
+            try {
+                LogUtils.writeLogs(deadLetterLogName, lines);
+            } catch (UncheckedIOException e) {
+                // 本批数据已放入写入器,异常对应此前未能写入的死信
+                log.error("死信日志{}有部分数据未能写入", deadLetterLogName, e);
+            }
+            metrics.deadLetter(lines.size());
+        }
+    }
+
+    @Value(value = "${basic-service.batch.virtual-threads:false}")
+    public void setVirtualThreads(boolean virtualThreads) {
+        VIRTUAL_THREADS = virtualThreads;
+    }
+
+    /**
+     * 注入名为batchExecutor的执行器,不存在时使用本工具创建的执行器
+     *
+     * @param batchExecutor 执行器
+     */
+    @Autowired(required = false)
+    public void setBatchExecutor(@Qualifier("batchExecutor") ExecutorService batchExecutor) {
+        setExecutor(batchExecutor);
+    }
+
+    /**
+     * 关闭本工具创建的执行器
+     */
+    @PreDestroy
+    public void destroy() {
+        synchronized (BatchUtils.class) {
+            if (EXECUTOR != null && OWNED_EXECUTOR) {
+                EXECUTOR.shutdown();
+                EXECUTOR = null;
             }
         }
     }
@@ -0,0 +1,696 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: 紧凑二进制编解码器,按类的字段结构编码实体(基本类型字段不写类型标记,整数按变长编码),
+ * 同一次编码中的类名只写一次,重复引用及循环引用按引用编号写入;
+ * 只实例化实现了Serializable且有无参构造方法的类,自定义了Java序列化方法的类及JDK内部类型退化为Java序列化;
+ * 解码时校验字段结构,实体增删或修改字段后以旧结构编码的数据无法解码,不适合长期保存的数据,
+ * 需通过basic-service.serialize.codec=binary显式启用
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-09-29 16:00
+ */
+final class BinarySerializeCodec implements SerializeCodec {
+
+    /**
+     * 编解码器ID
+     */
+    static final byte ID = 1;
+    /**
+     * 编解码器名称
+     */
+    static final String NAME = "binary";
+
+    /**
+     * 类型标记
+     */
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte FLOAT = 5;
+    private static final byte TRUE = 6;
+    private static final byte FALSE = 7;
+    private static final byte SHORT = 8;
+    private static final byte BYTE = 9;
+    private static final byte CHARACTER = 10;
+    private static final byte BIG_DECIMAL = 11;
+    private static final byte BIG_INTEGER = 12;
+    private static final byte SQL_TIMESTAMP = 13;
+    private static final byte SQL_DATE = 14;
+    private static final byte UTIL_DATE = 15;
+    private static final byte LOCAL_DATE = 16;
+    private static final byte LOCAL_DATE_TIME = 17;
+    private static final byte LOCAL_TIME = 18;
+    private static final byte INSTANT = 19;
+    private static final byte BYTES = 20;
+    private static final byte INTS = 21;
+    private static final byte LONGS = 22;
+    private static final byte DOUBLES = 23;
+    private static final byte ENUM = 30;
+    private static final byte ARRAY = 31;
+    private static final byte LIST = 32;
+    private static final byte SET = 33;
+    private static final byte MAP = 34;
+    private static final byte BEAN = 35;
+    private static final byte REFERENCE = 36;
+    private static final byte SERIALIZABLE = 99;
+
+    /**
+     * 集合类型,按原类型还原
+     */
+    private static final List<Class<?>> LIST_TYPES = Arrays.asList(ArrayList.class, LinkedList.class);
+    private static final List<Class<?>> SET_TYPES = Arrays.asList(HashSet.class, LinkedHashSet.class, TreeSet.class);
+    private static final List<Class<?>> MAP_TYPES = Arrays.asList(HashMap.class, LinkedHashMap.class, TreeMap.class, ConcurrentHashMap.class);
+
+    /**
+     * 自定义Java序列化的方法名,定义了这些方法的类按Java序列化处理
+     */
+    private static final Set<String> SERIALIZATION_METHODS = new HashSet<>(Arrays.asList("writeObject", "readObject", "readObjectNoData", "writeReplace", "readResolve"));
+
+    /**
+     * 各类的字段结构缓存
+     */
+    private static final Map<Class<?>, BeanSchema> SCHEMAS = new ConcurrentHashMap<>();
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean supports(Object value) {
+        if (value == null) {
+            return true;
+        }
+        Class<?> type = value.getClass();
+        return LIST_TYPES.contains(type) || SET_TYPES.contains(type) && !isSorted(value) || MAP_TYPES.contains(type) && !isSorted(value)
+                || type.isArray() || schema(type).supported;
+    }
+
+    @Override
+    public void encode(DataOutput out, Object value) throws IOException {
+        new Encoder(out).writeValue(value);
+    }
+
+    @Override
+    public Object decode(DataInput in) throws IOException {
+        return new Decoder(in).readValue();
+    }
+
+    /**
+     * 是否为指定了比较器的有序集合,比较器无法编码
+     *
+     * @param value 集合
+     * @return 是否指定了比较器
+     */
+    private static boolean isSorted(Object value) {
+        return value instanceof SortedSet && ((SortedSet<?>) value).comparator() != null
+                || value instanceof SortedMap && ((SortedMap<?, ?>) value).comparator() != null;
+    }
+
+    /**
+     * 获取类的字段结构
+     *
+     * @param type 类
+     * @return 字段结构
+     */
+    private static BeanSchema schema(Class<?> type) {
+        BeanSchema schema = SCHEMAS.get(type);
+        if (schema == null) {
+            schema = SCHEMAS.computeIfAbsent(type, BeanSchema::new);
+        }
+        return schema;
+    }
+
+    /**
+     * 写入变长整数(zigzag编码)
+     */
+    private static void writeVarLong(DataOutput out, long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.writeByte((int) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.writeByte((int) zigzag);
+    }
+
+    /**
+     * 读取变长整数(zigzag编码)
+     */
+    private static long readVarLong(DataInput in) throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new IOException("变长整数格式错误");
+    }
+
+    /**
+     * 类的字段结构:实现了Serializable的各层类中的非静态、非transient字段,按声明类及字段名排序
+     */
+    private static final class BeanSchema {
+
+        /**
+         * 是否可以按字段编码
+         */
+        private final boolean supported;
+        /**
+         * 无参构造方法
+         */
+        private final Constructor<?> constructor;
+        /**
+         * 字段
+         */
+        private final Field[] fields;
+        /**
+         * 字段结构指纹,类的字段变化后无法解码旧数据
+         */
+        private final int fingerprint;
+
+        BeanSchema(Class<?> type) {
+            Constructor<?> constructor = null;
+            List<Field> fields = new ArrayList<>();
+            boolean supported = Serializable.class.isAssignableFrom(type) && !Externalizable.class.isAssignableFrom(type)
+                    && !type.isEnum() && !type.isArray() && !type.isInterface() && !Modifier.isAbstract(type.getModifiers())
+                    && !isPlatformType(type);
+            if (supported) {
+                try {
+                    constructor = type.getDeclaredConstructor();
+                    constructor.setAccessible(true);
+                    for (Class<?> current = type; current != null && Serializable.class.isAssignableFrom(current); current = current.getSuperclass()) {
+                        if (isPlatformType(current) || Arrays.stream(current.getDeclaredMethods()).anyMatch(method -> SERIALIZATION_METHODS.contains(method.getName()))) {
+                            supported = false;
+                            break;
+                        }
+                        Field[] declaredFields = current.getDeclaredFields();
+                        Arrays.sort(declaredFields, Comparator.comparing(Field::getName));
+                        for (Field field : declaredFields) {
+                            if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers())) {
+                                field.setAccessible(true);
+                                fields.add(field);
+                            }
+                        }
+                    }
+                } catch (NoSuchMethodException | RuntimeException e) {
+                    // 无无参构造方法或无法访问字段
+                    supported = false;
+                }
+            }
+            this.supported = supported;
+            this.constructor = constructor;
+            this.fields = fields.toArray(new Field[0]);
+            int fingerprint = type.getName().hashCode();
+            for (Field field : this.fields) {
+                fingerprint = 31 * (31 * fingerprint + field.getName().hashCode()) + field.getType().getName().hashCode();
+            }
+            this.fingerprint = fingerprint;
+        }
+
+        private static boolean isPlatformType(Class<?> type) {
+            String name = type.getName();
+            return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("jdk.") || name.startsWith("sun.");
+        }
+    }
+
+    /**
+     * 单次编码的上下文
+     */
+    private static final class Encoder {
+
+        private final DataOutput out;
+        /**
+         * 已写入的类 -> 编号
+         */
+        private final Map<Class<?>, Integer> classes = new HashMap<>();
+        /**
+         * 已写入的对象 -> 引用编号
+         */
+        private final Map<Object, Integer> references = new IdentityHashMap<>();
+
+        Encoder(DataOutput out) {
+            this.out = out;
+        }
+
+        /**
+         * 写入类,首次出现时写入类名
+         */
+        private void writeClass(Class<?> type) throws IOException {
+            Integer index = classes.get(type);
+            if (index != null) {
+                DiffRowCodec.writeVarInt(out, index);
+                return;
+            }
+            DiffRowCodec.writeVarInt(out, classes.size());
+            classes.put(type, classes.size());
+            DiffRowCodec.writeString(out, type.getName());
+        }
+
+        /**
+         * 已写入过的对象写入引用编号,否则登记引用编号
+         *
+         * @return 是否已写入引用
+         */
+        private boolean writeReference(Object value) throws IOException {
+            Integer index = references.get(value);
+            if (index != null) {
+                out.writeByte(REFERENCE);
+                DiffRowCodec.writeVarInt(out, index);
+                return true;
+            }
+            references.put(value, references.size());
+            return false;
+        }
+
+        void writeValue(Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(NULL);
+            } else if (value instanceof String) {
+                out.writeByte(STRING);
+                DiffRowCodec.writeString(out, (String) value);
+            } else if (value instanceof Integer) {
+                out.writeByte(INTEGER);
+                writeVarLong(out, (Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(LONG);
+                writeVarLong(out, (Long) value);
+            } else if (value instanceof Double) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte((Boolean) value ? TRUE : FALSE);
+            } else if (value instanceof Enum) {
+                out.writeByte(ENUM);
+                writeClass(((Enum<?>) value).getDeclaringClass());
+                DiffRowCodec.writeString(out, ((Enum<?>) value).name());
+            } else if (value instanceof Float) {
+                out.writeByte(FLOAT);
+                out.writeFloat((Float) value);
+            } else if (value instanceof Short) {
+                out.writeByte(SHORT);
+                out.writeShort((Short) value);
+            } else if (value instanceof Byte) {
+                out.writeByte(BYTE);
+                out.writeByte((Byte) value);
+            } else if (value instanceof Character) {
+                out.writeByte(CHARACTER);
+                out.writeChar((Character) value);
+            } else if (value instanceof BigDecimal) {
+                out.writeByte(BIG_DECIMAL);
+                DiffRowCodec.writeString(out, value.toString());
+            } else if (value instanceof BigInteger) {
+                out.writeByte(BIG_INTEGER);
+                DiffRowCodec.writeString(out, value.toString());
+            } else if (value instanceof java.sql.Timestamp) {
+                out.writeByte(SQL_TIMESTAMP);
+                writeVarLong(out, ((java.sql.Timestamp) value).getTime());
+                writeVarLong(out, ((java.sql.Timestamp) value).getNanos());
+            } else if (value instanceof java.sql.Date) {
+                out.writeByte(SQL_DATE);
+                writeVarLong(out, ((java.sql.Date) value).getTime());
+            } else if (value.getClass() == java.util.Date.class) {
+                out.writeByte(UTIL_DATE);
+                writeVarLong(out, ((java.util.Date) value).getTime());
+            } else if (value instanceof LocalDate) {
+                out.writeByte(LOCAL_DATE);
+                writeVarLong(out, ((LocalDate) value).toEpochDay());
+            } else if (value instanceof LocalDateTime) {
+                out.writeByte(LOCAL_DATE_TIME);
+                writeVarLong(out, ((LocalDateTime) value).toLocalDate().toEpochDay());
+                writeVarLong(out, ((LocalDateTime) value).toLocalTime().toNanoOfDay());
+            } else if (value instanceof LocalTime) {
+                out.writeByte(LOCAL_TIME);
+                writeVarLong(out, ((LocalTime) value).toNanoOfDay());
+            } else if (value instanceof Instant) {
+                out.writeByte(INSTANT);
+                writeVarLong(out, ((Instant) value).getEpochSecond());
+                writeVarLong(out, ((Instant) value).getNano());
+            } else if (value instanceof byte[]) {
+                out.writeByte(BYTES);
+                DiffRowCodec.writeVarInt(out, ((byte[]) value).length);
+                out.write((byte[]) value);
+            } else if (value instanceof int[]) {
+                out.writeByte(INTS);
+                DiffRowCodec.writeVarInt(out, ((int[]) value).length);
+                for (int element : (int[]) value) {
+                    writeVarLong(out, element);
+                }
+            } else if (value instanceof long[]) {
+                out.writeByte(LONGS);
+                DiffRowCodec.writeVarInt(out, ((long[]) value).length);
+                for (long element : (long[]) value) {
+                    writeVarLong(out, element);
+                }
+            } else if (value instanceof double[]) {
+                out.writeByte(DOUBLES);
+                DiffRowCodec.writeVarInt(out, ((double[]) value).length);
+                for (double element : (double[]) value) {
+                    out.writeDouble(element);
+                }
+            } else if (value instanceof Object[]) {
+                if (writeReference(value)) {
+                    return;
+                }
+                out.writeByte(ARRAY);
+                writeClass(value.getClass().getComponentType());
+                Object[] array = (Object[]) value;
+                DiffRowCodec.writeVarInt(out, array.length);
+                for (Object element : array) {
+                    writeValue(element);
+                }
+            } else if (LIST_TYPES.contains(value.getClass())) {
+                if (writeReference(value)) {
+                    return;
+                }
+                out.writeByte(LIST);
+                out.writeByte(LIST_TYPES.indexOf(value.getClass()));
+                DiffRowCodec.writeVarInt(out, ((Collection<?>) value).size());
+                for (Object element : (Collection<?>) value) {
+                    writeValue(element);
+                }
+            } else if (SET_TYPES.contains(value.getClass()) && !isSorted(value)) {
+                if (writeReference(value)) {
+                    return;
+                }
+                out.writeByte(SET);
+                out.writeByte(SET_TYPES.indexOf(value.getClass()));
+                DiffRowCodec.writeVarInt(out, ((Collection<?>) value).size());
+                for (Object element : (Collection<?>) value) {
+                    writeValue(element);
+                }
+            } else if (MAP_TYPES.contains(value.getClass()) && !isSorted(value)) {
+                if (writeReference(value)) {
+                    return;
+                }
+                out.writeByte(MAP);
+                out.writeByte(MAP_TYPES.indexOf(value.getClass()));
+                DiffRowCodec.writeVarInt(out, ((Map<?, ?>) value).size());
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                    writeValue(entry.getKey());
+                    writeValue(entry.getValue());
+                }
+            } else if (schema(value.getClass()).supported) {
+                if (writeReference(value)) {
+                    return;
+                }
+                out.writeByte(BEAN);
+                BeanSchema schema = schema(value.getClass());
+                writeClass(value.getClass());
+                out.writeInt(schema.fingerprint);
+                for (Field field : schema.fields) {
+                    writeField(field, value);
+                }
+            } else if (value instanceof Serializable) {
+                // 其他类型退化为Java序列化
+                out.writeByte(SERIALIZABLE);
+                byte[] bytes = JavaSerializeCodec.toBytes(value);
+                DiffRowCodec.writeVarInt(out, bytes.length);
+                out.write(bytes);
+            } else {
+                throw new NotSerializableException(value.getClass().getName());
+            }
+        }
+
+        /**
+         * 写入字段,基本类型字段直接写入值
+         */
+        private void writeField(Field field, Object bean) throws IOException {
+            Class<?> type = field.getType();
+            try {
+                if (!type.isPrimitive()) {
+                    writeValue(field.get(bean));
+                } else if (type == int.class) {
+                    writeVarLong(out, field.getInt(bean));
+                } else if (type == long.class) {
+                    writeVarLong(out, field.getLong(bean));
+                } else if (type == boolean.class) {
+                    out.writeBoolean(field.getBoolean(bean));
+                } else if (type == double.class) {
+                    out.writeDouble(field.getDouble(bean));
+                } else if (type == float.class) {
+                    out.writeFloat(field.getFloat(bean));
+                } else if (type == short.class) {
+                    out.writeShort(field.getShort(bean));
+                } else if (type == byte.class) {
+                    out.writeByte(field.getByte(bean));
+                } else {
+                    out.writeChar(field.getChar(bean));
+                }
+            } catch (IllegalAccessException e) {
+                throw new IOException("读取字段失败:" + field, e);
+            }
+        }
+    }
+
+    /**
+     * 单次解码的上下文
+     */
+    private static final class Decoder {
+
+        private final DataInput in;
+        /**
+         * 按编号排列的类
+         */
+        private final List<Class<?>> classes = new ArrayList<>();
+        /**
+         * 按引用编号排列的对象
+         */
+        private final List<Object> references = new ArrayList<>();
+
+        Decoder(DataInput in) {
+            this.in = in;
+        }
+
+        private Class<?> readClass() throws IOException {
+            int index = DiffRowCodec.readVarInt(in);
+            if (index < classes.size()) {
+                return classes.get(index);
+            }
+            String name = DiffRowCodec.readString(in);
+            // 加载前按类名检查,不允许的类不会被加载
+            String elementName = name;
+            while (elementName.startsWith("[")) {
+                elementName = elementName.substring(1);
+            }
+            if (elementName.startsWith("L") && elementName.endsWith(";")) {
+                elementName = elementName.substring(1, elementName.length() - 1);
+            }
+            if (elementName.length() > 1 && !SerializeFilter.allows(elementName) && !SerializeFilter.allowsJdk(elementName)) {
+                throw new InvalidClassException(name, "不在允许反序列化的包中,可通过SerializeUtils.allowPackages登记");
+            }
+            try {
+                Class<?> type = Class.forName(name, false, Thread.currentThread().getContextClassLoader() == null
+                        ? BinarySerializeCodec.class.getClassLoader() : Thread.currentThread().getContextClassLoader());
+                classes.add(type);
+                return type;
+            } catch (ClassNotFoundException e) {
+                throw new IOException("反序列化失败,找不到类:" + name, e);
+            }
+        }
+
+        /**
+         * 登记引用编号,需在读取子元素前登记,以支持循环引用
+         */
+        private <T> T register(T value) {
+            references.add(value);
+            return value;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Object readValue() throws IOException {
+            byte type = in.readByte();
+            switch (type) {
+                case NULL:
+                    return null;
+                case STRING:
+                    return DiffRowCodec.readString(in);
+                case INTEGER:
+                    return (int) readVarLong(in);
+                case LONG:
+                    return readVarLong(in);
+                case DOUBLE:
+                    return in.readDouble();
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case ENUM:
+                    Class enumType = readClass();
+                    if (!enumType.isEnum()) {
+                        throw new InvalidClassException(enumType.getName(), "不是枚举类型");
+                    }
+                    return Enum.valueOf(enumType, DiffRowCodec.readString(in));
+                case FLOAT:
+                    return in.readFloat();
+                case SHORT:
+                    return in.readShort();
+                case BYTE:
+                    return in.readByte();
+                case CHARACTER:
+                    return in.readChar();
+                case BIG_DECIMAL:
+                    return new BigDecimal(DiffRowCodec.readString(in));
+                case BIG_INTEGER:
+                    return new BigInteger(DiffRowCodec.readString(in));
+                case SQL_TIMESTAMP:
+                    java.sql.Timestamp timestamp = new java.sql.Timestamp(readVarLong(in));
+                    timestamp.setNanos((int) readVarLong(in));
+                    return timestamp;
+                case SQL_DATE:
+                    return new java.sql.Date(readVarLong(in));
+                case UTIL_DATE:
+                    return new java.util.Date(readVarLong(in));
+                case LOCAL_DATE:
+                    return LocalDate.ofEpochDay(readVarLong(in));
+                case LOCAL_DATE_TIME:
+                    return LocalDateTime.of(LocalDate.ofEpochDay(readVarLong(in)), LocalTime.ofNanoOfDay(readVarLong(in)));
+                case LOCAL_TIME:
+                    return LocalTime.ofNanoOfDay(readVarLong(in));
+                case INSTANT:
+                    return Instant.ofEpochSecond(readVarLong(in), readVarLong(in));
+                case BYTES:
+                    byte[] bytes = new byte[DiffRowCodec.readVarInt(in)];
+                    in.readFully(bytes);
+                    return bytes;
+                case INTS:
+                    int[] ints = new int[DiffRowCodec.readVarInt(in)];
+                    for (int i = 0; i < ints.length; i++) {
+                        ints[i] = (int) readVarLong(in);
+                    }
+                    return ints;
+                case LONGS:
+                    long[] longs = new long[DiffRowCodec.readVarInt(in)];
+                    for (int i = 0; i < longs.length; i++) {
+                        longs[i] = readVarLong(in);
+                    }
+                    return longs;
+                case DOUBLES:
+                    double[] doubles = new double[DiffRowCodec.readVarInt(in)];
+                    for (int i = 0; i < doubles.length; i++) {
+                        doubles[i] = in.readDouble();
+                    }
+                    return doubles;
+                case ARRAY:
+                    Class<?> componentType = readClass();
+                    Object[] array = register((Object[]) Array.newInstance(componentType, DiffRowCodec.readVarInt(in)));
+                    for (int i = 0; i < array.length; i++) {
+                        array[i] = readValue();
+                    }
+                    return array;
+                case LIST:
+                case SET:
+                    Collection collection = register((Collection) newInstance((type == LIST ? LIST_TYPES : SET_TYPES).get(in.readUnsignedByte())));
+                    for (int i = DiffRowCodec.readVarInt(in); i > 0; i--) {
+                        collection.add(readValue());
+                    }
+                    return collection;
+                case MAP:
+                    Map map = register((Map) newInstance(MAP_TYPES.get(in.readUnsignedByte())));
+                    for (int i = DiffRowCodec.readVarInt(in); i > 0; i--) {
+                        map.put(readValue(), readValue());
+                    }
+                    return map;
+                case BEAN:
+                    return readBean();
+                case REFERENCE:
+                    return references.get(DiffRowCodec.readVarInt(in));
+                case SERIALIZABLE:
+                    byte[] serialized = new byte[DiffRowCodec.readVarInt(in)];
+                    in.readFully(serialized);
+                    return JavaSerializeCodec.fromBytes(serialized);
+                default:
+                    throw new StreamCorruptedException(String.format("未知的类型标记:%s", type));
+            }
+        }
+
+        private Object readBean() throws IOException {
+            Class<?> type = readClass();
+            if (!SerializeFilter.allows(type.getName())) {
+                throw new InvalidClassException(type.getName(), "不在允许反序列化的包中,可通过SerializeUtils.allowPackages登记");
+            }
+            BeanSchema schema = schema(type);
+            if (!schema.supported) {
+                throw new InvalidClassException(type.getName(), "不支持按字段反序列化");
+            }
+            if (in.readInt() != schema.fingerprint) {
+                throw new InvalidClassException(type.getName(), "字段结构与序列化时不一致");
+            }
+            Object bean = register(newInstance(schema.constructor));
+            for (Field field : schema.fields) {
+                readField(field, bean);
+            }
+            return bean;
+        }
+
+        private void readField(Field field, Object bean) throws IOException {
+            Class<?> type = field.getType();
+            try {
+                if (!type.isPrimitive()) {
+                    Object value = readValue();
+                    if (value != null && !type.isInstance(value)) {
+                        throw new InvalidClassException(bean.getClass().getName(), String.format("字段%s的类型与序列化时不一致", field.getName()));
+                    }
+                    field.set(bean, value);
+                } else if (type == int.class) {
+                    field.setInt(bean, (int) readVarLong(in));
+                } else if (type == long.class) {
+                    field.setLong(bean, readVarLong(in));
+                } else if (type == boolean.class) {
+                    field.setBoolean(bean, in.readBoolean());
+                } else if (type == double.class) {
+                    field.setDouble(bean, in.readDouble());
+                } else if (type == float.class) {
+                    field.setFloat(bean, in.readFloat());
+                } else if (type == short.class) {
+                    field.setShort(bean, in.readShort());
+                } else if (type == byte.class) {
+                    field.setByte(bean, in.readByte());
+                } else {
+                    field.setChar(bean, in.readChar());
+                }
+            } catch (IllegalAccessException e) {
+                throw new IOException("写入字段失败:" + field, e);
+            }
+        }
+
+        private static Object newInstance(Class<?> type) throws IOException {
+            try {
+                return type.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IOException("创建对象失败:" + type.getName(), e);
+            }
+        }
+
+        private static Object newInstance(Constructor<?> constructor) throws IOException {
+            try {
+                return constructor.newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IOException("创建对象失败:" + constructor.getDeclaringClass().getName(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: 带有界队列的差分结果输出端,比较线程与慢速写入线程之间反压
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-09-21 11:08
+ */
+@Slf4j
+public class BoundedDiffSink implements DiffUtils.DiffSink, AutoCloseable {
+
+    /**
+     * 结束标记
+     */
+    private static final Chunk POISON = new Chunk(null, null);
+
+    /**
+     * 实际处理结果的输出端
+     */
+    private final DiffUtils.DiffSink delegate;
+    /**
+     * 待写入的结果批
+     */
+    private final BlockingQueue<Chunk> queue;
+    /**
+     * 写入线程池
+     */
+    private final ExecutorService writerExecutor;
+    /**
+     * 写入线程数
+     */
+    private final int writers;
+    /**
+     * 首个写入异常
+     */
+    private volatile Exception failure;
+
+    /**
+     * 构造方法
+     *
+     * @param delegate 实际处理结果的输出端,如基于SQLUtils的批量写库
+     * @param capacity 队列中最多等待写入的结果批数,队列满时比较线程阻塞等待
+     * @param writers  写入线程数
+     */
+    public BoundedDiffSink(DiffUtils.DiffSink delegate, int capacity, int writers) {
+        this.delegate = delegate;
+        this.queue = new ArrayBlockingQueue<>(Math.max(capacity, 1));
+        this.writers = Math.max(writers, 1);
+        AtomicInteger threadNum = new AtomicInteger();
+        this.writerExecutor = Executors.newFixedThreadPool(this.writers, runnable -> {
+            Thread thread = new Thread(runnable, "diff-sink-writer-" + threadNum.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < this.writers; i++) {
+            writerExecutor.submit(this::drain);
+        }
+    }
+
+    @Override
+    public void accept(DiffUtils.ResultType resultType, List<Map<String, Object>> datas) throws Exception {
+        checkFailure();
+        // 队列已满时阻塞,直到写入线程消费
+        queue.put(new Chunk(resultType, datas));
+    }
+
+    /**
+     * 等待全部结果写入完成并关闭写入线程,等待被中断时停止写入线程并保留中断标记
+     *
+     * @throws IllegalStateException 写入过程中发生异常或等待被中断
+     */
+    @Override
+    public void close() {
+        try {
+            for (int i = 0; i < writers; i++) {
+                queue.put(POISON);
+            }
+            writerExecutor.shutdown();
+            writerExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待差分结果写入完成时被中断", e);
+        } finally {
+            writerExecutor.shutdownNow();
+        }
+        checkFailure();
+    }
+
+    /**
+     * 写入线程循环消费队列,发生异常后继续取出剩余结果以免比较线程阻塞
+     */
+    private void drain() {
+        try {
+            while (true) {
+                Chunk chunk = queue.take();
+                if (chunk == POISON) {
+                    return;
+                }
+                if (failure == null) {
+                    try {
+                        delegate.accept(chunk.resultType, chunk.datas);
+                    } catch (Exception e) {
+                        log.error("差分结果写入发生异常", e);
+                        failure = e;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 写入失败后不再接收新的结果
+     */
+    private void checkFailure() {
+        if (failure != null) {
+            throw new IllegalStateException("差分结果写入失败", failure);
+        }
+    }
+
+    /**
+     * 结果批
+     */
+    private static class Chunk {
+
+        private final DiffUtils.ResultType resultType;
+        private final List<Map<String, Object>> datas;
+
+        Chunk(DiffUtils.ResultType resultType, List<Map<String, Object>> datas) {
+            this.resultType = resultType;
+            this.datas = datas;
+        }
+    }
+}
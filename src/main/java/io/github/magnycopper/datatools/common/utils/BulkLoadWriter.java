@@ -0,0 +1,513 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: 批量导入文件写入工具,将数据按字段顺序写为MySQL的TSV文件或PostgreSQL的CSV文件,
+ * 文件超过指定大小时在行边界滚动,并生成对应的LOAD DATA LOCAL INFILE或COPY语句;
+ * 写入方法可在多个线程中调用,可直接作为{@link BatchUtils}的分批操作
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-10-12 15:10
+ */
+@Slf4j
+public class BulkLoadWriter implements BatchUtils.BatchOps<Map<String, Object>>, Closeable {
+
+    /**
+     * 默认单个文件的最大字节数
+     */
+    public static final long DEFAULT_MAX_FILE_BYTES = 256L * 1024 * 1024;
+
+    /**
+     * 写入缓冲区大小
+     */
+    private static final int BUFFER_BYTES = 1024 * 1024;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    /**
+     * 文件目录
+     */
+    private final Path directory;
+    /**
+     * 表名
+     */
+    private final String dbName;
+    /**
+     * 文件格式
+     */
+    private final Dialect dialect;
+    /**
+     * 单个文件的最大字节数
+     */
+    private final long maxFileBytes;
+    /**
+     * 未指定字段时按第一行数据取字段需要忽略的key
+     */
+    private final String[] ignoreKeys;
+    /**
+     * 文件名前缀
+     */
+    private final String filePrefix;
+    /**
+     * 写入缓冲区
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    /**
+     * 已写入的文件
+     */
+    private final List<Path> files = new ArrayList<>();
+
+    /**
+     * 字段模板,决定写入的字段及顺序
+     */
+    private SQLTemplate template;
+    /**
+     * 按字段顺序取值的复用数组
+     */
+    private Object[] values;
+    private FileChannel channel;
+    private long fileBytes;
+    private long rows;
+    /**
+     * 缓冲区写入文件的次数,用于判断写入失败的行是否已有部分内容写入文件
+     */
+    private long flushes;
+    /**
+     * 写入失败且无法恢复到行边界,文件内容不完整
+     */
+    private boolean failed;
+    private boolean closed;
+
+    /**
+     * 构造方法,字段及顺序由第一行数据按{@link SQLUtils#getKeys(Map, String...)}确定
+     *
+     * @param directory  文件目录
+     * @param dbName     表名
+     * @param dialect    文件格式
+     * @param ignoreKeys 忽略的key
+     */
+    public BulkLoadWriter(Path directory, String dbName, Dialect dialect, String... ignoreKeys) {
+        this(directory, dbName, dialect, null, DEFAULT_MAX_FILE_BYTES, ignoreKeys);
+    }
+
+    /**
+     * 构造方法
+     *
+     * @param directory    文件目录,同名文件会被覆盖
+     * @param dbName       表名
+     * @param dialect      文件格式
+     * @param columns      字段及顺序,为null时由第一行数据确定
+     * @param maxFileBytes 单个文件的最大字节数,超过后在行边界滚动到新文件
+     * @param ignoreKeys   字段由第一行数据确定时忽略的key
+     */
+    public BulkLoadWriter(Path directory, String dbName, Dialect dialect, Collection<String> columns, long maxFileBytes, String... ignoreKeys) {
+        this.directory = directory;
+        this.dbName = dbName;
+        this.dialect = dialect;
+        this.maxFileBytes = maxFileBytes > 0 ? maxFileBytes : DEFAULT_MAX_FILE_BYTES;
+        this.ignoreKeys = ignoreKeys;
+        this.filePrefix = dbName.replaceAll("[^A-Za-z0-9._-]", "_");
+        if (columns != null) {
+            useColumns(new ArrayList<>(columns));
+        }
+    }
+
+    private void useColumns(List<String> columns) {
+        this.template = SQLUtils.getInsertTemplate(dbName, columns, false);
+        this.values = new Object[columns.size()];
+    }
+
+    /**
+     * 写入一行数据,缺少的字段写为NULL,多余的字段忽略;
+     * 写入失败时丢弃该行已写入的部分,文件保持在行边界,无法恢复时之后的写入均失败
+     *
+     * @param data 数据
+     * @throws IOException 写入文件异常
+     */
+    public synchronized void write(Map<String, Object> data) throws IOException {
+        if (closed) {
+            throw new IOException("批量导入文件已关闭");
+        }
+        if (failed) {
+            throw new IOException("批量导入文件写入失败,文件内容不完整");
+        }
+        if (template == null) {
+            useColumns(SQLUtils.getKeys(data, ignoreKeys));
+        }
+        if (channel == null) {
+            openFile();
+        }
+        long rowStart = fileBytes + buffer.position();
+        long flushesBefore = flushes;
+        try {
+            template.getValues(data, values);
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    put(dialect.delimiter);
+                }
+                if (dialect == Dialect.MYSQL) {
+                    putMySQL(values[i]);
+                } else {
+                    putPostgreSQL(values[i]);
+                }
+            }
+            put((byte) '\n');
+        } catch (Exception e) {
+            discardRow(rowStart, flushes == flushesBefore);
+            throw e;
+        }
+        rows++;
+        if (fileBytes + buffer.position() >= maxFileBytes) {
+            try {
+                closeFile();
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 丢弃写入失败的行:该行仍全部在缓冲区中时回退缓冲区,已有部分写入文件时将文件截断到行首
+     *
+     * @param rowStart 行首在文件中的位置
+     * @param buffered 该行写入期间缓冲区是否未写入文件
+     */
+    private void discardRow(long rowStart, boolean buffered) {
+        if (buffered) {
+            buffer.position((int) (rowStart - fileBytes));
+            return;
+        }
+        buffer.clear();
+        try {
+            channel.truncate(rowStart);
+            channel.position(rowStart);
+            // 写入失败时之前行的内容也可能未完整写入
+            if (channel.size() == rowStart) {
+                fileBytes = rowStart;
+                return;
+            }
+        } catch (IOException e) {
+            log.error("批量导入文件截断到行首失败", e);
+        }
+        failed = true;
+    }
+
+    /**
+     * 写入多行数据
+     *
+     * @param datas 数据
+     * @throws IOException 写入文件异常
+     */
+    public synchronized void write(List<? extends Map<String, Object>> datas) throws IOException {
+        for (Map<String, Object> data : datas) {
+            write(data);
+        }
+    }
+
+    @Override
+    public void batchOp(List<Map<String, Object>> tList) throws Exception {
+        write(tList);
+    }
+
+    /**
+     * 按MySQL LOAD DATA的默认格式写入值:NULL为\N,反斜杠、制表符、换行、回车及\0以反斜杠转义
+     *
+     * @param value 值
+     */
+    private void putMySQL(Object value) throws IOException {
+        if (value == null) {
+            put((byte) '\\');
+            put((byte) 'N');
+        } else if (value instanceof byte[]) {
+            for (byte b : (byte[]) value) {
+                putMySQLEscaped(b);
+            }
+        } else if (value instanceof Boolean) {
+            put((Boolean) value ? (byte) '1' : (byte) '0');
+        } else {
+            CharSequence text = toText(value);
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    putMySQLEscaped((byte) c);
+                } else {
+                    i = putUtf8(text, i);
+                }
+            }
+        }
+    }
+
+    private void putMySQLEscaped(byte b) throws IOException {
+        switch (b) {
+            case '\\':
+            case '\t':
+                put((byte) '\\');
+                put(b == '\t' ? (byte) 't' : b);
+                break;
+            case '\n':
+                put((byte) '\\');
+                put((byte) 'n');
+                break;
+            case '\r':
+                put((byte) '\\');
+                put((byte) 'r');
+                break;
+            case 0:
+                put((byte) '\\');
+                put((byte) '0');
+                break;
+            default:
+                put(b);
+        }
+    }
+
+    /**
+     * 按PostgreSQL COPY的CSV格式写入值:NULL为不加引号的空值,其余值加双引号,值中的双引号写两次
+     *
+     * @param value 值
+     */
+    private void putPostgreSQL(Object value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            putAscii(toText(value));
+            return;
+        }
+        put((byte) '"');
+        if (value instanceof byte[]) {
+            // bytea的十六进制格式
+            put((byte) '\\');
+            put((byte) 'x');
+            for (byte b : (byte[]) value) {
+                put(HEX[(b >> 4) & 0xF]);
+                put(HEX[b & 0xF]);
+            }
+        } else {
+            CharSequence text = toText(value);
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '"') {
+                    put((byte) '"');
+                    put((byte) '"');
+                } else if (c < 0x80) {
+                    put((byte) c);
+                } else {
+                    i = putUtf8(text, i);
+                }
+            }
+        }
+        put((byte) '"');
+    }
+
+    /**
+     * 值的文本形式,日期时间使用空格分隔日期与时间,两种数据库均可解析
+     *
+     * @param value 值
+     * @return 文本
+     */
+    private static CharSequence toText(Object value) {
+        if (value instanceof CharSequence) {
+            return (CharSequence) value;
+        }
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+        }
+        if (value instanceof java.util.Date && !(value instanceof java.sql.Date) && !(value instanceof java.sql.Time)) {
+            return (value instanceof java.sql.Timestamp ? value : new java.sql.Timestamp(((java.util.Date) value).getTime())).toString();
+        }
+        if (value instanceof LocalDateTime) {
+            return value.toString().replace('T', ' ');
+        }
+        return String.valueOf(value);
+    }
+
+    private void putAscii(CharSequence text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            put((byte) text.charAt(i));
+        }
+    }
+
+    /**
+     * 按UTF-8编码写入一个非ASCII字符,代理对按一个字符写入,不成对的代理写为?
+     *
+     * @param text  文本
+     * @param index 字符位置
+     * @return 最后写入的字符位置
+     */
+    private int putUtf8(CharSequence text, int index) throws IOException {
+        char c = text.charAt(index);
+        if (c < 0x800) {
+            put((byte) (0xC0 | (c >> 6)));
+            put((byte) (0x80 | (c & 0x3F)));
+        } else if (!Character.isSurrogate(c)) {
+            put((byte) (0xE0 | (c >> 12)));
+            put((byte) (0x80 | ((c >> 6) & 0x3F)));
+            put((byte) (0x80 | (c & 0x3F)));
+        } else if (Character.isHighSurrogate(c) && index + 1 < text.length() && Character.isLowSurrogate(text.charAt(index + 1))) {
+            int codePoint = Character.toCodePoint(c, text.charAt(++index));
+            put((byte) (0xF0 | (codePoint >> 18)));
+            put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+            put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+            put((byte) (0x80 | (codePoint & 0x3F)));
+        } else {
+            put((byte) '?');
+        }
+        return index;
+    }
+
+    private void put(byte b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flushBuffer();
+        }
+        buffer.put(b);
+    }
+
+    /**
+     * 将缓冲区写入文件
+     *
+     * @throws IOException 写入文件异常
+     */
+    private void flushBuffer() throws IOException {
+        flushes++;
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                fileBytes += channel.write(buffer);
+            }
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    private void openFile() throws IOException {
+        Files.createDirectories(directory);
+        Path file = directory.resolve(String.format("%s-%05d.%s", filePrefix, files.size() + 1, dialect.extension));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        fileBytes = 0;
+        files.add(file);
+        log.debug("开始写入批量导入文件{}", file);
+    }
+
+    private void closeFile() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        try {
+            if (buffer.position() > 0) {
+                flushBuffer();
+            }
+        } finally {
+            channel.close();
+            channel = null;
+        }
+        log.info("批量导入文件{}写入完成,{}字节", files.get(files.size() - 1), fileBytes);
+    }
+
+    /**
+     * 写入缓冲区中的数据并关闭当前文件,之后写入的数据写到新文件
+     *
+     * @throws IOException 写入文件异常
+     */
+    public synchronized void flush() throws IOException {
+        closeFile();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            closeFile();
+            log.info("批量导入文件写入完成,共{}行,{}个文件", rows, files.size());
+        }
+    }
+
+    /**
+     * 已写入的文件,按写入顺序排列
+     *
+     * @return 文件
+     */
+    public synchronized List<Path> getFiles() {
+        return new ArrayList<>(files);
+    }
+
+    /**
+     * 已写入的行数
+     *
+     * @return 行数
+     */
+    public synchronized long getRows() {
+        return rows;
+    }
+
+    /**
+     * 写入的字段及顺序,尚未确定时为空
+     *
+     * @return 字段
+     */
+    public synchronized List<String> getColumns() {
+        return template == null ? Collections.emptyList() : template.getColumns();
+    }
+
+    /**
+     * 生成导入单个文件的语句:MySQL为LOAD DATA LOCAL INFILE(需开启allowLoadLocalInfile),
+     * PostgreSQL为COPY ... FROM STDIN,由客户端(如CopyManager.copyIn或psql的\copy)读取文件内容发送
+     *
+     * @param file 文件
+     * @return 导入语句
+     */
+    public synchronized String getLoadStatement(Path file) {
+        String columns = String.join(",", getColumns());
+        if (dialect == Dialect.MYSQL) {
+            String path = file.toAbsolutePath().toString().replace("\\", "\\\\").replace("'", "\\'");
+            return String.format("LOAD DATA LOCAL INFILE '%s' INTO TABLE %s CHARACTER SET utf8mb4 "
+                    + "FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n' (%s)", path, dbName, columns);
+        }
+        return String.format("COPY %s (%s) FROM STDIN WITH (FORMAT csv, DELIMITER ',', QUOTE '\"', NULL '', ENCODING 'UTF8')", dbName, columns);
+    }
+
+    /**
+     * 生成导入全部文件的语句,顺序与{@link #getFiles()}一致
+     *
+     * @return 导入语句
+     */
+    public synchronized List<String> getLoadStatements() {
+        List<String> statements = new ArrayList<>(files.size());
+        for (Path file : files) {
+            statements.add(getLoadStatement(file));
+        }
+        return statements;
+    }
+
+    /**
+     * 文件格式
+     */
+    public enum Dialect {
+
+        // MySQL LOAD DATA默认的TSV格式
+        MYSQL((byte) '\t', "tsv"),
+        // PostgreSQL COPY的CSV格式
+        POSTGRESQL((byte) ',', "csv");
+
+        private final byte delimiter;
+        private final String extension;
+
+        Dialect(byte delimiter, String extension) {
+            this.delimiter = delimiter;
+            this.extension = extension;
+        }
+    }
+}
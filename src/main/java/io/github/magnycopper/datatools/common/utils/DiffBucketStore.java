@@ -0,0 +1,272 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: 可溢写磁盘的差分桶存储
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-09-14 10:45
+ */
+@Slf4j
+public class DiffBucketStore implements DiffUtils.WriteToBucketOp, DiffUtils.ReadFromBucketOp, DiffUtils.CleanBucketOp {
+
+    /**
+     * 分段文件拓展名
+     */
+    private static final String SEGMENT_EXTENSION = ".seg";
+    /**
+     * 记录起始标记
+     */
+    private static final int RECORD_MARK = 1;
+    /**
+     * 分段文件读写缓冲区大小
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 分段文件保存路径
+     */
+    private final Path spillDirPath;
+    /**
+     * 内存中最多保留的数据条数,超出后全部溢写到分段文件
+     */
+    private final long memBudgetRows;
+    /**
+     * 内存中的数据条数
+     */
+    private final AtomicLong memRows = new AtomicLong();
+    /**
+     * 是否正在溢写,同一时间只有一个线程执行溢写
+     */
+    private final AtomicBoolean spilling = new AtomicBoolean();
+    /**
+     * 内存桶 taskId -> (桶编号:数据类型) -> 数据,每个桶独立加锁以支持多线程并发写入
+     */
+    private final Map<String, Map<String, BucketBuffer>> memBuckets = new ConcurrentHashMap<>();
+    /**
+     * 各任务的字段结构,读取分段文件时还原数据节点
+     */
+    private final Map<String, DiffSchema> schemas = new ConcurrentHashMap<>();
+
+    /**
+     * 构造方法
+     *
+     * @param spillDirPath  分段文件保存路径
+     * @param memBudgetRows 内存中最多保留的数据条数,小于等于0时数据全部写入分段文件
+     */
+    public DiffBucketStore(Path spillDirPath, long memBudgetRows) {
+        this.spillDirPath = spillDirPath;
+        this.memBudgetRows = memBudgetRows;
+    }
+
+    @Override
+    public void writeToBucket(Map<String, List<DiffUtils.Node>> buckets) {
+        for (Map.Entry<String, List<DiffUtils.Node>> entry : buckets.entrySet()) {
+            // 同一批数据可能包含不同任务及数据类型,按桶存储键分组后整体追加
+            Map<BucketBuffer, List<DiffUtils.Node>> grouped = new HashMap<>();
+            for (DiffUtils.Node node : entry.getValue()) {
+                grouped.computeIfAbsent(bucketBuffer(node, entry.getKey()), buffer -> new ArrayList<>()).add(node);
+            }
+            for (Map.Entry<BucketBuffer, List<DiffUtils.Node>> bufferEntry : grouped.entrySet()) {
+                bufferEntry.getKey().append(bufferEntry.getValue());
+            }
+            memRows.addAndGet(entry.getValue().size());
+        }
+        log.info("写入后内存桶数据:{}条,内存预算:{}条", memRows.get(), memBudgetRows);
+        // 超出内存预算后将全部内存桶溢写到分段文件,其他线程继续写入内存
+        if (memRows.get() > memBudgetRows && spilling.compareAndSet(false, true)) {
+            try {
+                spill();
+            } finally {
+                spilling.set(false);
+            }
+        }
+    }
+
+    @Override
+    public List<DiffUtils.Node> readFromBucket(String taskId, DiffUtils.DataType dataType, int bucketNum) {
+        Map<String, BucketBuffer> taskBuckets = memBuckets.get(taskId);
+        BucketBuffer buffer = taskBuckets == null ? null : taskBuckets.get(bucketKey(bucketNum + "", dataType));
+        return buffer == null ? new ArrayList<>() : buffer.read(schemas.get(taskId));
+    }
+
+    @Override
+    public void cleanBucket(String taskId) {
+        Map<String, BucketBuffer> taskBuckets = memBuckets.remove(taskId);
+        schemas.remove(taskId);
+        if (taskBuckets != null) {
+            for (BucketBuffer buffer : taskBuckets.values()) {
+                memRows.addAndGet(-buffer.clear());
+            }
+        }
+        try {
+            FileUtils.deleteDirectory(taskDirPath(taskId).toFile());
+        } catch (IOException e) {
+            log.error("删除任务" + taskId + "的分段文件失败", e);
+        }
+    }
+
+    /**
+     * 将全部内存桶追加写入分段文件
+     */
+    private void spill() {
+        for (Map<String, BucketBuffer> taskBuckets : memBuckets.values()) {
+            for (BucketBuffer buffer : taskBuckets.values()) {
+                memRows.addAndGet(-buffer.spill());
+            }
+        }
+        log.info("内存桶已溢写到分段文件:{}", spillDirPath);
+    }
+
+    /**
+     * 查询数据节点所属的桶
+     *
+     * @param node      数据节点
+     * @param bucketNum 桶编号
+     * @return 桶
+     */
+    private BucketBuffer bucketBuffer(DiffUtils.Node node, String bucketNum) {
+        schemas.putIfAbsent(node.getTaskId(), node.getSchema());
+        String bucketKey = bucketKey(bucketNum, node.getDataType());
+        return memBuckets.computeIfAbsent(node.getTaskId(), taskId -> new ConcurrentHashMap<>())
+                .computeIfAbsent(bucketKey, key -> new BucketBuffer(node.getTaskId(), node.getDataType(), segmentPath(node.getTaskId(), key)));
+    }
+
+    /**
+     * 桶内数据的存储键
+     *
+     * @param bucketNum 桶编号
+     * @param dataType  数据类型
+     * @return 存储键
+     */
+    private static String bucketKey(String bucketNum, DiffUtils.DataType dataType) {
+        return bucketNum + "-" + dataType;
+    }
+
+    /**
+     * 任务分段文件目录,任务ID中的非法字符替换为下划线
+     *
+     * @param taskId 差分任务ID
+     * @return 目录路径
+     */
+    private Path taskDirPath(String taskId) {
+        return spillDirPath.resolve(taskId.replaceAll("[^\\w.-]", "_"));
+    }
+
+    /**
+     * 分段文件路径
+     *
+     * @param taskId    差分任务ID
+     * @param bucketKey 桶存储键
+     * @return 分段文件路径
+     */
+    private Path segmentPath(String taskId, String bucketKey) {
+        return taskDirPath(taskId).resolve(bucketKey + SEGMENT_EXTENSION);
+    }
+
+    /**
+     * 单个桶的内存缓冲及分段文件,读写均在桶锁内进行
+     */
+    private static class BucketBuffer {
+
+        /**
+         * 差分任务ID
+         */
+        private final String taskId;
+        /**
+         * 数据类型
+         */
+        private final DiffUtils.DataType dataType;
+        /**
+         * 分段文件路径
+         */
+        private final Path segmentPath;
+        /**
+         * 内存中的数据
+         */
+        private List<DiffUtils.Node> nodes = new ArrayList<>();
+
+        BucketBuffer(String taskId, DiffUtils.DataType dataType, Path segmentPath) {
+            this.taskId = taskId;
+            this.dataType = dataType;
+            this.segmentPath = segmentPath;
+        }
+
+        /**
+         * 追加数据
+         *
+         * @param newNodes 数据
+         */
+        synchronized void append(List<DiffUtils.Node> newNodes) {
+            nodes.addAll(newNodes);
+        }
+
+        /**
+         * 将内存中的数据追加写入分段文件
+         *
+         * @return 写入的数据条数
+         */
+        synchronized int spill() {
+            if (nodes.isEmpty()) {
+                return 0;
+            }
+            try {
+                Files.createDirectories(segmentPath.getParent());
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(segmentPath, StandardOpenOption.CREATE, StandardOpenOption.APPEND), BUFFER_SIZE))) {
+                    for (DiffUtils.Node node : nodes) {
+                        out.writeByte(RECORD_MARK);
+                        DiffRowCodec.writeNode(out, node);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("写入分段文件" + segmentPath + "失败", e);
+            }
+            int spilled = nodes.size();
+            nodes = new ArrayList<>();
+            return spilled;
+        }
+
+        /**
+         * 读取分段文件及内存中的全部数据
+         *
+         * @param schema 任务字段结构
+         * @return 数据
+         */
+        synchronized List<DiffUtils.Node> read(DiffSchema schema) {
+            List<DiffUtils.Node> result = new ArrayList<>();
+            if (Files.exists(segmentPath)) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segmentPath), BUFFER_SIZE))) {
+                    while (in.read() == RECORD_MARK) {
+                        result.add(DiffRowCodec.readNode(in, taskId, dataType, schema));
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException("读取分段文件" + segmentPath + "失败", e);
+                }
+            }
+            result.addAll(nodes);
+            return result;
+        }
+
+        /**
+         * 清空内存中的数据
+         *
+         * @return 清空的数据条数
+         */
+        synchronized int clear() {
+            int cleared = nodes.size();
+            nodes = new ArrayList<>();
+            return cleared;
+        }
+    }
+}
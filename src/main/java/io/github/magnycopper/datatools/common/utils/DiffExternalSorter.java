@@ -0,0 +1,316 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: 差分数据节点的磁盘外排序
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-09-19 16:30
+ */
+@Slf4j
+class DiffExternalSorter implements Iterator<DiffUtils.Node>, Closeable {
+
+    /**
+     * 单次归并的最大文件数
+     */
+    private static final int MAX_FAN_IN = 128;
+    /**
+     * 记录起始标记
+     */
+    private static final int RECORD_MARK = 1;
+    /**
+     * 文件读写缓冲区大小
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 排序文件目录
+     */
+    private final Path sortDirPath;
+    /**
+     * 排序规则
+     */
+    private final Comparator<DiffUtils.Node> comparator;
+    /**
+     * 差分任务ID
+     */
+    private final String taskId;
+    /**
+     * 数据类型
+     */
+    private final DiffUtils.DataType dataType;
+    /**
+     * 任务字段结构
+     */
+    private final DiffSchema schema;
+    /**
+     * 全部数据可在内存中完成排序时的结果
+     */
+    private Iterator<DiffUtils.Node> memIterator;
+    /**
+     * 各排序文件读取器,按当前数据排序
+     */
+    private PriorityQueue<RunReader> runReaders;
+    /**
+     * 已生成的排序文件数
+     */
+    private int runCount;
+
+    private DiffExternalSorter(Path sortDirPath, Comparator<DiffUtils.Node> comparator, String taskId, DiffUtils.DataType dataType, DiffSchema schema) {
+        this.sortDirPath = sortDirPath;
+        this.comparator = comparator;
+        this.taskId = taskId;
+        this.dataType = dataType;
+        this.schema = schema;
+    }
+
+    /**
+     * 对数据排序,超出单批数量时分批排序写入磁盘后归并
+     *
+     * @param input       输入数据
+     * @param comparator  排序规则
+     * @param runSize     单批在内存中排序的数据条数
+     * @param sortDirPath 排序文件目录
+     * @param taskId      差分任务ID
+     * @param dataType    数据类型
+     * @param schema      任务字段结构
+     * @return 有序数据迭代器,使用完毕后需关闭以删除排序文件,排序失败时排序文件已删除
+     * @throws IOException 读写排序文件异常
+     */
+    static DiffExternalSorter sort(Iterator<DiffUtils.Node> input, Comparator<DiffUtils.Node> comparator, int runSize, Path sortDirPath, String taskId, DiffUtils.DataType dataType, DiffSchema schema) throws IOException {
+        DiffExternalSorter sorter = new DiffExternalSorter(sortDirPath, comparator, taskId, dataType, schema);
+        boolean sorted = false;
+        try {
+            List<Path> runs = new ArrayList<>();
+            List<DiffUtils.Node> buffer = new ArrayList<>();
+            while (input.hasNext()) {
+                buffer.add(input.next());
+                if (buffer.size() >= Math.max(runSize, 1)) {
+                    runs.add(sorter.writeRun(buffer));
+                    buffer.clear();
+                }
+            }
+            buffer.sort(comparator);
+            if (runs.isEmpty()) {
+                // 全部数据可在内存中排序
+                sorter.memIterator = buffer.iterator();
+                sorted = true;
+                return sorter;
+            }
+            if (!buffer.isEmpty()) {
+                runs.add(sorter.writeRun(buffer));
+                buffer.clear();
+            }
+            // 排序文件过多时先分组归并
+            while (runs.size() > MAX_FAN_IN) {
+                List<Path> group = new ArrayList<>(runs.subList(0, MAX_FAN_IN));
+                runs.subList(0, MAX_FAN_IN).clear();
+                runs.add(sorter.mergeRuns(group));
+            }
+            sorter.runReaders = sorter.openReaders(runs);
+            sorted = true;
+            log.info("任务ID:{},{}数据外排序完成,排序文件:{}个", taskId, dataType, sorter.runCount);
+        } finally {
+            // 排序失败时关闭已打开的文件并删除排序目录
+            if (!sorted) {
+                try {
+                    sorter.close();
+                } catch (IOException e) {
+                    log.warn("任务ID:{},删除排序文件失败:{}", taskId, sortDirPath, e);
+                }
+            }
+        }
+        return sorter;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return memIterator != null ? memIterator.hasNext() : !runReaders.isEmpty();
+    }
+
+    @Override
+    public DiffUtils.Node next() {
+        if (memIterator != null) {
+            return memIterator.next();
+        }
+        RunReader reader = runReaders.poll();
+        if (reader == null) {
+            throw new NoSuchElementException();
+        }
+        DiffUtils.Node node = reader.head;
+        try {
+            if (reader.advance()) {
+                runReaders.add(reader);
+            } else {
+                reader.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取排序文件失败", e);
+        }
+        return node;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (runReaders != null) {
+            for (RunReader reader : runReaders) {
+                reader.close();
+            }
+            runReaders.clear();
+        }
+        FileUtils.deleteDirectory(sortDirPath.toFile());
+    }
+
+    /**
+     * 排序后写入新的排序文件
+     *
+     * @param nodes 数据
+     * @return 排序文件路径
+     * @throws IOException 写入异常
+     */
+    private Path writeRun(List<DiffUtils.Node> nodes) throws IOException {
+        nodes.sort(comparator);
+        return writeRun(nodes.iterator());
+    }
+
+    /**
+     * 将有序数据写入新的排序文件
+     *
+     * @param nodes 有序数据
+     * @return 排序文件路径
+     * @throws IOException 写入异常
+     */
+    private Path writeRun(Iterator<DiffUtils.Node> nodes) throws IOException {
+        Files.createDirectories(sortDirPath);
+        Path runPath = sortDirPath.resolve(String.format("run-%s.seg", runCount++));
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(runPath), BUFFER_SIZE))) {
+            while (nodes.hasNext()) {
+                out.writeByte(RECORD_MARK);
+                DiffRowCodec.writeNode(out, nodes.next());
+            }
+        }
+        return runPath;
+    }
+
+    /**
+     * 归并多个排序文件为一个
+     *
+     * @param runs 排序文件
+     * @return 归并后的排序文件
+     * @throws IOException 读写异常
+     */
+    private Path mergeRuns(List<Path> runs) throws IOException {
+        PriorityQueue<RunReader> readers = openReaders(runs);
+        try {
+            return writeRun(new Iterator<DiffUtils.Node>() {
+                @Override
+                public boolean hasNext() {
+                    return !readers.isEmpty();
+                }
+
+                @Override
+                public DiffUtils.Node next() {
+                    RunReader reader = readers.poll();
+                    DiffUtils.Node node = reader.head;
+                    try {
+                        if (reader.advance()) {
+                            readers.add(reader);
+                        } else {
+                            reader.close();
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("读取排序文件失败", e);
+                    }
+                    return node;
+                }
+            });
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+        }
+    }
+
+    /**
+     * 打开排序文件并按首条数据排序
+     *
+     * @param runs 排序文件
+     * @return 读取器队列
+     * @throws IOException 读取异常
+     */
+    private PriorityQueue<RunReader> openReaders(List<Path> runs) throws IOException {
+        PriorityQueue<RunReader> readers = new PriorityQueue<>(Math.max(runs.size(), 1), (a, b) -> comparator.compare(a.head, b.head));
+        try {
+            for (Path run : runs) {
+                RunReader reader = new RunReader(run);
+                try {
+                    if (reader.advance()) {
+                        readers.add(reader);
+                        continue;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    reader.close();
+                    throw e;
+                }
+                reader.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            // 打开失败时关闭已打开的文件
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+            throw e;
+        }
+        return readers;
+    }
+
+    /**
+     * 排序文件读取器
+     */
+    private class RunReader implements Closeable {
+
+        /**
+         * 输入流
+         */
+        private final DataInputStream in;
+
+        /**
+         * 当前数据
+         */
+        private DiffUtils.Node head;
+
+        RunReader(Path runPath) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(runPath), BUFFER_SIZE));
+        }
+
+        /**
+         * 读取下一条数据
+         *
+         * @return 是否还有数据
+         * @throws IOException 读取异常
+         */
+        boolean advance() throws IOException {
+            if (in.read() != RECORD_MARK) {
+                head = null;
+                return false;
+            }
+            head = DiffRowCodec.readNode(in, taskId, dataType, schema);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: 分区差分结果输出端,每个分区按结果类型写入各自的JSON Lines文件
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-09-26 14:40
+ */
+@Slf4j
+public class DiffPartitionSink implements DiffUtils.DiffSink, Closeable {
+
+    /**
+     * 全局默认ObjectMapper
+     */
+    private static final ObjectMapper DEFAULT_OBJECT_MAPPER = JsonMapper.builder()
+            .build();
+
+    /**
+     * 结果文件保存路径
+     */
+    private final Path partitionDirPath;
+    /**
+     * 分区编号
+     */
+    private final int partitionIndex;
+    /**
+     * 各结果类型的文件写入器
+     */
+    private final Map<DiffUtils.ResultType, BufferedWriter> writers = new EnumMap<>(DiffUtils.ResultType.class);
+
+    /**
+     * 构造方法
+     *
+     * @param partitionDirPath 结果文件保存路径
+     * @param partitionIndex   分区编号
+     */
+    public DiffPartitionSink(Path partitionDirPath, int partitionIndex) {
+        this.partitionDirPath = partitionDirPath;
+        this.partitionIndex = partitionIndex;
+    }
+
+    /**
+     * 结果文件路径
+     *
+     * @param partitionDirPath 结果文件保存路径
+     * @param partitionIndex   分区编号
+     * @param resultType       差分结果类型
+     * @return 结果文件路径
+     */
+    public static Path resultPath(Path partitionDirPath, int partitionIndex, DiffUtils.ResultType resultType) {
+        return partitionDirPath.resolve(String.format("part-%s-%s.jsonl", partitionIndex, resultType));
+    }
+
+    @Override
+    public void accept(DiffUtils.ResultType resultType, List<Map<String, Object>> datas) throws Exception {
+        BufferedWriter writer = writer(resultType);
+        // 同一类型的结果可能由多个桶任务同时输出
+        synchronized (writer) {
+            for (Map<String, Object> data : datas) {
+                Map<String, Object> line = new LinkedHashMap<>(4);
+                line.put("data", data);
+                if (data instanceof DiffUtils.ChangedRow) {
+                    line.put("changedFields", ((DiffUtils.ChangedRow) data).getChangedFields());
+                }
+                writer.write(DEFAULT_OBJECT_MAPPER.writeValueAsString(line));
+                writer.newLine();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (BufferedWriter writer : writers.values()) {
+            writer.close();
+        }
+        writers.clear();
+    }
+
+    /**
+     * 获取结果类型对应的写入器,首次写入时创建文件
+     *
+     * @param resultType 差分结果类型
+     * @return 写入器
+     * @throws IOException 创建文件异常
+     */
+    private synchronized BufferedWriter writer(DiffUtils.ResultType resultType) throws IOException {
+        BufferedWriter writer = writers.get(resultType);
+        if (writer == null) {
+            Files.createDirectories(partitionDirPath);
+            writer = Files.newBufferedWriter(resultPath(partitionDirPath, partitionIndex, resultType), StandardCharsets.UTF_8);
+            writers.put(resultType, writer);
+            log.info("分区{}的{}结果写入:{}", partitionIndex, resultType, partitionDirPath);
+        }
+        return writer;
+    }
+}
@@ -0,0 +1,312 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: 差分数据行二进制编码工具
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-09-14 10:12
+ */
+final class DiffRowCodec {
+
+    /**
+     * 类型标记
+     */
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte FLOAT = 5;
+    private static final byte BOOLEAN = 6;
+    private static final byte BIG_DECIMAL = 7;
+    private static final byte BIG_INTEGER = 8;
+    private static final byte SQL_TIMESTAMP = 9;
+    private static final byte SQL_DATE = 10;
+    private static final byte UTIL_DATE = 11;
+    private static final byte LOCAL_DATE = 12;
+    private static final byte LOCAL_DATE_TIME = 13;
+    private static final byte LOCAL_TIME = 14;
+    private static final byte BYTES = 15;
+    private static final byte SHORT = 16;
+    private static final byte BYTE = 17;
+    private static final byte SERIALIZABLE = 99;
+
+    private DiffRowCodec() {
+    }
+
+    /**
+     * 写入变长整数
+     *
+     * @param out   输出流
+     * @param value 非负整数
+     * @throws IOException 写入异常
+     */
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * 读取变长整数
+     *
+     * @param in 输入流
+     * @return 整数
+     * @throws IOException 读取异常
+     */
+    static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("变长整数格式错误");
+    }
+
+    /**
+     * 写入字符串(UTF-8,长度前缀,不受writeUTF的64K限制)
+     *
+     * @param out   输出流
+     * @param value 字符串
+     * @throws IOException 写入异常
+     */
+    static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * 读取字符串
+     *
+     * @param in 输入流
+     * @return 字符串
+     * @throws IOException 读取异常
+     */
+    static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 按类型标记写入字段值
+     *
+     * @param out   输出流
+     * @param value 字段值
+     * @throws IOException 写入异常
+     */
+    static void writeValue(DataOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(BIG_DECIMAL);
+            writeString(out, value.toString());
+        } else if (value instanceof BigInteger) {
+            out.writeByte(BIG_INTEGER);
+            writeString(out, value.toString());
+        } else if (value instanceof java.sql.Timestamp) {
+            out.writeByte(SQL_TIMESTAMP);
+            out.writeLong(((java.sql.Timestamp) value).getTime());
+            out.writeInt(((java.sql.Timestamp) value).getNanos());
+        } else if (value instanceof java.sql.Date) {
+            out.writeByte(SQL_DATE);
+            out.writeLong(((java.sql.Date) value).getTime());
+        } else if (value.getClass() == java.util.Date.class) {
+            out.writeByte(UTIL_DATE);
+            out.writeLong(((java.util.Date) value).getTime());
+        } else if (value instanceof LocalDate) {
+            out.writeByte(LOCAL_DATE);
+            out.writeLong(((LocalDate) value).toEpochDay());
+        } else if (value instanceof LocalDateTime) {
+            out.writeByte(LOCAL_DATE_TIME);
+            out.writeLong(((LocalDateTime) value).toLocalDate().toEpochDay());
+            out.writeLong(((LocalDateTime) value).toLocalTime().toNanoOfDay());
+        } else if (value instanceof LocalTime) {
+            out.writeByte(LOCAL_TIME);
+            out.writeLong(((LocalTime) value).toNanoOfDay());
+        } else if (value instanceof byte[]) {
+            out.writeByte(BYTES);
+            writeVarInt(out, ((byte[]) value).length);
+            out.write((byte[]) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Serializable) {
+            // 其他类型退化为Java序列化
+            out.writeByte(SERIALIZABLE);
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream)) {
+                objectOutputStream.writeObject(value);
+            }
+            writeVarInt(out, byteArrayOutputStream.size());
+            out.write(byteArrayOutputStream.toByteArray());
+        } else {
+            throw new NotSerializableException(String.format("不支持的字段类型:%s", value.getClass().getName()));
+        }
+    }
+
+    /**
+     * 按类型标记读取字段值
+     *
+     * @param in 输入流
+     * @return 字段值
+     * @throws IOException 读取异常
+     */
+    static Object readValue(DataInput in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString(in);
+            case INTEGER:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case BOOLEAN:
+                return in.readBoolean();
+            case BIG_DECIMAL:
+                return new BigDecimal(readString(in));
+            case BIG_INTEGER:
+                return new BigInteger(readString(in));
+            case SQL_TIMESTAMP:
+                java.sql.Timestamp timestamp = new java.sql.Timestamp(in.readLong());
+                timestamp.setNanos(in.readInt());
+                return timestamp;
+            case SQL_DATE:
+                return new java.sql.Date(in.readLong());
+            case UTIL_DATE:
+                return new java.util.Date(in.readLong());
+            case LOCAL_DATE:
+                return LocalDate.ofEpochDay(in.readLong());
+            case LOCAL_DATE_TIME:
+                return LocalDateTime.of(LocalDate.ofEpochDay(in.readLong()), LocalTime.ofNanoOfDay(in.readLong()));
+            case LOCAL_TIME:
+                return LocalTime.ofNanoOfDay(in.readLong());
+            case BYTES:
+                byte[] bytes = new byte[readVarInt(in)];
+                in.readFully(bytes);
+                return bytes;
+            case SHORT:
+                return in.readShort();
+            case BYTE:
+                return in.readByte();
+            case SERIALIZABLE:
+                byte[] serialized = new byte[readVarInt(in)];
+                in.readFully(serialized);
+                // 快照文件跨次运行保留,与其他反序列化一样按允许的类过滤
+                return JavaSerializeCodec.fromBytes(serialized);
+            default:
+                throw new IOException(String.format("未知的字段类型标记:%s", type));
+        }
+    }
+
+    /**
+     * 编码数据节点,仅写入数据中存在的列(列下标+字段值)
+     *
+     * @param out  输出流
+     * @param node 数据节点
+     * @throws IOException 写入异常
+     */
+    static void writeNode(DataOutput out, DiffUtils.Node node) throws IOException {
+        Object[] values = node.getValues();
+        int presentColumns = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (node.isPresent(i)) {
+                presentColumns++;
+            }
+        }
+        writeVarInt(out, values.length);
+        writeVarInt(out, presentColumns);
+        for (int i = 0; i < values.length; i++) {
+            if (node.isPresent(i)) {
+                writeVarInt(out, i);
+                writeValue(out, values[i]);
+            }
+        }
+        // 预先计算的唯一键及数据摘要
+        out.writeLong(node.getKeyHash());
+        writeVarInt(out, node.getKeyBytes().length);
+        out.write(node.getKeyBytes());
+        out.writeLong(node.getValueDigestLow());
+        out.writeLong(node.getValueDigestHigh());
+        writeVarInt(out, node.getIgnoreFields().length);
+        for (String ignoreField : node.getIgnoreFields()) {
+            writeString(out, ignoreField);
+        }
+    }
+
+    /**
+     * 解码数据节点
+     *
+     * @param in       输入流
+     * @param taskId   差分任务ID
+     * @param dataType 数据类型
+     * @param schema   任务字段结构
+     * @return 数据节点
+     * @throws IOException 读取异常
+     */
+    static DiffUtils.Node readNode(DataInput in, String taskId, DiffUtils.DataType dataType, DiffSchema schema) throws IOException {
+        Object[] values = DiffUtils.Node.emptyValues(readVarInt(in));
+        int presentColumns = readVarInt(in);
+        for (int i = 0; i < presentColumns; i++) {
+            values[readVarInt(in)] = readValue(in);
+        }
+        DiffUtils.Node node = new DiffUtils.Node();
+        node.setTaskId(taskId);
+        node.setDataType(dataType);
+        node.setSchema(schema);
+        node.setValues(values);
+        node.setKeyHash(in.readLong());
+        byte[] keyBytes = new byte[readVarInt(in)];
+        in.readFully(keyBytes);
+        node.setKeyBytes(keyBytes);
+        node.setValueDigestLow(in.readLong());
+        node.setValueDigestHigh(in.readLong());
+        String[] ignoreFields = new String[readVarInt(in)];
+        for (int i = 0; i < ignoreFields.length; i++) {
+            ignoreFields[i] = readString(in);
+        }
+        node.setIgnoreFields(ignoreFields);
+        return node;
+    }
+}
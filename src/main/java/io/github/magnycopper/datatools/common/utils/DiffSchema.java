@@ -0,0 +1,121 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: 差分任务的字段结构,字段名只保存一次并映射为列下标
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-09-16 14:03
+ */
+public class DiffSchema implements Serializable {
+
+    /**
+     * 字段名 -> 列下标
+     */
+    private final Map<String, Integer> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * 列下标 -> 字段名
+     */
+    private volatile String[] names = new String[0];
+
+    /**
+     * 按字段名排序的列下标缓存(排除忽略字段),用于计算数据摘要
+     */
+    private transient volatile SortedColumns sortedColumns;
+
+    /**
+     * 查询字段对应的列下标,不存在时新增
+     *
+     * @param name 字段名
+     * @return 列下标
+     */
+    public int intern(String name) {
+        Integer index = indexes.get(name);
+        if (index != null) {
+            return index;
+        }
+        synchronized (this) {
+            return indexes.computeIfAbsent(name, key -> {
+                String[] newNames = Arrays.copyOf(names, names.length + 1);
+                newNames[names.length] = key;
+                names = newNames;
+                return names.length - 1;
+            });
+        }
+    }
+
+    /**
+     * 查询字段对应的列下标
+     *
+     * @param name 字段名
+     * @return 列下标,不存在时返回-1
+     */
+    public int indexOf(Object name) {
+        Integer index = indexes.get(name);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * 查询列下标对应的字段名
+     *
+     * @param index 列下标
+     * @return 字段名
+     */
+    public String nameOf(int index) {
+        return names[index];
+    }
+
+    /**
+     * 字段数量
+     *
+     * @return 字段数量
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * 按字段名排序的列下标(排除忽略字段)
+     *
+     * @param ignoreFields 忽略字段(已排序)
+     * @return 列下标
+     */
+    int[] sortedColumns(String[] ignoreFields) {
+        String[] currentNames = names;
+        SortedColumns cached = sortedColumns;
+        if (cached != null && cached.size == currentNames.length && Arrays.equals(cached.ignoreFields, ignoreFields)) {
+            return cached.columns;
+        }
+        int[] columns = IntStream.range(0, currentNames.length)
+                .boxed()
+                .sorted(Comparator.comparing(index -> currentNames[index]))
+                .filter(index -> Arrays.binarySearch(ignoreFields, currentNames[index]) < 0)
+                .mapToInt(Integer::intValue)
+                .toArray();
+        sortedColumns = new SortedColumns(currentNames.length, ignoreFields, columns);
+        return columns;
+    }
+
+    /**
+     * 排序列下标缓存
+     */
+    private static class SortedColumns {
+
+        private final int size;
+        private final String[] ignoreFields;
+        private final int[] columns;
+
+        SortedColumns(int size, String[] ignoreFields, int[] columns) {
+            this.size = size;
+            this.ignoreFields = ignoreFields;
+            this.columns = columns;
+        }
+    }
+}
@@ -0,0 +1,568 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: 差分快照,保存上次差分数据的唯一键hash及数据摘要,按唯一键hash排序后以内存映射方式读取;
+ * 唯一键记录中同时保存各列字段值的hash,用于判断差异数据的变更字段
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-09-22 10:20
+ */
+@Slf4j
+class DiffSnapshot implements Closeable {
+
+    /**
+     * 快照文件拓展名
+     */
+    private static final String SNAPSHOT_EXTENSION = ".snap";
+    /**
+     * 文件标识
+     */
+    private static final int MAGIC = 0x44534E50;
+    /**
+     * 文件格式版本
+     */
+    private static final int VERSION = 2;
+    /**
+     * 文件头长度:标识、版本、数据条数、唯一键及忽略字段指纹、唯一键区起始位置、字段名区起始位置
+     */
+    private static final int HEADER_SIZE = 40;
+    /**
+     * 索引项长度:唯一键hash、数据摘要、唯一键记录位置
+     */
+    private static final int ENTRY_SIZE = 24;
+    /**
+     * 单个内存映射区的索引项数
+     */
+    private static final int ENTRIES_PER_MAP = 1 << 26;
+    /**
+     * 文件读写缓冲区大小
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 快照文件通道,快照不存在时为空
+     */
+    private final FileChannel channel;
+    /**
+     * 索引区的内存映射
+     */
+    private final MappedByteBuffer[] maps;
+    /**
+     * 数据条数
+     */
+    private final int rows;
+    /**
+     * 唯一键区起始位置
+     */
+    private final long keysOffset;
+    /**
+     * 字段名,唯一键记录中的列hash按下标引用
+     */
+    private final String[] columns;
+    /**
+     * 本次差分中已匹配的索引项
+     */
+    private final BitSet matched;
+
+    private DiffSnapshot(FileChannel channel, MappedByteBuffer[] maps, int rows, long keysOffset, String[] columns) {
+        this.channel = channel;
+        this.maps = maps;
+        this.rows = rows;
+        this.keysOffset = keysOffset;
+        this.columns = columns;
+        this.matched = new BitSet(rows);
+    }
+
+    /**
+     * 快照文件路径,快照名称中的非法字符替换为下划线
+     *
+     * @param snapshotDirPath 快照保存路径
+     * @param snapshotName    快照名称
+     * @return 快照文件路径
+     */
+    static Path path(Path snapshotDirPath, String snapshotName) {
+        return snapshotDirPath.resolve(snapshotName.replaceAll("[^\\w.-]", "_") + SNAPSHOT_EXTENSION);
+    }
+
+    /**
+     * 计算唯一键及忽略字段的指纹,两次差分不一致时数据摘要不可比较
+     *
+     * @param sortedKeys   唯一键(已排序去重)
+     * @param ignoreFields 忽略字段(已排序去重)
+     * @return 指纹
+     */
+    static long fingerprint(String[] sortedKeys, String[] ignoreFields) {
+        byte[] bytes = (String.join("\u0000", sortedKeys) + "\u0001" + String.join("\u0000", ignoreFields)).getBytes(StandardCharsets.UTF_8);
+        return HashUtils.hash64(bytes, 0, bytes.length);
+    }
+
+    /**
+     * 打开快照,快照不存在时返回空快照
+     *
+     * @param snapshotPath 快照文件路径
+     * @param fingerprint  唯一键及忽略字段指纹
+     * @return 快照
+     * @throws IOException 读取快照异常
+     */
+    static DiffSnapshot open(Path snapshotPath, long fingerprint) throws IOException {
+        if (!Files.exists(snapshotPath)) {
+            return new DiffSnapshot(null, new MappedByteBuffer[0], 0, 0, new String[0]);
+        }
+        FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(String.format("快照文件格式错误或版本不一致:%s,请删除快照后重新生成", snapshotPath));
+            }
+            long rows = header.getLong();
+            if (header.getLong() != fingerprint) {
+                throw new IllegalStateException(String.format("快照%s的唯一键或忽略字段与本次差分不一致,请删除快照后重新生成", snapshotPath));
+            }
+            long keysOffset = header.getLong();
+            long columnsOffset = header.getLong();
+            String[] columns = readColumns(channel, columnsOffset);
+            MappedByteBuffer[] maps = new MappedByteBuffer[(int) ((rows + ENTRIES_PER_MAP - 1) / ENTRIES_PER_MAP)];
+            for (int i = 0; i < maps.length; i++) {
+                long first = (long) i * ENTRIES_PER_MAP;
+                maps[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * ENTRY_SIZE, Math.min(ENTRIES_PER_MAP, rows - first) * ENTRY_SIZE);
+            }
+            log.info("读取差分快照:{},数据:{}条", snapshotPath, rows);
+            return new DiffSnapshot(channel, maps, (int) rows, keysOffset, columns);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 查找唯一键hash对应且尚未匹配的索引项,找到后标记为已匹配
+     *
+     * @param keyHash 唯一键hash
+     * @return 索引项下标,不存在时返回-1
+     */
+    int match(long keyHash) {
+        int low = 0;
+        int high = rows;
+        // 定位第一个不小于keyHash的索引项
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keyHashAt(mid) < keyHash) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int index = low; index < rows && keyHashAt(index) == keyHash; index++) {
+            if (!matched.get(index)) {
+                matched.set(index);
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 索引项的数据摘要
+     *
+     * @param index 索引项下标
+     * @return 数据摘要
+     */
+    long digestAt(int index) {
+        return maps[index / ENTRIES_PER_MAP].getLong((index % ENTRIES_PER_MAP) * ENTRY_SIZE + 8);
+    }
+
+    /**
+     * 索引项对应数据的各列hash
+     *
+     * @param index 索引项下标
+     * @return 字段名 -> 列hash,不含忽略字段
+     * @throws IOException 读取异常
+     */
+    Map<String, Long> columnHashesAt(int index) throws IOException {
+        DataInputStream in = recordAt(index);
+        skipKeys(in);
+        int count = DiffRowCodec.readVarInt(in);
+        Map<String, Long> hashes = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            hashes.put(columns[DiffRowCodec.readVarInt(in)], in.readLong());
+        }
+        return hashes;
+    }
+
+    /**
+     * 未匹配的数据的唯一键,即本次差分中缺少的数据
+     *
+     * @return 唯一键迭代器
+     */
+    Iterator<Map<String, Object>> unmatchedKeys() {
+        return new Iterator<Map<String, Object>>() {
+            private int next = matched.nextClearBit(0);
+
+            @Override
+            public boolean hasNext() {
+                return next < rows;
+            }
+
+            @Override
+            public Map<String, Object> next() {
+                if (next >= rows) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    return keysAt(next);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("读取快照唯一键失败", e);
+                } finally {
+                    next = matched.nextClearBit(next + 1);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * 索引项的唯一键hash
+     *
+     * @param index 索引项下标
+     * @return 唯一键hash
+     */
+    private long keyHashAt(int index) {
+        return maps[index / ENTRIES_PER_MAP].getLong((index % ENTRIES_PER_MAP) * ENTRY_SIZE);
+    }
+
+    /**
+     * 读取索引项对应的唯一键
+     *
+     * @param index 索引项下标
+     * @return 唯一键字段及值
+     * @throws IOException 读取异常
+     */
+    private Map<String, Object> keysAt(int index) throws IOException {
+        DataInputStream in = recordAt(index);
+        int count = DiffRowCodec.readVarInt(in);
+        Map<String, Object> keys = new LinkedHashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            keys.put(DiffRowCodec.readString(in), DiffRowCodec.readValue(in));
+        }
+        return keys;
+    }
+
+    /**
+     * 跳过唯一键记录中的唯一键部分
+     *
+     * @param in 唯一键记录
+     * @throws IOException 读取异常
+     */
+    private static void skipKeys(DataInputStream in) throws IOException {
+        int count = DiffRowCodec.readVarInt(in);
+        for (int i = 0; i < count; i++) {
+            DiffRowCodec.readString(in);
+            DiffRowCodec.readValue(in);
+        }
+    }
+
+    /**
+     * 读取索引项对应的唯一键记录:字段数+(字段名,字段值),列数+(字段名下标,列hash)
+     *
+     * @param index 索引项下标
+     * @return 唯一键记录
+     * @throws IOException 读取异常
+     */
+    private DataInputStream recordAt(int index) throws IOException {
+        long position = keysOffset + maps[index / ENTRIES_PER_MAP].getLong((index % ENTRIES_PER_MAP) * ENTRY_SIZE + 16);
+        ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+        readFully(channel, length, position);
+        ByteBuffer record = ByteBuffer.allocate(length.getInt(0));
+        readFully(channel, record, position + Integer.BYTES);
+        return new DataInputStream(new ByteArrayInputStream(record.array()));
+    }
+
+    /**
+     * 读取字段名区:字段数+字段名
+     *
+     * @param channel       文件通道
+     * @param columnsOffset 字段名区起始位置
+     * @return 字段名
+     * @throws IOException 读取异常
+     */
+    private static String[] readColumns(FileChannel channel, long columnsOffset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (channel.size() - columnsOffset));
+        readFully(channel, buffer, columnsOffset);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array()));
+        String[] columns = new String[DiffRowCodec.readVarInt(in)];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = DiffRowCodec.readString(in);
+        }
+        return columns;
+    }
+
+    /**
+     * 从指定位置读满缓冲区
+     *
+     * @param channel  文件通道
+     * @param buffer   缓冲区
+     * @param position 起始位置
+     * @throws IOException 读取异常或文件不完整
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("快照文件不完整");
+            }
+        }
+    }
+
+    /**
+     * 快照写入器,唯一键记录及索引项按到达顺序写入临时文件,索引项经外排序后与唯一键记录合并为新快照,
+     * 临时文件名唯一,同一快照的多个写入器互不影响
+     */
+    static class Writer implements Closeable {
+
+        private static final Object[] NO_VALUES = new Object[0];
+        private static final byte[] NO_KEY_BYTES = new byte[0];
+        private static final String[] NO_IGNORE_FIELDS = new String[0];
+
+        /**
+         * 快照文件路径
+         */
+        private final Path snapshotPath;
+        /**
+         * 唯一键(已排序去重)
+         */
+        private final String[] sortedKeys;
+        /**
+         * 忽略字段(已排序去重),不保存列hash
+         */
+        private final String[] ignoreFields;
+        /**
+         * 索引项外排序时单批在内存中排序的条数
+         */
+        private final int runSize;
+        /**
+         * 唯一键记录临时文件
+         */
+        private final Path keysPath;
+        /**
+         * 索引项临时文件
+         */
+        private final Path entriesPath;
+        /**
+         * 新快照临时文件
+         */
+        private final Path tmpPath;
+        /**
+         * 唯一键记录输出流
+         */
+        private final DataOutputStream keysOut;
+        /**
+         * 索引项输出流,每项依次为唯一键hash、数据摘要、唯一键记录位置
+         */
+        private final DataOutputStream entriesOut;
+        /**
+         * 单条唯一键记录的编码缓冲区
+         */
+        private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream();
+        /**
+         * 数据节点的字段结构,列hash按其中的列下标保存
+         */
+        private DiffSchema schema;
+        /**
+         * 数据条数
+         */
+        private int rows;
+        /**
+         * 唯一键记录已写入长度
+         */
+        private long keysSize;
+
+        /**
+         * 构造方法
+         *
+         * @param snapshotPath 快照文件路径
+         * @param sortedKeys   唯一键(已排序去重)
+         * @param ignoreFields 忽略字段(已排序去重)
+         * @param runSize      索引项外排序时单批在内存中排序的条数
+         * @throws IOException 创建临时文件异常
+         */
+        Writer(Path snapshotPath, String[] sortedKeys, String[] ignoreFields, int runSize) throws IOException {
+            this.snapshotPath = snapshotPath;
+            this.sortedKeys = sortedKeys;
+            this.ignoreFields = ignoreFields;
+            this.runSize = Math.max(runSize, 1);
+            Path dirPath = snapshotPath.toAbsolutePath().getParent();
+            Files.createDirectories(dirPath);
+            String prefix = snapshotPath.getFileName() + ".";
+            this.keysPath = Files.createTempFile(dirPath, prefix, ".keys.tmp");
+            this.entriesPath = Files.createTempFile(dirPath, prefix, ".entries.tmp");
+            this.tmpPath = Files.createTempFile(dirPath, prefix, ".tmp");
+            this.keysOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(keysPath), BUFFER_SIZE));
+            this.entriesOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(entriesPath), BUFFER_SIZE));
+        }
+
+        /**
+         * 追加数据节点
+         *
+         * @param node 数据节点
+         * @throws IOException 写入唯一键记录异常
+         */
+        void add(DiffUtils.Node node) throws IOException {
+            if (rows == Integer.MAX_VALUE) {
+                throw new IllegalStateException("快照数据条数超出上限");
+            }
+            // 唯一键记录:字段数+(字段名,字段值),列数+(列下标,列hash)
+            recordBuffer.reset();
+            DataOutputStream record = new DataOutputStream(recordBuffer);
+            if (schema == null) {
+                schema = node.getSchema();
+            } else if (schema != node.getSchema()) {
+                throw new IllegalArgumentException("同一快照的数据节点需使用相同的字段结构");
+            }
+            int count = 0;
+            for (String key : sortedKeys) {
+                if (node.isPresent(schema.indexOf(key))) {
+                    count++;
+                }
+            }
+            DiffRowCodec.writeVarInt(record, count);
+            for (String key : sortedKeys) {
+                int index = schema.indexOf(key);
+                if (node.isPresent(index)) {
+                    DiffRowCodec.writeString(record, key);
+                    DiffRowCodec.writeValue(record, node.getValues()[index]);
+                }
+            }
+            long[] hashes = node.columnHashes();
+            int[] columns = new int[hashes.length];
+            int columnCount = 0;
+            for (int i = 0; i < hashes.length; i++) {
+                if (node.isPresent(i) && Arrays.binarySearch(ignoreFields, schema.nameOf(i)) < 0) {
+                    columns[columnCount++] = i;
+                }
+            }
+            DiffRowCodec.writeVarInt(record, columnCount);
+            for (int i = 0; i < columnCount; i++) {
+                DiffRowCodec.writeVarInt(record, columns[i]);
+                record.writeLong(hashes[columns[i]]);
+            }
+            keysOut.writeInt(recordBuffer.size());
+            recordBuffer.writeTo(keysOut);
+            entriesOut.writeLong(node.getKeyHash());
+            entriesOut.writeLong(node.getValueDigestLow());
+            entriesOut.writeLong(keysSize);
+            keysSize += Integer.BYTES + recordBuffer.size();
+            rows++;
+        }
+
+        /**
+         * 索引项按唯一键hash外排序后写入新快照并替换旧快照
+         *
+         * @param fingerprint 唯一键及忽略字段指纹
+         * @throws IOException 写入快照异常
+         */
+        void commit(long fingerprint) throws IOException {
+            keysOut.close();
+            entriesOut.close();
+            long keysOffset = HEADER_SIZE + (long) rows * ENTRY_SIZE;
+            Path sortDirPath = entriesPath.resolveSibling(entriesPath.getFileName() + ".sort");
+            try (DataInputStream entriesIn = new DataInputStream(new BufferedInputStream(Files.newInputStream(entriesPath), BUFFER_SIZE));
+                 DiffExternalSorter sorter = DiffExternalSorter.sort(readEntries(entriesIn), Comparator.comparingLong(DiffUtils.Node::getKeyHash), runSize,
+                         sortDirPath, snapshotPath.getFileName().toString(), DiffUtils.DataType.TARGET, new DiffSchema());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPath), BUFFER_SIZE))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(rows);
+                out.writeLong(fingerprint);
+                out.writeLong(keysOffset);
+                out.writeLong(keysOffset + keysSize);
+                while (sorter.hasNext()) {
+                    DiffUtils.Node entry = sorter.next();
+                    out.writeLong(entry.getKeyHash());
+                    out.writeLong(entry.getValueDigestLow());
+                    out.writeLong(entry.getValueDigestHigh());
+                }
+                Files.copy(keysPath, out);
+                int columnCount = schema == null ? 0 : schema.size();
+                DiffRowCodec.writeVarInt(out, columnCount);
+                for (int i = 0; i < columnCount; i++) {
+                    DiffRowCodec.writeString(out, schema.nameOf(i));
+                }
+            }
+            try (FileChannel tmpChannel = FileChannel.open(tmpPath, StandardOpenOption.WRITE)) {
+                tmpChannel.force(true);
+            }
+            Files.move(tmpPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("写入差分快照:{},数据:{}条", snapshotPath, rows);
+        }
+
+        /**
+         * 按写入顺序读取索引项,每项转为只含唯一键hash及数据摘要的节点以便外排序,
+         * 唯一键记录位置存放在数据摘要高位中
+         *
+         * @param entriesIn 索引项输入流
+         * @return 索引项迭代器
+         */
+        private Iterator<DiffUtils.Node> readEntries(DataInputStream entriesIn) {
+            return new Iterator<DiffUtils.Node>() {
+                private int next;
+
+                @Override
+                public boolean hasNext() {
+                    return next < rows;
+                }
+
+                @Override
+                public DiffUtils.Node next() {
+                    if (next >= rows) {
+                        throw new NoSuchElementException();
+                    }
+                    DiffUtils.Node entry = new DiffUtils.Node();
+                    entry.setValues(NO_VALUES);
+                    entry.setKeyBytes(NO_KEY_BYTES);
+                    entry.setIgnoreFields(NO_IGNORE_FIELDS);
+                    try {
+                        entry.setKeyHash(entriesIn.readLong());
+                        entry.setValueDigestLow(entriesIn.readLong());
+                        entry.setValueDigestHigh(entriesIn.readLong());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("读取快照索引项失败", e);
+                    }
+                    next++;
+                    return entry;
+                }
+            };
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                keysOut.close();
+                entriesOut.close();
+            } finally {
+                Files.deleteIfExists(keysPath);
+                Files.deleteIfExists(entriesPath);
+                Files.deleteIfExists(tmpPath);
+            }
+        }
+    }
+}
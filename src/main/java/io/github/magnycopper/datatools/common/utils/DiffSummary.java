@@ -0,0 +1,97 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: 分区差分结果汇总,各分区差分完成后写入共享目录,由协调方合并
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-09-26 14:12
+ */
+@Data
+@NoArgsConstructor
+public class DiffSummary implements Serializable {
+
+    /**
+     * 差分任务ID
+     */
+    private String taskId;
+
+    /**
+     * 分区编号,合并后的汇总为-1
+     */
+    private int partitionIndex;
+
+    /**
+     * 分区数量
+     */
+    private int partitionCount;
+
+    /**
+     * 参与比较的数据条数(source+target)
+     */
+    private long rows;
+
+    /**
+     * 多出数据条数
+     */
+    private long moreCount;
+
+    /**
+     * 差异数据条数
+     */
+    private long diffCount;
+
+    /**
+     * 缺少数据条数
+     */
+    private long lessCount;
+
+    /**
+     * 差分耗时(毫秒),合并后为最慢分区的耗时
+     */
+    private long elapsedMillis;
+
+    /**
+     * 差分异常信息,成功时为空
+     */
+    private String error;
+
+    /**
+     * 合并前各分区的汇总
+     */
+    private List<DiffSummary> partitions = new ArrayList<>();
+
+    /**
+     * 合并各分区的汇总
+     *
+     * @param taskId    差分任务ID
+     * @param summaries 各分区的汇总
+     * @return 合并后的汇总
+     */
+    public static DiffSummary merge(String taskId, List<DiffSummary> summaries) {
+        DiffSummary merged = new DiffSummary();
+        merged.setTaskId(taskId);
+        merged.setPartitionIndex(-1);
+        merged.setPartitionCount(summaries.size());
+        merged.setPartitions(summaries.stream().sorted(Comparator.comparingInt(DiffSummary::getPartitionIndex)).collect(Collectors.toList()));
+        for (DiffSummary summary : merged.getPartitions()) {
+            merged.setRows(merged.getRows() + summary.getRows());
+            merged.setMoreCount(merged.getMoreCount() + summary.getMoreCount());
+            merged.setDiffCount(merged.getDiffCount() + summary.getDiffCount());
+            merged.setLessCount(merged.getLessCount() + summary.getLessCount());
+            merged.setElapsedMillis(Math.max(merged.getElapsedMillis(), summary.getElapsedMillis()));
+            if (summary.getError() != null) {
+                merged.setError(String.format("%s分区%s:%s", merged.getError() == null ? "" : merged.getError() + ";", summary.getPartitionIndex(), summary.getError()));
+            }
+        }
+        return merged;
+    }
+}
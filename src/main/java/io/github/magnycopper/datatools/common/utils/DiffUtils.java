@@ -1,20 +1,34 @@
 package io.github.magnycopper.datatools.common.utils;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
 import java.io.Serializable;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * @program: Wind.BDG.PEVC.DataTools
@@ -31,79 +45,152 @@ public class DiffUtils {
      */
     private static final String NULL_MARK = "@NULL@";
     /**
-     * 内存桶
+     * 全局默认ObjectMapper
      */
-    private static final Map<String, Map<String, List<Node>>> STORE = new HashMap<>();
+    private static final ObjectMapper DEFAULT_OBJECT_MAPPER = JsonMapper.builder()
+            .build();
     /**
-     * 分桶数量
+     * 分桶数量,默认1;配置为小于等于0时按各任务的数据量自适应分桶
      */
     @Value(value = "${basic-service.diff.diff-bucket-num:1}")
     private int BUCKETS;
     /**
-     * 差分比较并发度
+     * 自适应分桶时的最大分桶数量(向上取2的幂),入桶时按该数量划分存储分片
+     */
+    @Value(value = "${basic-service.diff.max-bucket-num:256}")
+    private int MAX_BUCKETS;
+    /**
+     * 自适应分桶时每个桶的目标数据条数(source+target)
+     */
+    @Value(value = "${basic-service.diff.rows-per-bucket:100000}")
+    private long ROWS_PER_BUCKET;
+    /**
+     * 差分比较并发度,小于等于0时使用CPU核数
      */
     @Value(value = "${basic-service.diff.parallelism:1}")
     private int PARALLELISM;
+    /**
+     * 单个桶超过该数据条数(source+target)时按子hash拆分为多个可窃取的子任务
+     */
+    @Value(value = "${basic-service.diff.split-threshold:100000}")
+    private int SPLIT_THRESHOLD;
+    /**
+     * 内存桶最多保留的数据条数,超出后溢写到磁盘
+     */
+    @Value(value = "${basic-service.diff.mem-budget-rows:1000000}")
+    private long MEM_BUDGET_ROWS;
+    /**
+     * 内存桶溢写文件保存路径
+     */
+    @Value(value = "${basic-service.diff.spill-dir-path:${basic-service.log-dir-path:./logs}/diff}")
+    private String SPILL_DIR_PATH;
+    /**
+     * 增量差分快照保存路径
+     */
+    @Value(value = "${basic-service.diff.snapshot-dir-path:${basic-service.log-dir-path:./logs}/diff-snapshot}")
+    private String SNAPSHOT_DIR_PATH;
+    /**
+     * 分区差分时当前进程负责的分区编号(0开始)
+     */
+    @Value(value = "${basic-service.diff.partition-index:0}")
+    private int PARTITION_INDEX;
+    /**
+     * 分区差分的分区(进程)数量,大于1时每个进程只处理唯一键hash落在自身区间的数据
+     */
+    @Value(value = "${basic-service.diff.partition-count:1}")
+    private int PARTITION_COUNT;
+    /**
+     * 分区差分结果及汇总的共享目录
+     */
+    @Value(value = "${basic-service.diff.partition-dir-path:${basic-service.log-dir-path:./logs}/diff-partition}")
+    private String PARTITION_DIR_PATH;
+    /**
+     * 差分结果每批输出的条数
+     */
+    @Value(value = "${basic-service.diff.result-chunk-size:1000}")
+    private int RESULT_CHUNK_SIZE;
+    /**
+     * 内存桶(超出内存预算后自动溢写到磁盘)
+     */
+    private DiffBucketStore memBucketStore;
+    /**
+     * 差分比较线程池,各次差分共用,空闲线程窃取其他桶的子任务
+     */
+    private ForkJoinPool diffPool;
+    /**
+     * 入桶时的存储分片数量,固定分桶时等于分桶数量,自适应分桶时差分前将多个分片合并为一个桶
+     */
+    private int slots;
+    /**
+     * 各差分任务的状态
+     */
+    private final Map<String, TaskState> tasks = new ConcurrentHashMap<>();
+
+    /**
+     * 初始化内存桶及差分比较线程池
+     */
+    @PostConstruct
+    public void init() {
+        memBucketStore = new DiffBucketStore(Paths.get(SPILL_DIR_PATH), MEM_BUDGET_ROWS);
+        diffPool = new ForkJoinPool(PARALLELISM > 0 ? PARALLELISM : Runtime.getRuntime().availableProcessors());
+        slots = BUCKETS > 0 ? BUCKETS : (int) ceilPowerOfTwo(MAX_BUCKETS);
+    }
+
+    /**
+     * 释放差分比较线程池
+     */
+    @PreDestroy
+    public void destroy() {
+        diffPool.shutdown();
+    }
 
     /**
-     * 将数据写入存储桶
+     * 将数据写入存储桶,不同任务及内置内存桶的写入可多线程并发,自定义入桶函数按任务串行调用
      *
      * @param taskId          任务ID
      * @param dataType        数据类型
      * @param keys            数据唯一键
      * @param collections     原始数据
      * @param writeToBucketOp 将数据入桶的函数
+     * @param ignoreFields    差分比较时忽略的字段,用于入桶时预先计算数据摘要
      */
-    public synchronized void addToBucket(String taskId, DataType dataType, Collection<String> keys, Collection<Map<String, Object>> collections, WriteToBucketOp writeToBucketOp) {
+    public void addToBucket(String taskId, DataType dataType, Collection<String> keys, Collection<Map<String, Object>> collections, WriteToBucketOp writeToBucketOp, String... ignoreFields) {
         // 将原始数据依次生成Node对象并按照hash值分组
         Collection<Map<String, Object>> datas = collections == null ? new ArrayList<>() : collections;
+        String[] normalizedIgnoreFields = Node.normalizeIgnoreFields(ignoreFields);
+        // 同一任务共用字段结构,唯一键排序去重后共用
+        TaskState taskState = tasks.computeIfAbsent(taskId, id -> new TaskState());
+        DiffSchema schema = taskState.schema;
+        String[] sortedKeys = keys.stream().distinct().sorted().toArray(String[]::new);
         Map<String, List<Node>> buckets = datas
                 .parallelStream()
-                .map(data -> new Node(taskId, dataType, keys, data))
-                .collect(Collectors.groupingByConcurrent(node -> Math.abs(node.hash() % BUCKETS) + ""));
-        // 使用流写入桶
-        writeToBucketOp.writeToBucket(buckets);
+                .map(data -> new Node(taskId, dataType, schema, sortedKeys, data, normalizedIgnoreFields))
+                // 分区差分时只保留当前分区的数据
+                .filter(node -> PARTITION_COUNT <= 1 || partitionOf(node.getKeyHash(), PARTITION_COUNT) == PARTITION_INDEX)
+                .collect(Collectors.groupingByConcurrent(node -> Math.floorMod(node.getKeyHash(), slots) + ""));
+        // 累计数据量,用于差分前确定分桶数量
+        (dataType == DataType.SOURCE ? taskState.sourceRows : taskState.targetRows).add(buckets.values().stream().mapToLong(List::size).sum());
+        // 使用流写入桶,内置内存桶按桶加锁,自定义入桶函数不保证线程安全则按任务加锁
+        if (writeToBucketOp instanceof DiffBucketStore) {
+            writeToBucketOp.writeToBucket(buckets);
+        } else {
+            synchronized (taskState) {
+                writeToBucketOp.writeToBucket(buckets);
+            }
+        }
     }
 
     /**
-     * 将数据写入内存桶
+     * 将数据写入内存桶,超出内存预算后自动溢写到磁盘
      *
-     * @param taskId   任务ID
-     * @param dataType 数据类型
-     * @param keys     数据唯一键
-     * @param datas    原始数据
-     */
-    public void addToMemBucket(String taskId, DataType dataType, Collection<String> keys, Collection<Map<String, Object>> datas) {
-        addToBucket(taskId, dataType, keys, datas, buckets -> {
-            // 将数据写入内存桶
-            // 1. 从STRORE中根据taskID加载分桶数据,若不存在则初始化
-            Map<String, List<Node>> bucket = STORE.get(taskId);
-            if (bucket == null) {
-                bucket = new ConcurrentHashMap<>();
-                STORE.put(taskId, bucket);
-            }
-            log.info("桶内数据:{},待写入数据:{}",
-                    bucket.entrySet()
-                            .stream()
-                            .map(entry -> String.format("%s号桶=%s条", entry.getKey(), entry.getValue().size()))
-                            .collect(Collectors.joining("|")),
-                    buckets.entrySet()
-                            .stream()
-                            .map(entry -> String.format("%s号桶=%s条", entry.getKey(), entry.getValue().size()))
-                            .collect(Collectors.joining("|")));
-            // 2. 依次将计算结果与原有数据进行合并
-            for (Map.Entry<String, List<Node>> entry : buckets.entrySet()) {
-                bucket.merge(entry.getKey(), entry.getValue(), (oldData, newData) -> {
-                    oldData.addAll(newData);
-                    return oldData;
-                });
-            }
-            log.info("写入后桶内数据:{}",
-                    bucket.entrySet()
-                            .stream()
-                            .map(entry -> String.format("%s号桶=%s条", entry.getKey(), entry.getValue().size()))
-                            .collect(Collectors.joining("|")));
-        });
+     * @param taskId       任务ID
+     * @param dataType     数据类型
+     * @param keys         数据唯一键
+     * @param datas        原始数据
+     * @param ignoreFields 差分比较时忽略的字段,用于入桶时预先计算数据摘要
+     */
+    public void addToMemBucket(String taskId, DataType dataType, Collection<String> keys, Collection<Map<String, Object>> datas, String... ignoreFields) {
+        addToBucket(taskId, dataType, keys, datas, memBucketStore, ignoreFields);
     }
 
     /**
@@ -116,153 +203,602 @@ public class DiffUtils {
      * @param readFromBucketOp 从差分桶中读取数据
      * @param cleanBucketOp    清空差分桶
      * @param ignoreFields     差分比较时忽略的字段
+     * @return 差分汇总,有桶比较失败时error不为空
      */
-    public void diff(String taskId, MoreOp moreOp, DiffOp diffOp, LessOp lessOp, ReadFromBucketOp readFromBucketOp, CleanBucketOp cleanBucketOp, String... ignoreFields) {
-        ExecutorService executorService = Executors.newFixedThreadPool(PARALLELISM);
-        CountDownLatch countDownLatch = new CountDownLatch(BUCKETS);
+    public DiffSummary diff(String taskId, MoreOp moreOp, DiffOp diffOp, LessOp lessOp, ReadFromBucketOp readFromBucketOp, CleanBucketOp cleanBucketOp, String... ignoreFields) {
+        return diff(taskId, DiffSink.of(moreOp, diffOp, lessOp), readFromBucketOp, cleanBucketOp, ignoreFields);
+    }
+
+    /**
+     * target变成source差分,比较结果按批流式交给输出端,分区差分时完成后将汇总写入共享目录;
+     * 单个桶比较失败不影响其他桶,全部桶完成后失败信息记录在汇总的error中
+     *
+     * @param taskId           差分任务ID
+     * @param diffSink         差分结果输出端
+     * @param readFromBucketOp 从差分桶中读取数据
+     * @param cleanBucketOp    清空差分桶
+     * @param ignoreFields     差分比较时忽略的字段
+     * @return 差分汇总,有桶比较失败时error不为空
+     */
+    public DiffSummary diff(String taskId, DiffSink diffSink, ReadFromBucketOp readFromBucketOp, CleanBucketOp cleanBucketOp, String... ignoreFields) {
+        String[] normalizedIgnoreFields = Node.normalizeIgnoreFields(ignoreFields);
+        long startMillis = System.currentTimeMillis();
+        // 统计各类结果数量
+        Map<ResultType, LongAdder> counts = new EnumMap<>(ResultType.class);
+        for (ResultType resultType : ResultType.values()) {
+            counts.put(resultType, new LongAdder());
+        }
+        DiffSink countingSink = (resultType, datas) -> {
+            counts.get(resultType).add(datas.size());
+            diffSink.accept(resultType, datas);
+        };
+        TaskState taskState = tasks.get(taskId);
+        long rows = taskState == null ? 0 : taskState.sourceRows.sum() + taskState.targetRows.sum();
+        // 各桶的异常,桶任务内捕获后记录,不中断其他桶
+        Queue<String> errors = new ConcurrentLinkedQueue<>();
         try {
-            for (int i = 0; i < BUCKETS; i++) {
-                int bucketNum = i;
-                executorService.submit(() -> {
-                    try {
-                        // 查询需要比较的数据
-                        // 分别读取桶中数据
-                        List<Node> sourceDatas = readFromBucketOp.readFromBucket(taskId, DataType.SOURCE, bucketNum);
-                        List<Node> targetDatas = readFromBucketOp.readFromBucket(taskId, DataType.TARGET, bucketNum);
-                        // 差分比较
-                        Map<String, List<Map<String, Object>>> diffResult = compareBucket(sourceDatas, targetDatas, ignoreFields);
-                        List<Map<String, Object>> moreDatas = diffResult.get("MORE");
-                        List<Map<String, Object>> diffDatas = diffResult.get("DIFF");
-                        List<Map<String, Object>> lessDatas = diffResult.get("LESS");
-                        log.info("任务Id:{},{}号桶,source较target比较结果,多出:{},差异:{},缺失:{}", taskId, bucketNum, moreDatas.size(), diffDatas.size(), lessDatas.size());
-                        // 多余数据处理操作
-                        moreOp.moreDataHandler(moreDatas);
-                        // 差异数据处理操作
-                        diffOp.diffDataHandler(diffDatas);
-                        // 缺少数据处理操作
-                        lessOp.lessDataHandler(lessDatas);
-                    } catch (Exception e) {
-                        log.error("任务ID:" + taskId + ",桶编号:" + bucketNum + "差异比较时发生异常", e);
-                    } finally {
-                        countDownLatch.countDown();
-                    }
-                });
+            // 每个桶一个任务,由共用线程池动态调度
+            int buckets = bucketCount(taskId);
+            List<BucketTask> bucketTasks = new ArrayList<>(buckets);
+            for (int i = 0; i < buckets; i++) {
+                bucketTasks.add(new BucketTask(taskId, i, buckets, countingSink, readFromBucketOp, normalizedIgnoreFields, errors));
             }
-            countDownLatch.await();
+            diffPool.submit(() -> ForkJoinTask.invokeAll(bucketTasks)).get();
         } catch (Exception e) {
             log.error(taskId + "多线程差异比较发生异常", e);
+            errors.add(e.toString());
         } finally {
-            // 释放线程池
-            executorService.shutdown();
             // 删除差分数据
             cleanBucketOp.cleanBucket(taskId);
+            tasks.remove(taskId);
         }
+        DiffSummary summary = new DiffSummary();
+        summary.setTaskId(taskId);
+        summary.setPartitionIndex(PARTITION_INDEX);
+        summary.setPartitionCount(PARTITION_COUNT);
+        summary.setRows(rows);
+        summary.setMoreCount(counts.get(ResultType.MORE).sum());
+        summary.setDiffCount(counts.get(ResultType.DIFF).sum());
+        summary.setLessCount(counts.get(ResultType.LESS).sum());
+        summary.setElapsedMillis(System.currentTimeMillis() - startMillis);
+        if (!errors.isEmpty()) {
+            summary.setError(String.format("%s处差异比较失败,结果不完整:%s", errors.size(), String.join(";", errors)));
+            log.error("任务Id:{},{}", taskId, summary.getError());
+        }
+        if (PARTITION_COUNT > 1) {
+            writeSummary(summary);
+        }
+        return summary;
     }
 
     /**
-     * target变成source差分
+     * 计算唯一键hash所属的分区,按hash高32位将hash空间等分为连续区间
+     *
+     * @param keyHash        唯一键hash
+     * @param partitionCount 分区数量
+     * @return 分区编号
+     */
+    public static int partitionOf(long keyHash, int partitionCount) {
+        return (int) (((keyHash >>> 32) * partitionCount) >>> 32);
+    }
+
+    /**
+     * 创建当前分区的结果输出端,结果按类型写入共享目录下的JSON Lines文件
+     *
+     * @param taskId 差分任务ID
+     * @return 分区结果输出端,差分完成后需关闭
+     */
+    public DiffPartitionSink partitionSink(String taskId) {
+        return new DiffPartitionSink(partitionDirPath(taskId), PARTITION_INDEX);
+    }
+
+    /**
+     * 等待全部分区差分完成并合并汇总,由协调进程调用,同一任务ID不可重复使用
+     *
+     * @param taskId        差分任务ID
+     * @param timeoutMillis 最长等待时间(毫秒)
+     * @return 合并后的汇总
+     * @throws IOException          读取汇总异常
+     * @throws InterruptedException 等待被中断
+     * @throws TimeoutException     超时仍有分区未完成
+     */
+    public DiffSummary awaitPartitions(String taskId, long timeoutMillis) throws IOException, InterruptedException, TimeoutException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        List<DiffSummary> summaries = new ArrayList<>();
+        for (int i = 0; i < PARTITION_COUNT; i++) {
+            Path summaryPath = summaryPath(taskId, i);
+            while (!Files.exists(summaryPath)) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new TimeoutException(String.format("任务Id:%s,等待分区%s差分汇总超时", taskId, i));
+                }
+                Thread.sleep(200);
+            }
+            summaries.add(DEFAULT_OBJECT_MAPPER.readValue(summaryPath.toFile(), DiffSummary.class));
+        }
+        DiffSummary merged = DiffSummary.merge(taskId, summaries);
+        log.info("任务Id:{},{}个分区差分汇总,数据量:{},多出:{},差异:{},缺失:{}", taskId, PARTITION_COUNT, merged.getRows(), merged.getMoreCount(), merged.getDiffCount(), merged.getLessCount());
+        return merged;
+    }
+
+    /**
+     * 将分区汇总写入共享目录,先写临时文件再原子替换,协调进程不会读到写入一半的文件
+     *
+     * @param summary 分区汇总
+     */
+    private void writeSummary(DiffSummary summary) {
+        Path summaryPath = summaryPath(summary.getTaskId(), summary.getPartitionIndex());
+        Path tmpPath = summaryPath.resolveSibling(summaryPath.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(summaryPath.getParent());
+            DEFAULT_OBJECT_MAPPER.writeValue(tmpPath.toFile(), summary);
+            Files.move(tmpPath, summaryPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("任务Id:{},分区{}/{}差分汇总已写入:{}", summary.getTaskId(), summary.getPartitionIndex(), summary.getPartitionCount(), summaryPath);
+        } catch (IOException e) {
+            log.error("任务" + summary.getTaskId() + "的分区汇总写入失败", e);
+        }
+    }
+
+    /**
+     * 任务的分区共享目录,任务ID中的非法字符替换为下划线
+     *
+     * @param taskId 差分任务ID
+     * @return 目录路径
+     */
+    private Path partitionDirPath(String taskId) {
+        return Paths.get(PARTITION_DIR_PATH, taskId.replaceAll("[^\\w.-]", "_"));
+    }
+
+    /**
+     * 分区汇总文件路径
+     *
+     * @param taskId         差分任务ID
+     * @param partitionIndex 分区编号
+     * @return 汇总文件路径
+     */
+    private Path summaryPath(String taskId, int partitionIndex) {
+        return partitionDirPath(taskId).resolve(String.format("part-%s.summary.json", partitionIndex));
+    }
+
+    /**
+     * 确定差分时的分桶数量,自适应分桶时按数据量及并发度取2的幂,每个桶由若干存储分片合并而成
+     *
+     * @param taskId 差分任务ID
+     * @return 分桶数量
+     */
+    private int bucketCount(String taskId) {
+        if (BUCKETS > 0) {
+            return BUCKETS;
+        }
+        TaskState taskState = tasks.get(taskId);
+        long rows = taskState == null ? 0 : taskState.sourceRows.sum() + taskState.targetRows.sum();
+        long buckets = Math.max((rows + ROWS_PER_BUCKET - 1) / Math.max(ROWS_PER_BUCKET, 1), diffPool.getParallelism());
+        int bucketCount = (int) Math.min(ceilPowerOfTwo(buckets), slots);
+        log.info("任务Id:{},数据量:{}条,分桶数量:{}", taskId, rows, bucketCount);
+        return bucketCount;
+    }
+
+    /**
+     * 向上取2的幂
+     *
+     * @param n 数量
+     * @return 不小于n的最小2的幂,n小于等于1时为1
+     */
+    private static long ceilPowerOfTwo(long n) {
+        return n <= 1 ? 1 : Long.highestOneBit(n - 1) << 1;
+    }
+
+    /**
+     * target变成source差分,逐桶从内存桶及溢写文件中读取数据
      *
      * @param taskId       差分任务ID
      * @param moreOp       差分后的多余数据操作
      * @param diffOp       差分后的差异数据操作
      * @param lessOp       差分后的缺少操作
      * @param ignoreFields 差分比较时忽略的字段
+     * @return 差分汇总,有桶比较失败时error不为空
      */
-    public void memDiff(String taskId, MoreOp moreOp, DiffOp diffOp, LessOp lessOp, String... ignoreFields) {
-        diff(taskId,
+    public DiffSummary memDiff(String taskId, MoreOp moreOp, DiffOp diffOp, LessOp lessOp, String... ignoreFields) {
+        return diff(taskId,
                 moreOp,
                 diffOp,
                 lessOp,
-                (id, type, num) -> {
-                    // 从STORE中加载数据
-                    Map<String, List<Node>> buckets = STORE.get(id);
-                    List<Node> bucket = buckets.containsKey(num + "") ? buckets.get(num + "") : new ArrayList<>();
-                    return bucket
-                            .stream()
-                            .filter(node -> type.equals(node.getDataType()))
-                            .collect(Collectors.toList());
-                },
-                STORE::remove,
+                memBucketStore,
+                memBucketStore,
                 ignoreFields);
     }
 
     /**
-     * 比较桶中数据source->target
+     * target变成source差分,逐桶从内存桶及溢写文件中读取数据,比较结果按批流式交给输出端
+     *
+     * @param taskId       差分任务ID
+     * @param diffSink     差分结果输出端
+     * @param ignoreFields 差分比较时忽略的字段
+     * @return 差分汇总,有桶比较失败时error不为空
+     */
+    public DiffSummary memDiff(String taskId, DiffSink diffSink, String... ignoreFields) {
+        return diff(taskId, diffSink, memBucketStore, memBucketStore, ignoreFields);
+    }
+
+    /**
+     * 按唯一键有序的数据流归并差分(target变成source),逐条比较,内存占用与数据量无关
+     *
+     * @param taskId         差分任务ID
+     * @param keys           数据唯一键,顺序需与数据排序(ORDER BY)的字段顺序一致
+     * @param sourceIterator 来源数据
+     * @param targetIterator 目标数据
+     * @param presorted      数据是否已按唯一键升序排列,为false时先在磁盘上外排序;为true时比较顺序为NULL最小、数值按大小、字符串按Java String.compareTo(UTF-16编码)顺序,与数据库排序规则(如不区分大小写或按拼音排序的collation)不一致时归并中检查到乱序会抛出IllegalStateException
+     * @param moreOp         差分后的多余数据操作
+     * @param diffOp         差分后的差异数据操作
+     * @param lessOp         差分后的缺少操作
+     * @param ignoreFields   差分比较时忽略的字段
+     * @throws Exception 外排序读写文件或输出结果异常
+     */
+    public void mergeDiff(String taskId, List<String> keys, Iterator<Map<String, Object>> sourceIterator, Iterator<Map<String, Object>> targetIterator, boolean presorted, MoreOp moreOp, DiffOp diffOp, LessOp lessOp, String... ignoreFields) throws Exception {
+        mergeDiff(taskId, keys, sourceIterator, targetIterator, presorted, DiffSink.of(moreOp, diffOp, lessOp), ignoreFields);
+    }
+
+    /**
+     * 按唯一键有序的数据流归并差分(target变成source),逐条比较,比较结果按批流式交给输出端
+     *
+     * @param taskId         差分任务ID
+     * @param keys           数据唯一键,顺序需与数据排序(ORDER BY)的字段顺序一致
+     * @param sourceIterator 来源数据
+     * @param targetIterator 目标数据
+     * @param presorted      数据是否已按唯一键升序排列,为false时先在磁盘上外排序;为true时比较顺序为NULL最小、数值按大小、字符串按Java String.compareTo(UTF-16编码)顺序,与数据库排序规则(如不区分大小写或按拼音排序的collation)不一致时归并中检查到乱序会抛出IllegalStateException
+     * @param diffSink       差分结果输出端
+     * @param ignoreFields   差分比较时忽略的字段
+     * @throws Exception 外排序读写文件或输出结果异常
+     */
+    public void mergeDiff(String taskId, List<String> keys, Iterator<Map<String, Object>> sourceIterator, Iterator<Map<String, Object>> targetIterator, boolean presorted, DiffSink diffSink, String... ignoreFields) throws Exception {
+        DiffSchema schema = new DiffSchema();
+        String[] normalizedIgnoreFields = Node.normalizeIgnoreFields(ignoreFields);
+        String[] sortedKeys = keys.stream().distinct().sorted().toArray(String[]::new);
+        // 按唯一键声明顺序比较
+        int[] keyColumns = keys.stream().distinct().mapToInt(schema::intern).toArray();
+        Comparator<Node> comparator = (a, b) -> compareKeys(a, b, keyColumns);
+        Iterator<Node> sourceNodes = toNodes(taskId, DataType.SOURCE, schema, sortedKeys, sourceIterator, normalizedIgnoreFields);
+        Iterator<Node> targetNodes = toNodes(taskId, DataType.TARGET, schema, sortedKeys, targetIterator, normalizedIgnoreFields);
+        DiffExternalSorter sourceSorter = null;
+        DiffExternalSorter targetSorter = null;
+        try {
+            if (!presorted) {
+                // 数据无序时先外排序
+                int runSize = (int) Math.min(Math.max(MEM_BUDGET_ROWS, 1), Integer.MAX_VALUE);
+                sourceSorter = DiffExternalSorter.sort(sourceNodes, comparator, runSize, Paths.get(SPILL_DIR_PATH, "sort-" + UUID.randomUUID()), taskId, DataType.SOURCE, schema);
+                targetSorter = DiffExternalSorter.sort(targetNodes, comparator, runSize, Paths.get(SPILL_DIR_PATH, "sort-" + UUID.randomUUID()), taskId, DataType.TARGET, schema);
+                sourceNodes = sourceSorter;
+                targetNodes = targetSorter;
+            }
+            Iterator<Node> source = checkOrder(sourceNodes, comparator, DataType.SOURCE);
+            Iterator<Node> target = checkOrder(targetNodes, comparator, DataType.TARGET);
+            ResultChunks chunks = new ResultChunks(diffSink, RESULT_CHUNK_SIZE);
+            Node sourceData = source.hasNext() ? source.next() : null;
+            Node targetData = target.hasNext() ? target.next() : null;
+            // 两侧同步推进,唯一键较小的一侧先输出
+            while (sourceData != null || targetData != null) {
+                int compare = sourceData == null ? 1 : targetData == null ? -1 : comparator.compare(sourceData, targetData);
+                if (compare < 0) {
+                    chunks.more(sourceData.getData());
+                    sourceData = source.hasNext() ? source.next() : null;
+                } else if (compare > 0) {
+                    chunks.less(targetData.getData());
+                    targetData = target.hasNext() ? target.next() : null;
+                } else {
+                    if (!sourceData.sameValues(targetData, normalizedIgnoreFields)) {
+                        chunks.diff(new ChangedRow(sourceData, sourceData.changedColumns(targetData, normalizedIgnoreFields)));
+                    }
+                    sourceData = source.hasNext() ? source.next() : null;
+                    targetData = target.hasNext() ? target.next() : null;
+                }
+            }
+            chunks.flush();
+            log.info("任务Id:{},归并差分source较target比较结果,多出:{},差异:{},缺失:{}", taskId, chunks.moreCount, chunks.diffCount, chunks.lessCount);
+        } finally {
+            if (sourceSorter != null) {
+                sourceSorter.close();
+            }
+            if (targetSorter != null) {
+                targetSorter.close();
+            }
+        }
+    }
+
+    /**
+     * 按唯一键有序的数据流归并差分(target变成source)
+     *
+     * @param taskId       差分任务ID
+     * @param keys         数据唯一键,顺序需与数据排序(ORDER BY)的字段顺序一致
+     * @param sourceStream 来源数据
+     * @param targetStream 目标数据
+     * @param presorted    数据是否已按唯一键升序排列,为false时先在磁盘上外排序;为true时比较顺序为NULL最小、数值按大小、字符串按Java String.compareTo(UTF-16编码)顺序,与数据库排序规则(如不区分大小写或按拼音排序的collation)不一致时归并中检查到乱序会抛出IllegalStateException
+     * @param moreOp       差分后的多余数据操作
+     * @param diffOp       差分后的差异数据操作
+     * @param lessOp       差分后的缺少操作
+     * @param ignoreFields 差分比较时忽略的字段
+     * @throws Exception 外排序读写文件或输出结果异常
+     */
+    public void mergeDiff(String taskId, List<String> keys, Stream<Map<String, Object>> sourceStream, Stream<Map<String, Object>> targetStream, boolean presorted, MoreOp moreOp, DiffOp diffOp, LessOp lessOp, String... ignoreFields) throws Exception {
+        mergeDiff(taskId, keys, sourceStream, targetStream, presorted, DiffSink.of(moreOp, diffOp, lessOp), ignoreFields);
+    }
+
+    /**
+     * 按唯一键有序的数据流归并差分(target变成source),比较结果按批流式交给输出端
+     *
+     * @param taskId       差分任务ID
+     * @param keys         数据唯一键,顺序需与数据排序(ORDER BY)的字段顺序一致
+     * @param sourceStream 来源数据
+     * @param targetStream 目标数据
+     * @param presorted    数据是否已按唯一键升序排列,为false时先在磁盘上外排序;为true时比较顺序为NULL最小、数值按大小、字符串按Java String.compareTo(UTF-16编码)顺序,与数据库排序规则(如不区分大小写或按拼音排序的collation)不一致时归并中检查到乱序会抛出IllegalStateException
+     * @param diffSink     差分结果输出端
+     * @param ignoreFields 差分比较时忽略的字段
+     * @throws Exception 外排序读写文件或输出结果异常
+     */
+    public void mergeDiff(String taskId, List<String> keys, Stream<Map<String, Object>> sourceStream, Stream<Map<String, Object>> targetStream, boolean presorted, DiffSink diffSink, String... ignoreFields) throws Exception {
+        try (Stream<Map<String, Object>> source = sourceStream; Stream<Map<String, Object>> target = targetStream) {
+            mergeDiff(taskId, keys, source.iterator(), target.iterator(), presorted, diffSink, ignoreFields);
+        }
+    }
+
+    /**
+     * 增量差分,将来源数据与上次差分保存的快照比较(快照作为target),比较后以来源数据生成新快照,无需再读取目标数据
+     *
+     * @param snapshotName   快照名称,同一张表的多次差分使用相同名称
+     * @param keys           数据唯一键
+     * @param sourceIterator 来源数据
+     * @param moreOp         差分后的多余数据操作
+     * @param diffOp         差分后的差异数据操作
+     * @param lessOp         差分后的缺少操作,数据仅包含唯一键
+     * @param ignoreFields   差分比较时忽略的字段
+     * @throws Exception 读写快照或输出结果异常
+     */
+    public void snapshotDiff(String snapshotName, List<String> keys, Iterator<Map<String, Object>> sourceIterator, MoreOp moreOp, DiffOp diffOp, LessOp lessOp, String... ignoreFields) throws Exception {
+        snapshotDiff(snapshotName, keys, sourceIterator, DiffSink.of(moreOp, diffOp, lessOp), ignoreFields);
+    }
+
+    /**
+     * 增量差分,将来源数据与上次差分保存的快照比较(快照作为target),比较结果按批流式交给输出端。
+     * 快照按唯一键hash排序并以内存映射方式读取,堆内存仅占用已匹配标记,新快照索引写入临时文件后外排序;
+     * 快照不存在时全部来源数据均为多出数据,差分全部完成后才替换快照,失败时保留上次快照
+     *
+     * @param snapshotName   快照名称,同一张表的多次差分使用相同名称
+     * @param keys           数据唯一键
+     * @param sourceIterator 来源数据
+     * @param diffSink       差分结果输出端,缺少数据仅包含唯一键,差异数据的变更字段按快照中保存的各列hash判断
+     * @param ignoreFields   差分比较时忽略的字段
+     * @throws Exception 读写快照或输出结果异常
+     */
+    public void snapshotDiff(String snapshotName, List<String> keys, Iterator<Map<String, Object>> sourceIterator, DiffSink diffSink, String... ignoreFields) throws Exception {
+        DiffSchema schema = new DiffSchema();
+        String[] normalizedIgnoreFields = Node.normalizeIgnoreFields(ignoreFields);
+        String[] sortedKeys = keys.stream().distinct().sorted().toArray(String[]::new);
+        long fingerprint = DiffSnapshot.fingerprint(sortedKeys, normalizedIgnoreFields);
+        Path snapshotPath = DiffSnapshot.path(Paths.get(SNAPSHOT_DIR_PATH), snapshotName);
+        ResultChunks chunks = new ResultChunks(diffSink, RESULT_CHUNK_SIZE);
+        int runSize = (int) Math.min(Math.max(MEM_BUDGET_ROWS, 1), Integer.MAX_VALUE);
+        try (DiffSnapshot.Writer writer = new DiffSnapshot.Writer(snapshotPath, sortedKeys, normalizedIgnoreFields, runSize)) {
+            try (DiffSnapshot snapshot = DiffSnapshot.open(snapshotPath, fingerprint)) {
+                Iterator<Node> sourceNodes = toNodes(snapshotName, DataType.SOURCE, schema, sortedKeys, sourceIterator, normalizedIgnoreFields);
+                while (sourceNodes.hasNext()) {
+                    Node sourceData = sourceNodes.next();
+                    int index = snapshot.match(sourceData.getKeyHash());
+                    if (index < 0) {
+                        chunks.more(sourceData.getData());
+                    } else if (snapshot.digestAt(index) != sourceData.getValueDigestLow()) {
+                        // 快照中没有字段值,按各列hash判断变更字段
+                        chunks.diff(new ChangedRow(sourceData, sourceData.changedColumns(snapshot.columnHashesAt(index), normalizedIgnoreFields)));
+                    }
+                    writer.add(sourceData);
+                }
+                // 快照中未匹配的数据为缺少数据
+                Iterator<Map<String, Object>> lessKeys = snapshot.unmatchedKeys();
+                while (lessKeys.hasNext()) {
+                    chunks.less(lessKeys.next());
+                }
+                chunks.flush();
+            }
+            writer.commit(fingerprint);
+        }
+        log.info("任务Id:{},增量差分source较快照比较结果,多出:{},差异:{},缺失:{}", snapshotName, chunks.moreCount, chunks.diffCount, chunks.lessCount);
+    }
+
+    /**
+     * 增量差分,将来源数据与上次差分保存的快照比较(快照作为target)
+     *
+     * @param snapshotName 快照名称,同一张表的多次差分使用相同名称
+     * @param keys         数据唯一键
+     * @param sourceStream 来源数据
+     * @param diffSink     差分结果输出端,缺少数据仅包含唯一键
+     * @param ignoreFields 差分比较时忽略的字段
+     * @throws Exception 读写快照或输出结果异常
+     */
+    public void snapshotDiff(String snapshotName, List<String> keys, Stream<Map<String, Object>> sourceStream, DiffSink diffSink, String... ignoreFields) throws Exception {
+        try (Stream<Map<String, Object>> source = sourceStream) {
+            snapshotDiff(snapshotName, keys, source.iterator(), diffSink, ignoreFields);
+        }
+    }
+
+    /**
+     * 删除增量差分快照,下次差分将全部来源数据视为多出数据
+     *
+     * @param snapshotName 快照名称
+     * @throws IOException 删除文件异常
+     */
+    public void deleteSnapshot(String snapshotName) throws IOException {
+        Files.deleteIfExists(DiffSnapshot.path(Paths.get(SNAPSHOT_DIR_PATH), snapshotName));
+    }
+
+    /**
+     * 将原始数据逐条转换为数据节点
+     *
+     * @param taskId       差分任务ID
+     * @param dataType     数据类型
+     * @param schema       任务字段结构
+     * @param sortedKeys   唯一键(已排序去重)
+     * @param datas        原始数据
+     * @param ignoreFields 忽略字段(已排序去重)
+     * @return 数据节点迭代器
+     */
+    private static Iterator<Node> toNodes(String taskId, DataType dataType, DiffSchema schema, String[] sortedKeys, Iterator<Map<String, Object>> datas, String[] ignoreFields) {
+        return new Iterator<Node>() {
+            @Override
+            public boolean hasNext() {
+                return datas.hasNext();
+            }
+
+            @Override
+            public Node next() {
+                return new Node(taskId, dataType, schema, sortedKeys, datas.next(), ignoreFields);
+            }
+        };
+    }
+
+    /**
+     * 校验数据按唯一键有序
+     *
+     * @param nodes      数据节点
+     * @param comparator 唯一键排序规则
+     * @param dataType   数据类型
+     * @return 校验有序的数据节点迭代器
+     */
+    private static Iterator<Node> checkOrder(Iterator<Node> nodes, Comparator<Node> comparator, DataType dataType) {
+        return new Iterator<Node>() {
+            private Node previous;
+
+            @Override
+            public boolean hasNext() {
+                return nodes.hasNext();
+            }
+
+            @Override
+            public Node next() {
+                Node node = nodes.next();
+                if (previous != null && comparator.compare(previous, node) > 0) {
+                    throw new IllegalStateException(String.format("%s数据未按唯一键排序:%s在%s之后,请使用presorted=false外排序", dataType, node.getData(), previous.getData()));
+                }
+                previous = node;
+                return node;
+            }
+        };
+    }
+
+    /**
+     * 按唯一键声明顺序比较两个数据节点
+     *
+     * @param a          数据节点
+     * @param b          数据节点
+     * @param keyColumns 唯一键列下标
+     * @return 比较结果
+     */
+    private static int compareKeys(Node a, Node b, int[] keyColumns) {
+        for (int column : keyColumns) {
+            int compare = compareValues(a.isPresent(column) ? a.getValues()[column] : null, b.isPresent(column) ? b.getValues()[column] : null);
+            if (compare != 0) {
+                return compare;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 比较两个字段值,NULL值最小,数值按大小比较,其余同类型按自然顺序,不同类型按字符串比较
+     *
+     * @param a 字段值
+     * @param b 字段值
+     * @return 比较结果
+     */
+    @SuppressWarnings("unchecked")
+    private static int compareValues(Object a, Object b) {
+        if (a == b) {
+            return 0;
+        }
+        if (a == null) {
+            return -1;
+        }
+        if (b == null) {
+            return 1;
+        }
+        if (a.getClass() == b.getClass() && a instanceof Comparable) {
+            return ((Comparable<Object>) a).compareTo(b);
+        }
+        if (a instanceof Number && b instanceof Number) {
+            try {
+                return new BigDecimal(a.toString()).compareTo(new BigDecimal(b.toString()));
+            } catch (NumberFormatException e) {
+                return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+            }
+        }
+        return a.toString().compareTo(b.toString());
+    }
+
+    /**
+     * 比较桶中数据source->target,结果逐条交给分批输出
      *
      * @param sourceDatas  来源数据
      * @param targetDatas  目标数据
-     * @param ignoreFields 比较时忽略的字段
-     * @return 差分比较结果
-     */
-    private Map<String, List<Map<String, Object>>> compareBucket(@NonNull List<Node> sourceDatas, @NonNull List<Node> targetDatas, String... ignoreFields) {
-        // 待处理数据
-        List<Map<String, Object>> moreList = new ArrayList<>();
-        List<Map<String, Object>> diffList = new ArrayList<>();
-        List<Map<String, Object>> lessList = new ArrayList<>();
+     * @param chunks       差分结果分批输出
+     * @param ignoreFields 比较时忽略的字段(已排序去重)
+     * @throws Exception 输出结果异常
+     */
+    private void compareBucket(@NonNull List<Node> sourceDatas, @NonNull List<Node> targetDatas, ResultChunks chunks, String[] ignoreFields) throws Exception {
         if (sourceDatas.size() == 0 && targetDatas.size() == 0) {
             // 首先判断是否来源和目标同时为空
+            return;
+        }
+        if (sourceDatas.size() == 0) {
+            // 特殊情况A:source文件不存在,全部target均为新增数据;
+            for (Node targetData : targetDatas) {
+                chunks.less(targetData.getData());
+            }
+        } else if (targetDatas.size() == 0) {
+            // 特殊情况B:target文件不存在,全部source均为删除数据;
+            for (Node sourceData : sourceDatas) {
+                chunks.more(sourceData.getData());
+            }
         } else {
-            if (sourceDatas.size() == 0) {
-                // 特殊情况A:source文件不存在,全部target均为新增数据;
-                lessList.addAll(targetDatas.stream()
-                        .map(Node::getData)
-                        .collect(Collectors.toList()));
-            } else if (targetDatas.size() == 0) {
-                // 特殊情况B:target文件不存在,全部source均为删除数据;
-                moreList.addAll(sourceDatas.stream()
-                        .map(Node::getData)
-                        .collect(Collectors.toList()));
-            } else {
-                // 正常比较差异,首先加载目标数据,并按照hash分组
-                Map<Integer, List<Node>> targetDatasGroupByHash = targetDatas.stream()
-                        .collect(Collectors.groupingBy(Node::hash));
-                // 依次遍历来源数据,逐个比较结果
-                for (Node sourceData : sourceDatas) {
-                    if (sourceData != null) {
-                        // 若目标桶中包含该数据的hash
-                        if (targetDatasGroupByHash.containsKey(sourceData.hash())) {
-                            // 包含hash则依次比较唯一键的值是否一致
-                            String sourceKeyValues = String.join("", sourceData.keyValues());
-                            String sourceValues = String.join("", sourceData.values(ignoreFields));
-                            // 根据hash值从目标Map中查询数据
-                            List<Node> targetNodes = targetDatasGroupByHash.get(sourceData.hash());
-                            // 迭代器循环比较
-                            Iterator<Node> targetNodeIterator = targetNodes.iterator();
-                            while (targetNodeIterator.hasNext()) {
-                                Node targetNode = targetNodeIterator.next();
-                                String targetKeyValues = String.join("", targetNode.keyValues());
-                                if (sourceKeyValues.equals(targetKeyValues)) {
-                                    // 找到相同数据,判断是否需要更新
-                                    String targetValues = String.join("", targetNode.values(ignoreFields));
-                                    if (!sourceValues.equals(targetValues)) {
-                                        diffList.add(sourceData.getData());
-                                    }
-                                    targetNodeIterator.remove();
+            // 正常比较差异,首先将目标数据按照唯一键hash排序
+            Node[] targetNodes = targetDatas.toArray(new Node[0]);
+            Arrays.sort(targetNodes, Comparator.comparingLong(Node::getKeyHash));
+            long[] targetHashes = new long[targetNodes.length];
+            for (int i = 0; i < targetNodes.length; i++) {
+                targetHashes[i] = targetNodes[i].getKeyHash();
+            }
+            // 已匹配的目标数据
+            boolean[] matched = new boolean[targetNodes.length];
+            // 依次遍历来源数据,逐个比较结果
+            for (Node sourceData : sourceDatas) {
+                if (sourceData != null) {
+                    boolean found = false;
+                    int index = Arrays.binarySearch(targetHashes, sourceData.getKeyHash());
+                    if (index >= 0) {
+                        // 定位到第一个hash相同的目标数据
+                        while (index > 0 && targetHashes[index - 1] == sourceData.getKeyHash()) {
+                            index--;
+                        }
+                        // 包含hash则依次比较唯一键是否一致,目标数据唯一键重复时每条不一致的目标数据各输出一条差异数据
+                        for (; index < targetHashes.length && targetHashes[index] == sourceData.getKeyHash(); index++) {
+                            if (!matched[index] && sourceData.sameKey(targetNodes[index])) {
+                                // 找到相同数据,判断是否需要更新
+                                if (!sourceData.sameValues(targetNodes[index], ignoreFields)) {
+                                    chunks.diff(new ChangedRow(sourceData, sourceData.changedColumns(targetNodes[index], ignoreFields)));
                                 }
+                                matched[index] = true;
+                                found = true;
                             }
-                            // 若移除后链表的长度为0,则移除该key
-                            if (targetNodes.size() == 0) {
-                                targetDatasGroupByHash.remove(sourceData.hash());
-                            }
-                        } else {
-                            // 目标桶中不存在,需要插入
-                            moreList.add(sourceData.getData());
                         }
                     }
+                    if (!found) {
+                        // 目标桶中不存在,需要插入
+                        chunks.more(sourceData.getData());
+                    }
+                }
+            }
+            // target中剩余的数据为删除数据
+            for (int i = 0; i < targetNodes.length; i++) {
+                if (!matched[i]) {
+                    chunks.less(targetNodes[i].getData());
                 }
-                // target中剩余的数据为删除数据
-                lessList.addAll(targetDatasGroupByHash.values().stream()
-                        .flatMap(Collection::stream)
-                        .map(Node::getData)
-                        .collect(Collectors.toList()));
             }
         }
-        // 封装对象返回
-        Map<String, List<Map<String, Object>>> compareResult = new HashMap<>(3);
-        compareResult.put("MORE", moreList);
-        compareResult.put("DIFF", diffList);
-        compareResult.put("LESS", lessList);
-        return compareResult;
     }
 
     /**
@@ -275,6 +811,60 @@ public class DiffUtils {
         TARGET
     }
 
+    /**
+     * 差分结果类型枚举
+     */
+    public enum ResultType {
+        // source->target多出数据
+        MORE,
+        // source->target差异数据
+        DIFF,
+        // source->target缺少数据
+        LESS
+    }
+
+    /**
+     * 差分结果输出端,比较过程中按批接收结果
+     */
+    @FunctionalInterface
+    public interface DiffSink {
+
+        /**
+         * 处理一批差分结果,批大小不超过basic-service.diff.result-chunk-size
+         *
+         * @param resultType 差分结果类型
+         * @param datas      差分结果数据
+         * @throws Exception 处理结果异常
+         */
+        void accept(ResultType resultType, List<Map<String, Object>> datas) throws Exception;
+
+        /**
+         * 将多余、差异、缺少数据处理函数组合为输出端
+         *
+         * @param moreOp 差分后的多余数据操作
+         * @param diffOp 差分后的差异数据操作
+         * @param lessOp 差分后的缺少操作
+         * @return 差分结果输出端
+         */
+        static DiffSink of(MoreOp moreOp, DiffOp diffOp, LessOp lessOp) {
+            return (resultType, datas) -> {
+                switch (resultType) {
+                    case MORE:
+                        moreOp.moreDataHandler(datas);
+                        break;
+                    case DIFF:
+                        diffOp.diffDataHandler(datas);
+                        break;
+                    case LESS:
+                        lessOp.lessDataHandler(datas);
+                        break;
+                    default:
+                        break;
+                }
+            };
+        }
+    }
+
     /**
      * source->target多出数据处理函数
      */
@@ -298,7 +888,7 @@ public class DiffUtils {
         /**
          * source->target差异数据处理函数
          *
-         * @param diffDataList source->target差异数据
+         * @param diffDataList source->target差异数据,均为{@link ChangedRow}
          */
         void diffDataHandler(List<Map<String, Object>> diffDataList);
     }
@@ -362,11 +952,11 @@ public class DiffUtils {
     }
 
     /**
-     * 数据节点对象
+     * 数据节点对象,字段按任务字段结构的列下标存储
      */
     @Data
     @NoArgsConstructor
-    private static class Node implements Serializable {
+    public static class Node implements Serializable {
 
         /**
          * 差分任务ID
@@ -379,59 +969,242 @@ public class DiffUtils {
         private DataType dataType;
 
         /**
-         * 唯一键
+         * 任务字段结构
+         */
+        private DiffSchema schema;
+
+        /**
+         * 按列下标存储的字段值,数据中不存在的字段为{@link Absent#INSTANCE}
          */
-        private Collection<String> keys;
+        private Object[] values;
 
         /**
-         * 原始数据
+         * 唯一键的64位hash值
          */
-        private Map<String, Object> data;
+        private long keyHash;
 
         /**
-         * 构造方法
+         * 唯一键的规范化字节表示
+         */
+        private byte[] keyBytes;
+
+        /**
+         * 数据摘要(128位)低64位
+         */
+        private long valueDigestLow;
+
+        /**
+         * 数据摘要(128位)高64位
+         */
+        private long valueDigestHigh;
+
+        /**
+         * 计算数据摘要时忽略的字段(已排序去重)
+         */
+        private String[] ignoreFields;
+
+        /**
+         * 构造方法,同时计算唯一键hash与数据摘要
          *
-         * @param taskId   差分任务ID
-         * @param dataType 差分数据类型
-         * @param keys     唯一键
-         * @param data     原始数据
+         * @param taskId       差分任务ID
+         * @param dataType     差分数据类型
+         * @param schema       任务字段结构
+         * @param sortedKeys   唯一键(已排序去重)
+         * @param data         原始数据
+         * @param ignoreFields 计算数据摘要时忽略的字段(已排序去重)
          */
-        public Node(String taskId, DataType dataType, Collection<String> keys, Map<String, Object> data) {
+        public Node(String taskId, DataType dataType, DiffSchema schema, String[] sortedKeys, Map<String, Object> data, String[] ignoreFields) {
             this.taskId = taskId;
             this.dataType = dataType;
-            // 仅使用存在于数据中的keys
-            this.keys = keys.stream()
-                    .distinct()
-                    .filter(data::containsKey)
-                    .collect(Collectors.toList());
-            this.data = data;
+            this.schema = schema;
+            this.ignoreFields = ignoreFields;
+            // 字段名映射为列下标后按列存储
+            int[] columns = new int[data.size()];
+            Object[] columnValues = new Object[data.size()];
+            int count = 0;
+            int width = 0;
+            for (Map.Entry<String, Object> entry : data.entrySet()) {
+                columns[count] = schema.intern(entry.getKey());
+                columnValues[count] = entry.getValue();
+                width = Math.max(width, columns[count] + 1);
+                count++;
+            }
+            this.values = emptyValues(width);
+            for (int i = 0; i < count; i++) {
+                this.values[columns[i]] = columnValues[i];
+            }
+            // 预先计算唯一键及数据摘要,仅使用存在于数据中的keys
+            CanonicalWriter writer = CanonicalWriter.get();
+            for (String key : sortedKeys) {
+                int index = schema.indexOf(key);
+                if (isPresent(index)) {
+                    writer.writeString(key);
+                    writer.writeString(Objects.toString(values[index], NULL_MARK));
+                }
+            }
+            this.keyBytes = writer.toByteArray();
+            this.keyHash = HashUtils.hash64(keyBytes, 0, keyBytes.length);
+            long[] digest = digest(writer, ignoreFields);
+            this.valueDigestLow = digest[0];
+            this.valueDigestHigh = digest[1];
         }
 
         /**
-         * 查询全部可用key对应的values,NULL值用'@NULL@'代替
+         * 规范化忽略字段(排序去重),便于与预先计算摘要时使用的忽略字段比较
          *
-         * @param ignoreFields 需要忽略处理的字段
-         * @return values值
+         * @param ignoreFields 忽略字段
+         * @return 规范化后的忽略字段
          */
-        public List<String> values(String... ignoreFields) {
-            // 按照统一的方式对key排序以保证value的顺序
-            return data.keySet().stream()
+        public static String[] normalizeIgnoreFields(String... ignoreFields) {
+            return ignoreFields == null ? new String[0] : Arrays.stream(ignoreFields)
+                    .filter(Objects::nonNull)
+                    .distinct()
                     .sorted()
-                    .filter(key -> !StringUtils.equalsAny(key, ignoreFields))
-                    .map(key -> Objects.toString(data.get(key), NULL_MARK))
-                    .collect(Collectors.toList());
+                    .toArray(String[]::new);
         }
 
         /**
-         * 查询全部唯一键的对应value,NULL值用'@NULL@'代替
+         * 创建全部字段均不存在的字段值数组
          *
-         * @return 多个唯一键的value组合
+         * @param width 列数
+         * @return 字段值数组
          */
-        public List<String> keyValues() {
-            return keys.stream()
-                    .sorted()
-                    .map(key -> Objects.toString(data.get(key), NULL_MARK))
-                    .collect(Collectors.toList());
+        static Object[] emptyValues(int width) {
+            Object[] values = new Object[width];
+            Arrays.fill(values, Absent.INSTANCE);
+            return values;
+        }
+
+        /**
+         * 判断列是否存在于数据中
+         *
+         * @param index 列下标
+         * @return 是否存在
+         */
+        boolean isPresent(int index) {
+            return index >= 0 && index < values.length && values[index] != Absent.INSTANCE;
+        }
+
+        /**
+         * 获取原始数据的Map视图,仅在需要时创建
+         *
+         * @return 原始数据
+         */
+        public Map<String, Object> getData() {
+            return new RowView(this);
+        }
+
+        /**
+         * 判断唯一键是否一致
+         *
+         * @param other 另一数据节点
+         * @return 是否一致
+         */
+        public boolean sameKey(Node other) {
+            return keyHash == other.keyHash && Arrays.equals(keyBytes, other.keyBytes);
+        }
+
+        /**
+         * 判断数据是否一致,忽略字段与预先计算时一致则直接比较摘要,否则重新计算摘要
+         *
+         * @param other        另一数据节点
+         * @param ignoreFields 忽略字段(已排序去重)
+         * @return 是否一致
+         */
+        public boolean sameValues(Node other, String[] ignoreFields) {
+            if (Arrays.equals(this.ignoreFields, ignoreFields) && Arrays.equals(other.ignoreFields, ignoreFields)) {
+                return valueDigestLow == other.valueDigestLow && valueDigestHigh == other.valueDigestHigh;
+            }
+            long[] digest = digest(CanonicalWriter.get(), ignoreFields);
+            long[] otherDigest = other.digest(CanonicalWriter.get(), ignoreFields);
+            return digest[0] == otherDigest[0] && digest[1] == otherDigest[1];
+        }
+
+        /**
+         * 逐列比较与另一数据节点不一致的列,仅在摘要不一致时调用,比较各列的hash,规范化规则与摘要一致
+         *
+         * @param other        另一数据节点
+         * @param ignoreFields 忽略字段(已排序去重)
+         * @return 不一致的列下标
+         */
+        int[] changedColumns(Node other, String[] ignoreFields) {
+            int width = Math.max(values.length, other.values.length);
+            long[] hashes = columnHashes();
+            long[] otherHashes = other.columnHashes();
+            int[] columns = new int[width];
+            int count = 0;
+            for (int i = 0; i < width; i++) {
+                if (Arrays.binarySearch(ignoreFields, schema.nameOf(i)) >= 0) {
+                    continue;
+                }
+                if (isPresent(i) != other.isPresent(i) || isPresent(i) && hashes[i] != otherHashes[i]) {
+                    columns[count++] = i;
+                }
+            }
+            return Arrays.copyOf(columns, count);
+        }
+
+        /**
+         * 与快照中保存的各列hash比较不一致的列,快照中有而本节点中没有的列也视为变更
+         *
+         * @param previousHashes 快照中的字段名 -> 列hash,不含忽略字段
+         * @param ignoreFields   忽略字段(已排序去重)
+         * @return 不一致的列下标
+         */
+        int[] changedColumns(Map<String, Long> previousHashes, String[] ignoreFields) {
+            long[] hashes = columnHashes();
+            Set<Integer> columns = new TreeSet<>();
+            for (int i = 0; i < values.length; i++) {
+                if (isPresent(i) && Arrays.binarySearch(ignoreFields, schema.nameOf(i)) < 0) {
+                    Long previousHash = previousHashes.get(schema.nameOf(i));
+                    if (previousHash == null || previousHash != hashes[i]) {
+                        columns.add(i);
+                    }
+                }
+            }
+            for (String name : previousHashes.keySet()) {
+                if (!isPresent(schema.indexOf(name))) {
+                    columns.add(schema.intern(name));
+                }
+            }
+            return columns.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        /**
+         * 计算各列字段值的64位hash,规范化规则与数据摘要一致;只在摘要不一致时按需计算,不常驻内存
+         *
+         * @return 按列下标存储的hash,不存在的列为0
+         */
+        long[] columnHashes() {
+            long[] hashes = new long[values.length];
+            CanonicalWriter writer = CanonicalWriter.get();
+            for (int i = 0; i < values.length; i++) {
+                if (isPresent(i)) {
+                    writer.reset();
+                    writer.writeString(Objects.toString(values[i], NULL_MARK));
+                    hashes[i] = HashUtils.hash64(writer.buffer, 0, writer.size);
+                }
+            }
+            return hashes;
+        }
+
+        /**
+         * 计算数据摘要
+         *
+         * @param writer       规范化字节写入器
+         * @param ignoreFields 忽略字段(已排序)
+         * @return 128位数据摘要
+         */
+        private long[] digest(CanonicalWriter writer, String[] ignoreFields) {
+            writer.reset();
+            // 按照字段名排序以保证value的顺序
+            for (int index : schema.sortedColumns(ignoreFields)) {
+                if (isPresent(index)) {
+                    writer.writeString(schema.nameOf(index));
+                    writer.writeString(Objects.toString(values[index], NULL_MARK));
+                }
+            }
+            return HashUtils.hash128(writer.buffer, 0, writer.size);
         }
 
         /**
@@ -440,7 +1213,411 @@ public class DiffUtils {
          * @return hash值
          */
         public int hash() {
-            return Objects.hash(keyValues().toArray());
+            return Long.hashCode(keyHash);
+        }
+
+        /**
+         * 数据中不存在的字段占位符
+         */
+        enum Absent {
+            INSTANCE
+        }
+    }
+
+    /**
+     * 数据节点的Map视图,读写直接作用于节点的字段值数组
+     */
+    static class RowView extends AbstractMap<String, Object> {
+
+        /**
+         * 数据节点
+         */
+        final Node node;
+
+        RowView(Node node) {
+            this.node = node;
+        }
+
+        @Override
+        public Object get(Object key) {
+            int index = node.schema.indexOf(key);
+            return node.isPresent(index) ? node.values[index] : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return node.isPresent(node.schema.indexOf(key));
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            int index = node.schema.intern(key);
+            if (index >= node.values.length) {
+                Object[] values = Node.emptyValues(node.schema.size());
+                System.arraycopy(node.values, 0, values, 0, node.values.length);
+                node.values = values;
+            }
+            Object oldValue = node.isPresent(index) ? node.values[index] : null;
+            node.values[index] = value;
+            return oldValue;
+        }
+
+        @Override
+        public Object remove(Object key) {
+            int index = node.schema.indexOf(key);
+            if (!node.isPresent(index)) {
+                return null;
+            }
+            Object oldValue = node.values[index];
+            node.values[index] = Node.Absent.INSTANCE;
+            return oldValue;
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new Iterator<Entry<String, Object>>() {
+                        private int next = advance(0);
+                        private int last = -1;
+
+                        private int advance(int from) {
+                            while (from < node.values.length && !node.isPresent(from)) {
+                                from++;
+                            }
+                            return from;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < node.values.length;
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            int index = last = next;
+                            next = advance(next + 1);
+                            return new SimpleEntry<String, Object>(node.schema.nameOf(index), node.values[index]) {
+                                @Override
+                                public Object setValue(Object value) {
+                                    node.values[index] = value;
+                                    return super.setValue(value);
+                                }
+                            };
+                        }
+
+                        @Override
+                        public void remove() {
+                            if (last < 0) {
+                                throw new IllegalStateException();
+                            }
+                            node.values[last] = Node.Absent.INSTANCE;
+                            last = -1;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    int size = 0;
+                    for (int i = 0; i < node.values.length; i++) {
+                        if (node.isPresent(i)) {
+                            size++;
+                        }
+                    }
+                    return size;
+                }
+            };
+        }
+    }
+
+    /**
+     * 差异数据,在source数据视图的基础上记录与target不一致的字段,
+     * 可配合{@link SQLUtils#getUpdateSQL(String, Map, Collection, String...)}只更新变更的字段
+     */
+    public static class ChangedRow extends RowView {
+
+        /**
+         * 不一致的列下标
+         */
+        private final int[] changedColumns;
+
+        ChangedRow(Node node, int[] changedColumns) {
+            super(node);
+            this.changedColumns = changedColumns;
+        }
+
+        /**
+         * 与target不一致的字段,target中不存在的字段也视为变更
+         *
+         * @return 变更字段
+         */
+        public Set<String> getChangedFields() {
+            Set<String> changedFields = new LinkedHashSet<>(changedColumns.length * 2);
+            for (int column : changedColumns) {
+                changedFields.add(node.schema.nameOf(column));
+            }
+            return changedFields;
+        }
+    }
+
+    /**
+     * 差分任务状态
+     */
+    private static class TaskState {
+
+        /**
+         * 任务字段结构
+         */
+        private final DiffSchema schema = new DiffSchema();
+
+        /**
+         * 已写入的来源数据条数
+         */
+        private final LongAdder sourceRows = new LongAdder();
+
+        /**
+         * 已写入的目标数据条数
+         */
+        private final LongAdder targetRows = new LongAdder();
+    }
+
+    /**
+     * 单个桶的差分任务,数据量超过拆分阈值时按子hash拆分为多个子任务
+     */
+    private class BucketTask extends RecursiveAction {
+
+        private final String taskId;
+        private final int bucketNum;
+        private final int buckets;
+        private final DiffSink diffSink;
+        private final ReadFromBucketOp readFromBucketOp;
+        private final String[] ignoreFields;
+        private final Queue<String> errors;
+
+        BucketTask(String taskId, int bucketNum, int buckets, DiffSink diffSink, ReadFromBucketOp readFromBucketOp, String[] ignoreFields, Queue<String> errors) {
+            this.taskId = taskId;
+            this.bucketNum = bucketNum;
+            this.buckets = buckets;
+            this.diffSink = diffSink;
+            this.readFromBucketOp = readFromBucketOp;
+            this.ignoreFields = ignoreFields;
+            this.errors = errors;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                // 查询需要比较的数据
+                // 分别读取桶中数据,桶由编号同余的存储分片组成
+                List<Node> sourceDatas = new ArrayList<>();
+                List<Node> targetDatas = new ArrayList<>();
+                for (int slot = bucketNum; slot < slots; slot += buckets) {
+                    sourceDatas.addAll(readFromBucketOp.readFromBucket(taskId, DataType.SOURCE, slot));
+                    targetDatas.addAll(readFromBucketOp.readFromBucket(taskId, DataType.TARGET, slot));
+                }
+                int size = sourceDatas.size() + targetDatas.size();
+                if (size <= SPLIT_THRESHOLD) {
+                    new CompareTask(taskId, bucketNum, sourceDatas, targetDatas, diffSink, ignoreFields, errors).compute();
+                    return;
+                }
+                // 数据倾斜的桶按子hash拆分,相同唯一键一定落在同一子任务中
+                int subBuckets = (int) Math.min((size + (long) SPLIT_THRESHOLD - 1) / Math.max(SPLIT_THRESHOLD, 1), 1024);
+                List<List<Node>> subSources = split(sourceDatas, subBuckets);
+                List<List<Node>> subTargets = split(targetDatas, subBuckets);
+                log.info("任务Id:{},{}号桶数据{}条,拆分为{}个子任务", taskId, bucketNum, size, subBuckets);
+                List<CompareTask> compareTasks = new ArrayList<>(subBuckets);
+                for (int i = 0; i < subBuckets; i++) {
+                    compareTasks.add(new CompareTask(taskId, bucketNum, subSources.get(i), subTargets.get(i), diffSink, ignoreFields, errors));
+                }
+                invokeAll(compareTasks);
+            } catch (Exception e) {
+                log.error("任务ID:" + taskId + ",桶编号:" + bucketNum + "差异比较时发生异常", e);
+                errors.add(String.format("%s号桶:%s", bucketNum, e));
+            }
+        }
+
+        /**
+         * 按子hash拆分数据,使用与分桶不同的hash位
+         *
+         * @param nodes      数据
+         * @param subBuckets 子桶数量
+         * @return 各子桶数据
+         */
+        private List<List<Node>> split(List<Node> nodes, int subBuckets) {
+            List<List<Node>> result = new ArrayList<>(subBuckets);
+            for (int i = 0; i < subBuckets; i++) {
+                result.add(new ArrayList<>());
+            }
+            for (Node node : nodes) {
+                long subHash = Long.rotateLeft(node.getKeyHash(), 32) * 0x9E3779B97F4A7C15L;
+                result.get((int) Math.floorMod(subHash >>> 1, (long) subBuckets)).add(node);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * 比较一组数据并按批输出结果
+     */
+    private class CompareTask extends RecursiveAction {
+
+        private final String taskId;
+        private final int bucketNum;
+        private final List<Node> sourceDatas;
+        private final List<Node> targetDatas;
+        private final DiffSink diffSink;
+        private final String[] ignoreFields;
+        private final Queue<String> errors;
+
+        CompareTask(String taskId, int bucketNum, List<Node> sourceDatas, List<Node> targetDatas, DiffSink diffSink, String[] ignoreFields, Queue<String> errors) {
+            this.taskId = taskId;
+            this.bucketNum = bucketNum;
+            this.sourceDatas = sourceDatas;
+            this.targetDatas = targetDatas;
+            this.diffSink = diffSink;
+            this.ignoreFields = ignoreFields;
+            this.errors = errors;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                // 差分比较,结果按批输出
+                ResultChunks chunks = new ResultChunks(diffSink, RESULT_CHUNK_SIZE);
+                compareBucket(sourceDatas, targetDatas, chunks, ignoreFields);
+                chunks.flush();
+                log.info("任务Id:{},{}号桶,source较target比较结果,多出:{},差异:{},缺失:{}", taskId, bucketNum, chunks.moreCount, chunks.diffCount, chunks.lessCount);
+            } catch (Exception e) {
+                log.error("任务ID:" + taskId + ",桶编号:" + bucketNum + "差异比较时发生异常", e);
+                errors.add(String.format("%s号桶:%s", bucketNum, e));
+            }
+        }
+    }
+
+    /**
+     * 差分结果分批输出,每类结果积累到指定条数后交给输出端
+     */
+    private static class ResultChunks {
+
+        private final DiffSink diffSink;
+        private final int chunkSize;
+        private List<Map<String, Object>> moreList = new ArrayList<>();
+        private List<Map<String, Object>> diffList = new ArrayList<>();
+        private List<Map<String, Object>> lessList = new ArrayList<>();
+        private long moreCount;
+        private long diffCount;
+        private long lessCount;
+
+        ResultChunks(DiffSink diffSink, int chunkSize) {
+            this.diffSink = diffSink;
+            this.chunkSize = Math.max(chunkSize, 1);
+        }
+
+        void more(Map<String, Object> data) throws Exception {
+            moreList.add(data);
+            moreCount++;
+            if (moreList.size() >= chunkSize) {
+                diffSink.accept(ResultType.MORE, moreList);
+                moreList = new ArrayList<>();
+            }
+        }
+
+        void diff(Map<String, Object> data) throws Exception {
+            diffList.add(data);
+            diffCount++;
+            if (diffList.size() >= chunkSize) {
+                diffSink.accept(ResultType.DIFF, diffList);
+                diffList = new ArrayList<>();
+            }
+        }
+
+        void less(Map<String, Object> data) throws Exception {
+            lessList.add(data);
+            lessCount++;
+            if (lessList.size() >= chunkSize) {
+                diffSink.accept(ResultType.LESS, lessList);
+                lessList = new ArrayList<>();
+            }
+        }
+
+        void flush() throws Exception {
+            if (!moreList.isEmpty()) {
+                diffSink.accept(ResultType.MORE, moreList);
+                moreList = new ArrayList<>();
+            }
+            if (!diffList.isEmpty()) {
+                diffSink.accept(ResultType.DIFF, diffList);
+                diffList = new ArrayList<>();
+            }
+            if (!lessList.isEmpty()) {
+                diffSink.accept(ResultType.LESS, lessList);
+                lessList = new ArrayList<>();
+            }
+        }
+    }
+
+    /**
+     * 规范化字节写入器,线程内复用缓冲区,字符串以长度前缀+UTF-8写入
+     */
+    private static class CanonicalWriter {
+
+        /**
+         * 线程内复用的写入器
+         */
+        private static final ThreadLocal<CanonicalWriter> WRITERS = ThreadLocal.withInitial(CanonicalWriter::new);
+
+        /**
+         * 缓冲区
+         */
+        private byte[] buffer = new byte[256];
+
+        /**
+         * 已写入长度
+         */
+        private int size;
+
+        /**
+         * 获取当前线程的写入器并清空
+         *
+         * @return 写入器
+         */
+        static CanonicalWriter get() {
+            CanonicalWriter writer = WRITERS.get();
+            writer.reset();
+            return writer;
+        }
+
+        void reset() {
+            size = 0;
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ensureCapacity(bytes.length + 5);
+            // 长度前缀,避免"a"+"bc"与"ab"+"c"混淆
+            int length = bytes.length;
+            while ((length & ~0x7F) != 0) {
+                buffer[size++] = (byte) ((length & 0x7F) | 0x80);
+                length >>>= 7;
+            }
+            buffer[size++] = (byte) length;
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
         }
     }
 }
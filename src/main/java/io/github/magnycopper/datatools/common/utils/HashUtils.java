@@ -0,0 +1,139 @@
+package io.github.magnycopper.datatools.common.utils;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: 哈希工具(MurmurHash3 x64 128位)
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-09-15 09:20
+ */
+public class HashUtils {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    /**
+     * 计算64位哈希值(128位哈希的低64位)
+     *
+     * @param bytes  数据
+     * @param offset 起始位置
+     * @param length 长度
+     * @return 64位哈希值
+     */
+    public static long hash64(byte[] bytes, int offset, int length) {
+        return hash128(bytes, offset, length)[0];
+    }
+
+    /**
+     * 计算128位哈希值
+     *
+     * @param bytes  数据
+     * @param offset 起始位置
+     * @param length 长度
+     * @return 128位哈希值,[0]为低64位,[1]为高64位
+     */
+    // 剩余字节按MurmurHash3的原始写法逐级贯穿处理
+    @SuppressWarnings("fallthrough")
+    public static long[] hash128(byte[] bytes, int offset, int length) {
+        long h1 = 0;
+        long h2 = 0;
+        int blocks = length >>> 4;
+        // 按16字节分块处理
+        for (int i = 0; i < blocks; i++) {
+            int index = offset + (i << 4);
+            long k1 = getLong(bytes, index);
+            long k2 = getLong(bytes, index + 8);
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+        // 处理剩余字节
+        int tail = offset + (blocks << 4);
+        long k1 = 0;
+        long k2 = 0;
+        switch (length & 15) {
+            case 15:
+                k2 ^= (long) (bytes[tail + 14] & 0xff) << 48;
+            case 14:
+                k2 ^= (long) (bytes[tail + 13] & 0xff) << 40;
+            case 13:
+                k2 ^= (long) (bytes[tail + 12] & 0xff) << 32;
+            case 12:
+                k2 ^= (long) (bytes[tail + 11] & 0xff) << 24;
+            case 11:
+                k2 ^= (long) (bytes[tail + 10] & 0xff) << 16;
+            case 10:
+                k2 ^= (long) (bytes[tail + 9] & 0xff) << 8;
+            case 9:
+                k2 ^= bytes[tail + 8] & 0xff;
+                h2 ^= mixK2(k2);
+            case 8:
+                k1 ^= (long) (bytes[tail + 7] & 0xff) << 56;
+            case 7:
+                k1 ^= (long) (bytes[tail + 6] & 0xff) << 48;
+            case 6:
+                k1 ^= (long) (bytes[tail + 5] & 0xff) << 40;
+            case 5:
+                k1 ^= (long) (bytes[tail + 4] & 0xff) << 32;
+            case 4:
+                k1 ^= (long) (bytes[tail + 3] & 0xff) << 24;
+            case 3:
+                k1 ^= (long) (bytes[tail + 2] & 0xff) << 16;
+            case 2:
+                k1 ^= (long) (bytes[tail + 1] & 0xff) << 8;
+            case 1:
+                k1 ^= bytes[tail] & 0xff;
+                h1 ^= mixK1(k1);
+            default:
+                break;
+        }
+        // 最终混合
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+        return new long[]{h1, h2};
+    }
+
+    private static long getLong(byte[] bytes, int index) {
+        return (bytes[index] & 0xffL)
+                | (bytes[index + 1] & 0xffL) << 8
+                | (bytes[index + 2] & 0xffL) << 16
+                | (bytes[index + 3] & 0xffL) << 24
+                | (bytes[index + 4] & 0xffL) << 32
+                | (bytes[index + 5] & 0xffL) << 40
+                | (bytes[index + 6] & 0xffL) << 48
+                | (bytes[index + 7] & 0xffL) << 56;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        return k1;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        return k2;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
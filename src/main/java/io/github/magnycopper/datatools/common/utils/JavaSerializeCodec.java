@@ -0,0 +1,109 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import java.io.*;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: Java序列化编解码器,编码结果为原始的Java序列化流(不写入头部),兼容历史数据;
+ * 反序列化时按{@link SerializeFilter#JAVA_FILTER}限制允许的类、嵌套深度及数组长度
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-09-29 15:25
+ */
+final class JavaSerializeCodec implements SerializeCodec {
+
+    /**
+     * 编解码器ID
+     */
+    static final byte ID = 0;
+    /**
+     * 编解码器名称
+     */
+    static final String NAME = "java";
+    /**
+     * Java序列化流的头部
+     */
+    static final short STREAM_MAGIC = ObjectStreamConstants.STREAM_MAGIC;
+
+    /**
+     * 设置反序列化过滤规则,优先于默认规则判断
+     *
+     * @param pattern 过滤规则,格式同jdk.serialFilter,为空时只按默认规则过滤
+     */
+    static void setInputFilter(String pattern) {
+        SerializeFilter.setCustomFilter(pattern);
+    }
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean supports(Object value) {
+        return value == null || value instanceof Serializable;
+    }
+
+    @Override
+    public void encode(DataOutput out, Object value) throws IOException {
+        if (out instanceof OutputStream) {
+            writeObject((OutputStream) out, value);
+        } else {
+            out.write(toBytes(value));
+        }
+    }
+
+    @Override
+    public Object decode(DataInput in) throws IOException {
+        if (!(in instanceof InputStream)) {
+            throw new IOException("Java序列化只支持从InputStream中解码");
+        }
+        return readObject((InputStream) in);
+    }
+
+    /**
+     * Java序列化
+     *
+     * @param value 对象
+     * @return 序列化结果
+     * @throws IOException 序列化异常
+     */
+    static byte[] toBytes(Object value) throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        writeObject(byteArrayOutputStream, value);
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    /**
+     * Java反序列化
+     *
+     * @param bytes 序列化结果
+     * @param <T>   对象类型
+     * @return 对象
+     * @throws IOException 反序列化异常
+     */
+    static <T> T fromBytes(byte[] bytes) throws IOException {
+        return readObject(new ByteArrayInputStream(bytes));
+    }
+
+    private static void writeObject(OutputStream out, Object value) throws IOException {
+        ObjectOutputStream objectOutputStream = new ObjectOutputStream(out);
+        objectOutputStream.writeObject(value);
+        objectOutputStream.flush();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T readObject(InputStream in) throws IOException {
+        ObjectInputStream objectInputStream = new ObjectInputStream(in);
+        objectInputStream.setObjectInputFilter(SerializeFilter.JAVA_FILTER);
+        try {
+            return (T) objectInputStream.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("反序列化失败,找不到类:" + e.getMessage(), e);
+        }
+    }
+}
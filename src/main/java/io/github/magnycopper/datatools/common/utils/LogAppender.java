@@ -0,0 +1,483 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: 单个日志文件的异步写入器,调用方写入无锁环形队列后立即返回,由写入线程合并后批量写入文件,并按大小或时间滚动分段
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-09-28 09:30
+ */
+@Slf4j
+class LogAppender implements Closeable {
+
+    /**
+     * 换行符
+     */
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+    /**
+     * 滚动失败后的重试间隔(毫秒)
+     */
+    private static final long ROLL_RETRY_MS = 1000;
+
+    /**
+     * 刷盘策略
+     */
+    enum FsyncPolicy {
+        // 不主动刷盘,由操作系统决定
+        NONE,
+        // 每次批量写入后刷盘
+        BATCH,
+        // 按写入间隔定时刷盘
+        INTERVAL
+    }
+
+    /**
+     * 日志文件路径
+     */
+    private final Path logFilePath;
+    /**
+     * 日志文件通道,仅在滚动分段时重新打开
+     */
+    private FileChannel channel;
+    /**
+     * 刷盘策略
+     */
+    private final FsyncPolicy fsyncPolicy;
+    /**
+     * 合并写入的时间间隔(纳秒),也是定时刷盘的间隔
+     */
+    private final long flushIntervalNanos;
+    /**
+     * 单个分段的最大字节数,不大于0时不按大小滚动
+     */
+    private final long segmentMaxBytes;
+    /**
+     * 单个分段的最长写入时间(毫秒),不大于0时不按时间滚动
+     */
+    private final long segmentMaxAgeMs;
+    /**
+     * 已滚动分段的压缩方式
+     */
+    private final LogSegments.Compression compression;
+    /**
+     * 写入缓冲区,积累满后立即写入
+     */
+    private final ByteBuffer batchBuffer;
+    /**
+     * 环形队列,每个元素为一次调用写入的全部日志,保证同一次调用的日志连续
+     */
+    private final String[][] slots;
+    /**
+     * 各槽位的序号,用于生产者与消费者之间同步槽位状态
+     */
+    private final AtomicLongArray sequences;
+    /**
+     * 环形队列容量掩码
+     */
+    private final int mask;
+    /**
+     * 下一个写入位置
+     */
+    private final AtomicLong enqueuePosition = new AtomicLong();
+    /**
+     * 已写入文件的位置
+     */
+    private final AtomicLong writtenPosition = new AtomicLong();
+    /**
+     * 写入线程
+     */
+    private final Thread writerThread;
+    /**
+     * 下一个读取位置,仅写入线程访问
+     */
+    private long dequeuePosition;
+    /**
+     * 当前分段序号,仅写入线程访问
+     */
+    private long segmentSeq;
+    /**
+     * 当前分段已写入的字节数,仅写入线程访问
+     */
+    private long segmentBytes;
+    /**
+     * 当前分段的开始时间(毫秒),仅写入线程访问
+     */
+    private long segmentFirstMillis;
+    /**
+     * 滚动失败后,下次尝试滚动的时间(毫秒),仅写入线程访问
+     */
+    private long rollRetryMillis;
+    /**
+     * 尚未报告给调用方的写入异常,写入失败的日志已回退到最后一个完整行
+     */
+    private final AtomicReference<IOException> failure = new AtomicReference<>();
+    /**
+     * 是否已关闭
+     */
+    private volatile boolean closed;
+    /**
+     * 等待刷新的位置,大于已写入位置时写入线程立即写入
+     */
+    private volatile long flushRequested = -1;
+
+    /**
+     * 构造方法
+     *
+     * @param logFilePath     日志文件路径
+     * @param capacity        环形队列容量(向上取2的幂),队列满时调用方等待
+     * @param batchBytes      单次合并写入的最大字节数
+     * @param flushIntervalMs 合并写入的最长等待时间(毫秒)
+     * @param fsyncPolicy     刷盘策略
+     * @param segmentMaxBytes 单个分段的最大字节数,不大于0时不按大小滚动
+     * @param segmentMaxAgeMs 单个分段的最长写入时间(毫秒),不大于0时不按时间滚动
+     * @param compression     已滚动分段的压缩方式
+     * @throws IOException 打开文件或读取分段索引异常
+     */
+    LogAppender(Path logFilePath, int capacity, int batchBytes, long flushIntervalMs, FsyncPolicy fsyncPolicy,
+                long segmentMaxBytes, long segmentMaxAgeMs, LogSegments.Compression compression) throws IOException {
+        this.logFilePath = logFilePath;
+        this.fsyncPolicy = fsyncPolicy;
+        this.segmentMaxBytes = segmentMaxBytes;
+        this.segmentMaxAgeMs = segmentMaxAgeMs;
+        this.compression = compression;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(flushIntervalMs, 1));
+        this.batchBuffer = ByteBuffer.allocateDirect(Math.max(batchBytes, 4096));
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        this.slots = new String[size][];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        Files.createDirectories(logFilePath.toAbsolutePath().getParent());
+        List<LogSegment> closedSegments = LogSegments.closedSegments(logFilePath);
+        this.segmentSeq = LogSegments.nextSeq(closedSegments);
+        this.segmentFirstMillis = LogSegments.activeFirstMillis(logFilePath, closedSegments);
+        this.channel = openChannel();
+        this.segmentBytes = channel.size();
+        if (compression == LogSegments.Compression.GZIP) {
+            LogSegments.compressPendingAsync(logFilePath);
+        }
+        this.writerThread = new Thread(this::writeLoop, "log-appender-" + logFilePath.getFileName());
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * 写入日志,仅放入环形队列,队列满时等待写入线程腾出空间
+     *
+     * @param logs 日志
+     */
+    void append(String[] logs) {
+        if (closed) {
+            throw new IllegalStateException("日志写入器已关闭:" + logFilePath);
+        }
+        while (true) {
+            long position = enqueuePosition.get();
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (enqueuePosition.compareAndSet(position, position + 1)) {
+                    slots[index] = logs == null ? new String[0] : logs;
+                    sequences.lazySet(index, position + 1);
+                    return;
+                }
+            } else if (difference < 0) {
+                // 队列已满,唤醒写入线程后等待
+                LockSupport.unpark(writerThread);
+                LockSupport.parkNanos(10_000);
+            }
+        }
+    }
+
+    /**
+     * 等待调用前写入的日志全部写入文件(按刷盘策略刷盘)
+     *
+     * @throws UncheckedIOException 此前有日志未能写入文件
+     */
+    void flush() {
+        awaitWritten();
+        checkFailure();
+    }
+
+    /**
+     * 等待调用前写入的日志全部写入文件,不报告写入异常
+     */
+    void awaitWritten() {
+        long target = enqueuePosition.get();
+        flushRequested = target;
+        while (writtenPosition.get() < target && writerThread.isAlive()) {
+            LockSupport.unpark(writerThread);
+            LockSupport.parkNanos(50_000);
+        }
+    }
+
+    /**
+     * 报告上次检查后发生的写入异常,每次异常只报告一次
+     *
+     * @throws UncheckedIOException 此前有日志未能写入文件
+     */
+    void checkFailure() {
+        IOException e = failure.getAndSet(null);
+        if (e != null) {
+            throw new UncheckedIOException("日志" + logFilePath + "有部分日志未能写入文件", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            closed = true;
+            LockSupport.unpark(writerThread);
+            try {
+                writerThread.join(TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos) + 1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            channel.close();
+        }
+    }
+
+    /**
+     * 写入线程:从队列中取出日志编码到缓冲区,缓冲区满或超过间隔时批量写入;
+     * 单条日志或单次写入的异常只记录日志,写入线程在关闭前不会退出,避免队列写满后写入方永久等待
+     */
+    private void writeLoop() {
+        long lastWriteNanos = System.nanoTime();
+        long lastFsyncNanos = lastWriteNanos;
+        while (true) {
+            boolean drained = false;
+            String[] logs;
+            while ((logs = poll()) != null) {
+                drained = true;
+                for (String text : logs) {
+                    try {
+                        encode(text);
+                    } catch (RuntimeException e) {
+                        log.error("日志" + logFilePath + "编码失败,已跳过", e);
+                    }
+                }
+            }
+            long now = System.nanoTime();
+            boolean pending = batchBuffer.position() > 0 || writtenPosition.get() < dequeuePosition;
+            boolean flushing = flushRequested > writtenPosition.get() || closed;
+            if (pending && (now - lastWriteNanos >= flushIntervalNanos || flushing)) {
+                try {
+                    writeBatch();
+                    // 定时刷盘时,显式刷新或关闭也立即刷盘
+                    if (fsyncPolicy == FsyncPolicy.BATCH || fsyncPolicy == FsyncPolicy.INTERVAL && (now - lastFsyncNanos >= flushIntervalNanos || flushing)) {
+                        force();
+                        lastFsyncNanos = now;
+                    }
+                } catch (RuntimeException e) {
+                    log.error("日志" + logFilePath + "记录失败", e);
+                    batchBuffer.clear();
+                }
+                // 写入失败的日志已记录异常,不再重试,避免等待刷新的调用方永久等待
+                writtenPosition.set(dequeuePosition);
+                lastWriteNanos = now;
+            } else if (!pending) {
+                lastWriteNanos = now;
+                if (closed) {
+                    return;
+                }
+            }
+            // 只在缓冲区为空时滚动,同一次合并写入的日志不会跨分段
+            if (batchBuffer.position() == 0 && rollDue()) {
+                try {
+                    roll();
+                } catch (RuntimeException e) {
+                    log.error("日志" + logFilePath + "滚动失败", e);
+                    rollRetryMillis = System.currentTimeMillis() + ROLL_RETRY_MS;
+                }
+            }
+            if (!drained) {
+                LockSupport.parkNanos(Math.min(flushIntervalNanos, 1_000_000));
+            }
+        }
+    }
+
+    /**
+     * 当前分段是否达到滚动条件
+     *
+     * @return 是否需要滚动
+     */
+    private boolean rollDue() {
+        if (segmentBytes <= 0) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (now < rollRetryMillis) {
+            return false;
+        }
+        return segmentMaxBytes > 0 && segmentBytes >= segmentMaxBytes
+                || segmentMaxAgeMs > 0 && now - segmentFirstMillis >= segmentMaxAgeMs;
+    }
+
+    /**
+     * 滚动分段:关闭当前文件并移入分段目录,重新打开新的日志文件,按需在后台压缩滚动后的分段
+     */
+    private void roll() {
+        long rollMillis = System.currentTimeMillis();
+        try {
+            channel.force(false);
+            channel.close();
+            LogSegment segment = LogSegments.roll(logFilePath, segmentSeq, segmentFirstMillis, rollMillis);
+            log.info("日志{}滚动为分段{}", logFilePath, segment.getFileName());
+            segmentSeq++;
+            segmentFirstMillis = rollMillis;
+            segmentBytes = 0;
+            if (compression == LogSegments.Compression.GZIP) {
+                LogSegments.compressAsync(logFilePath, segment);
+            }
+        } catch (IOException e) {
+            log.error("日志" + logFilePath + "滚动失败", e);
+            rollRetryMillis = rollMillis + ROLL_RETRY_MS;
+        } finally {
+            try {
+                if (!channel.isOpen()) {
+                    channel = openChannel();
+                    segmentBytes = channel.size();
+                }
+            } catch (IOException e) {
+                log.error("日志" + logFilePath + "打开失败", e);
+            }
+        }
+    }
+
+    /**
+     * 以追加方式打开日志文件
+     *
+     * @return 文件通道
+     * @throws IOException 打开文件异常
+     */
+    private FileChannel openChannel() throws IOException {
+        return FileChannel.open(logFilePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * 从环形队列中取出一次调用写入的日志
+     *
+     * @return 日志,队列为空时返回null
+     */
+    private String[] poll() {
+        int index = (int) dequeuePosition & mask;
+        if (sequences.get(index) != dequeuePosition + 1) {
+            return null;
+        }
+        String[] logs = slots[index];
+        slots[index] = null;
+        sequences.lazySet(index, dequeuePosition + mask + 1);
+        dequeuePosition++;
+        return logs;
+    }
+
+    /**
+     * 去除换行符后编码写入缓冲区,缓冲区不足时先写入文件,null写为"null"
+     *
+     * @param text 日志
+     */
+    private void encode(String text) {
+        byte[] bytes = stripLineBreaks(String.valueOf(text)).getBytes(StandardCharsets.UTF_8);
+        if (batchBuffer.remaining() < bytes.length + LINE_SEPARATOR.length) {
+            writeBatch();
+        }
+        if (batchBuffer.remaining() < bytes.length + LINE_SEPARATOR.length) {
+            // 超长日志直接写入
+            write(ByteBuffer.wrap(bytes), ByteBuffer.wrap(LINE_SEPARATOR));
+            return;
+        }
+        batchBuffer.put(bytes).put(LINE_SEPARATOR);
+    }
+
+    /**
+     * 逐字符去除换行符,不含换行符时直接返回原字符串
+     *
+     * @param text 日志
+     * @return 去除换行符后的日志
+     */
+    static String stripLineBreaks(String text) {
+        int length = text.length();
+        int first = 0;
+        while (first < length && text.charAt(first) != '\r' && text.charAt(first) != '\n') {
+            first++;
+        }
+        if (first == length) {
+            return text;
+        }
+        StringBuilder builder = new StringBuilder(length);
+        builder.append(text, 0, first);
+        for (int i = first + 1; i < length; i++) {
+            char c = text.charAt(i);
+            if (c != '\r' && c != '\n') {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 将缓冲区写入文件
+     */
+    private void writeBatch() {
+        batchBuffer.flip();
+        write(batchBuffer);
+        batchBuffer.clear();
+    }
+
+    /**
+     * 写入完整的若干行,写入失败时截断已写入的部分,文件始终以完整行结尾,异常在下次写入或刷新时报告给调用方
+     *
+     * @param buffers 以换行符结尾的内容
+     */
+    private void write(ByteBuffer... buffers) {
+        long lineEnd = segmentBytes;
+        try {
+            for (ByteBuffer buffer : buffers) {
+                while (buffer.hasRemaining()) {
+                    segmentBytes += channel.write(buffer);
+                }
+            }
+        } catch (IOException e) {
+            log.error("日志" + logFilePath + "记录失败", e);
+            try {
+                channel.truncate(lineEnd);
+                segmentBytes = lineEnd;
+            } catch (IOException truncateException) {
+                e.addSuppressed(truncateException);
+                log.error("日志" + logFilePath + "截断失败,文件末尾可能有不完整的行", truncateException);
+            }
+            IOException previous = failure.getAndSet(e);
+            if (previous != null) {
+                e.addSuppressed(previous);
+            }
+        }
+    }
+
+    private void force() {
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            log.error("日志" + logFilePath + "刷盘失败", e);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: 日志消费检查点,记录消费方已处理到的分段及位置,重启后从检查点继续读取
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-09-29 10:20
+ */
+@Data
+@NoArgsConstructor
+public class LogCheckpoint implements Serializable {
+
+    /**
+     * 消费方名称
+     */
+    private String consumer;
+
+    /**
+     * 已处理到的分段序号,尚未处理时为0
+     */
+    private long seq;
+
+    /**
+     * 分段内下一行的字节位置(未压缩时)
+     */
+    private long offset;
+
+    /**
+     * 已处理的日志总行数
+     */
+    private long line;
+
+    /**
+     * 检查点更新时间(毫秒)
+     */
+    private long updateMillis;
+}
@@ -0,0 +1,412 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: 日志文件分段读取,按行边界将文件切分为若干字节区间,各区间以内存映射方式并行解析
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-09-27 10:15
+ */
+final class LogFileReader {
+
+    /**
+     * 单个区间的目标字节数
+     */
+    static final long RANGE_BYTES = 32L * 1024 * 1024;
+    /**
+     * 查找行边界时的读取缓冲区大小
+     */
+    private static final int SCAN_BUFFER_SIZE = 8 * 1024;
+    /**
+     * 换行符
+     */
+    private static final byte LF = '\n';
+    /**
+     * 回车符
+     */
+    private static final byte CR = '\r';
+
+    private LogFileReader() {
+    }
+
+    /**
+     * 按行读取日志文件,读取文件在打开时的长度内的内容,
+     * 返回的流可并行处理,各区间在被消费时才映射及解析,使用完毕后需关闭以释放文件句柄
+     *
+     * @param logFilePath 日志文件路径
+     * @param rangeBytes  单个区间的目标字节数
+     * @param includeTail 是否读取末尾没有换行符的行,文件正在写入时末尾的行可能未写完,应为false
+     * @return 日志行流,顺序与文件一致
+     * @throws IOException 打开文件异常
+     */
+    static Stream<String> lines(Path logFilePath, long rangeBytes, boolean includeTail) throws IOException {
+        FileChannel channel = FileChannel.open(logFilePath, StandardOpenOption.READ);
+        try {
+            return ranges(channel, rangeBytes, includeTail)
+                    .parallelStream()
+                    .flatMap(range -> lines(channel, range[0], range[1]))
+                    .onClose(() -> {
+                        try {
+                            channel.close();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 按行边界切分文件
+     *
+     * @param channel     文件通道
+     * @param rangeBytes  单个区间的目标字节数
+     * @param includeTail 是否包含末尾没有换行符的行
+     * @return 字节区间[起始位置,结束位置),除包含的末尾行外每个区间以完整行结尾
+     * @throws IOException 读取异常
+     */
+    static List<long[]> ranges(FileChannel channel, long rangeBytes, boolean includeTail) throws IOException {
+        return ranges(channel, 0, rangeBytes, includeTail);
+    }
+
+    /**
+     * 从指定位置起按行边界切分文件
+     *
+     * @param channel     文件通道
+     * @param from        起始位置,需为行首
+     * @param rangeBytes  单个区间的目标字节数
+     * @param includeTail 是否包含末尾没有换行符的行
+     * @return 字节区间[起始位置,结束位置),除包含的末尾行外每个区间以完整行结尾
+     * @throws IOException 读取异常
+     */
+    static List<long[]> ranges(FileChannel channel, long from, long rangeBytes, boolean includeTail) throws IOException {
+        // 文件正在写入时只处理到最后一个换行符为止,避免读到并发写入中的半行
+        long end = includeTail ? channel.size() : lastLineEnd(channel, channel.size());
+        List<long[]> ranges = new ArrayList<>();
+        long start = from;
+        while (start < end) {
+            long rangeEnd = start + Math.max(rangeBytes, 1) >= end ? end : nextLineEnd(channel, start + Math.max(rangeBytes, 1), end);
+            ranges.add(new long[]{start, rangeEnd});
+            start = rangeEnd;
+        }
+        return ranges;
+    }
+
+    /**
+     * 映射字节区间并逐行解析
+     *
+     * @param channel 文件通道
+     * @param start   起始位置
+     * @param end     结束位置
+     * @return 区间内的日志行
+     */
+    static Stream<String> lines(FileChannel channel, long start, long end) {
+        Iterator<String> iterator = new MappedLines(channel, start, end);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * 从指定位置起顺序读取日志文件,按区间依次映射,读取文件在打开时的长度内的内容
+     *
+     * @param logFilePath 日志文件路径
+     * @param from        起始位置,需为行首
+     * @param includeTail 是否读取末尾没有换行符的行,文件正在写入时末尾的行可能未写完,应为false
+     * @return 可获取读取位置的行游标,使用完毕后需关闭
+     * @throws IOException 打开文件异常
+     */
+    static LineCursor cursor(Path logFilePath, long from, boolean includeTail) throws IOException {
+        FileChannel channel = FileChannel.open(logFilePath, StandardOpenOption.READ);
+        try {
+            Iterator<long[]> ranges = ranges(channel, from, RANGE_BYTES, includeTail).iterator();
+            return new LineCursor() {
+                private MappedLines current;
+                private long position = from;
+
+                @Override
+                public long position() {
+                    return current == null ? position : current.position();
+                }
+
+                @Override
+                public boolean hasNext() {
+                    while (current == null || !current.hasNext()) {
+                        if (!ranges.hasNext()) {
+                            return false;
+                        }
+                        long[] range = ranges.next();
+                        current = new MappedLines(channel, range[0], range[1]);
+                    }
+                    return true;
+                }
+
+                @Override
+                public String next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return current.next();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    channel.close();
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 从输入流中顺序读取日志,用于压缩分段,压缩分段不再写入,末尾没有换行符的行也读取
+     *
+     * @param in   输入流(解压后)
+     * @param from 起始位置(解压后),需为行首,之前的内容跳过
+     * @return 可获取读取位置的行游标,使用完毕后需关闭
+     * @throws IOException 读取异常
+     */
+    static LineCursor cursor(InputStream in, long from) throws IOException {
+        try {
+            long remaining = from;
+            while (remaining > 0) {
+                long skipped = in.skip(remaining);
+                if (skipped <= 0) {
+                    if (in.read() < 0) {
+                        throw new EOFException("日志读取位置超出文件长度:" + from);
+                    }
+                    skipped = 1;
+                }
+                remaining -= skipped;
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return new LineCursor() {
+            private final byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+            private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+            private int bufferPosition;
+            private int bufferLimit;
+            private long position = from;
+            private String next;
+
+            @Override
+            public long position() {
+                return position;
+            }
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    next = readLine();
+                }
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String line = next;
+                next = null;
+                return line;
+            }
+
+            /**
+             * 读取一行,流结束时返回末尾没有换行符的行
+             */
+            private String readLine() {
+                line.reset();
+                long consumed = 0;
+                while (true) {
+                    if (bufferPosition == bufferLimit) {
+                        try {
+                            bufferLimit = in.read(buffer);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException("读取日志失败", e);
+                        }
+                        bufferPosition = 0;
+                        if (bufferLimit < 0) {
+                            bufferLimit = 0;
+                            if (consumed == 0) {
+                                return null;
+                            }
+                            position += consumed;
+                            return toLine(line.toByteArray());
+                        }
+                    }
+                    int start = bufferPosition;
+                    while (bufferPosition < bufferLimit && buffer[bufferPosition] != LF) {
+                        bufferPosition++;
+                    }
+                    line.write(buffer, start, bufferPosition - start);
+                    consumed += bufferPosition - start;
+                    if (bufferPosition < bufferLimit) {
+                        bufferPosition++;
+                        position += consumed + 1;
+                        return toLine(line.toByteArray());
+                    }
+                }
+            }
+
+            private String toLine(byte[] bytes) {
+                // 兼容\r\n换行
+                int length = bytes.length > 0 && bytes[bytes.length - 1] == CR ? bytes.length - 1 : bytes.length;
+                return new String(bytes, 0, length, StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        };
+    }
+
+    /**
+     * 可获取读取位置的行游标
+     */
+    interface LineCursor extends Iterator<String>, Closeable {
+
+        /**
+         * 已返回的最后一行之后的位置,即下一行的行首
+         *
+         * @return 文件中的字节位置
+         */
+        long position();
+    }
+
+    /**
+     * 映射字节区间后逐行解析
+     */
+    private static final class MappedLines implements Iterator<String> {
+
+        /**
+         * 区间起始位置
+         */
+        private final long start;
+        /**
+         * 区间映射
+         */
+        private final MappedByteBuffer buffer;
+        /**
+         * 区间内下一行的行首
+         */
+        private int position;
+
+        MappedLines(FileChannel channel, long start, long end) {
+            this.start = start;
+            try {
+                this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            } catch (IOException e) {
+                throw new UncheckedIOException("映射日志文件区间失败", e);
+            }
+        }
+
+        long position() {
+            return start + position;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return position < buffer.limit();
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int lineEnd = position;
+            while (lineEnd < buffer.limit() && buffer.get(lineEnd) != LF) {
+                lineEnd++;
+            }
+            // 兼容\r\n换行
+            int contentEnd = lineEnd > position && buffer.get(lineEnd - 1) == CR ? lineEnd - 1 : lineEnd;
+            ByteBuffer line = buffer.duplicate();
+            line.position(position).limit(contentEnd);
+            // 末尾没有换行符的行之后的位置为区间结束位置
+            position = Math.min(lineEnd + 1, buffer.limit());
+            return StandardCharsets.UTF_8.decode(line).toString();
+        }
+    }
+
+    /**
+     * 查找指定位置之前最后一个换行符之后的位置
+     *
+     * @param channel 文件通道
+     * @param end     查找的结束位置
+     * @return 最后一个完整行的结束位置,不存在完整行时为0
+     * @throws IOException 读取异常
+     */
+    private static long lastLineEnd(FileChannel channel, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long position = end;
+        while (position > 0) {
+            long windowStart = Math.max(0, position - SCAN_BUFFER_SIZE);
+            buffer.clear().limit((int) (position - windowStart));
+            readFully(channel, buffer, windowStart);
+            for (int i = buffer.limit() - 1; i >= 0; i--) {
+                if (buffer.get(i) == LF) {
+                    return windowStart + i + 1;
+                }
+            }
+            position = windowStart;
+        }
+        return 0;
+    }
+
+    /**
+     * 查找指定位置(含)之后第一个换行符之后的位置
+     *
+     * @param channel 文件通道
+     * @param from    查找的起始位置
+     * @param end     查找的结束位置
+     * @return 行结束位置,不存在时为end
+     * @throws IOException 读取异常
+     */
+    private static long nextLineEnd(FileChannel channel, long from, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long position = from - 1;
+        while (position < end) {
+            buffer.clear().limit((int) Math.min(SCAN_BUFFER_SIZE, end - position));
+            readFully(channel, buffer, position);
+            for (int i = 0; i < buffer.limit(); i++) {
+                if (buffer.get(i) == LF) {
+                    return position + i + 1;
+                }
+            }
+            position += buffer.limit();
+        }
+        return end;
+    }
+
+    /**
+     * 从指定位置读满缓冲区
+     *
+     * @param channel  文件通道
+     * @param buffer   缓冲区
+     * @param position 起始位置
+     * @throws IOException 读取异常
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("日志文件被截断");
+            }
+        }
+    }
+}
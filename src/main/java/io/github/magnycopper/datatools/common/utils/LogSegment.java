@@ -0,0 +1,63 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: 日志分段信息,已滚动的分段记录在分段目录的索引文件中,正在写入的日志文件为最后一个分段
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-09-28 15:20
+ */
+@Data
+@NoArgsConstructor
+public class LogSegment implements Serializable {
+
+    /**
+     * 分段序号,从1开始递增
+     */
+    private long seq;
+
+    /**
+     * 分段文件名称(不含压缩后缀)
+     */
+    private String fileName;
+
+    /**
+     * 是否已压缩
+     */
+    private boolean compressed;
+
+    /**
+     * 分段的原始字节数
+     */
+    private long bytes;
+
+    /**
+     * 分段开始写入的时间(毫秒),不晚于分段中第一条日志的写入时间
+     */
+    private long firstMillis;
+
+    /**
+     * 分段结束写入的时间(毫秒),不早于分段中最后一条日志的写入时间
+     */
+    private long lastMillis;
+
+    /**
+     * 是否为正在写入的分段
+     */
+    private boolean active;
+
+    /**
+     * 分段写入时间是否与时间范围有交集
+     *
+     * @param fromMillis 开始时间(毫秒,含)
+     * @param toMillis   结束时间(毫秒,含)
+     * @return 是否有交集
+     */
+    public boolean overlaps(long fromMillis, long toMillis) {
+        return firstMillis <= toMillis && lastMillis >= fromMillis;
+    }
+}
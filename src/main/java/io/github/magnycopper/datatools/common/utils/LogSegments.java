@@ -0,0 +1,440 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: 日志分段管理,滚动后的分段保存在日志文件同级的分段目录中,索引文件按行追加分段信息(同一分段以最后一行为准),消费方检查点保存在同级的检查点目录中
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-09-28 15:40
+ */
+@Slf4j
+final class LogSegments {
+
+    /**
+     * 分段目录后缀
+     */
+    private static final String SEGMENTS_DIR_SUFFIX = ".segments";
+    /**
+     * 检查点目录后缀
+     */
+    private static final String CHECKPOINTS_DIR_SUFFIX = ".checkpoints";
+    /**
+     * 消费方名称格式,用作检查点文件名
+     */
+    private static final Pattern CONSUMER_PATTERN = Pattern.compile("[A-Za-z0-9._-]+");
+    /**
+     * 索引文件名称
+     */
+    private static final String INDEX_FILE_NAME = "index.jsonl";
+    /**
+     * 压缩分段后缀
+     */
+    private static final String GZIP_SUFFIX = ".gz";
+    /**
+     * 压缩及解压缓冲区大小
+     */
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+    /**
+     * 全局默认ObjectMapper
+     */
+    private static final ObjectMapper DEFAULT_OBJECT_MAPPER = JsonMapper.builder()
+            .build();
+    /**
+     * 分段压缩线程,压缩在后台顺序执行,不阻塞日志写入
+     */
+    private static final ExecutorService COMPRESSOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "log-segment-compressor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 已滚动分段的压缩方式
+     */
+    enum Compression {
+        // 不压缩
+        NONE,
+        // GZIP压缩
+        GZIP
+    }
+
+    private LogSegments() {
+    }
+
+    /**
+     * 分段目录
+     *
+     * @param logFilePath 日志路径
+     * @return 分段目录
+     */
+    static Path segmentsDir(Path logFilePath) {
+        return logFilePath.resolveSibling(logFilePath.getFileName() + SEGMENTS_DIR_SUFFIX);
+    }
+
+    /**
+     * 读取已滚动的分段,按序号排列
+     *
+     * @param logFilePath 日志路径
+     * @return 已滚动的分段
+     * @throws IOException 读取索引异常
+     */
+    static List<LogSegment> closedSegments(Path logFilePath) throws IOException {
+        Path indexPath = segmentsDir(logFilePath).resolve(INDEX_FILE_NAME);
+        if (!Files.exists(indexPath)) {
+            return new ArrayList<>();
+        }
+        Map<Long, LogSegment> segments = new TreeMap<>();
+        for (String line : Files.readAllLines(indexPath, StandardCharsets.UTF_8)) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            try {
+                LogSegment segment = DEFAULT_OBJECT_MAPPER.readValue(line, LogSegment.class);
+                segments.put(segment.getSeq(), segment);
+            } catch (IOException e) {
+                // 进程退出时可能留下未写完的行
+                log.warn("忽略无法解析的日志分段索引:{}", line);
+            }
+        }
+        return new ArrayList<>(segments.values());
+    }
+
+    /**
+     * 读取全部分段,正在写入的日志文件存在时作为最后一个分段
+     *
+     * @param logFilePath 日志路径
+     * @return 全部分段
+     * @throws IOException 读取索引异常
+     */
+    static List<LogSegment> segments(Path logFilePath) throws IOException {
+        List<LogSegment> segments = closedSegments(logFilePath);
+        if (Files.exists(logFilePath)) {
+            LogSegment active = new LogSegment();
+            active.setSeq(nextSeq(segments));
+            active.setFileName(logFilePath.getFileName().toString());
+            active.setBytes(Files.size(logFilePath));
+            active.setFirstMillis(activeFirstMillis(logFilePath, segments));
+            active.setLastMillis(Math.max(Files.getLastModifiedTime(logFilePath).toMillis(), active.getFirstMillis()));
+            active.setActive(true);
+            segments.add(active);
+        }
+        return segments;
+    }
+
+    /**
+     * 下一个分段序号
+     *
+     * @param closedSegments 已滚动的分段
+     * @return 分段序号
+     */
+    static long nextSeq(List<LogSegment> closedSegments) {
+        return closedSegments.isEmpty() ? 1 : closedSegments.get(closedSegments.size() - 1).getSeq() + 1;
+    }
+
+    /**
+     * 正在写入的分段的开始时间,为上一个分段的结束时间,不存在时为文件创建时间
+     *
+     * @param logFilePath    日志路径
+     * @param closedSegments 已滚动的分段
+     * @return 开始时间(毫秒)
+     * @throws IOException 读取文件属性异常
+     */
+    static long activeFirstMillis(Path logFilePath, List<LogSegment> closedSegments) throws IOException {
+        if (!closedSegments.isEmpty()) {
+            return closedSegments.get(closedSegments.size() - 1).getLastMillis();
+        }
+        if (!Files.exists(logFilePath)) {
+            return System.currentTimeMillis();
+        }
+        BasicFileAttributes attributes = Files.readAttributes(logFilePath, BasicFileAttributes.class);
+        return Math.min(attributes.creationTime().toMillis(), attributes.lastModifiedTime().toMillis());
+    }
+
+    /**
+     * 将正在写入的日志文件滚动为分段,调用前需关闭日志文件
+     *
+     * @param logFilePath 日志路径
+     * @param seq         分段序号
+     * @param firstMillis 分段开始时间(毫秒)
+     * @param lastMillis  分段结束时间(毫秒)
+     * @return 滚动后的分段
+     * @throws IOException 移动文件或写入索引异常
+     */
+    static LogSegment roll(Path logFilePath, long seq, long firstMillis, long lastMillis) throws IOException {
+        Path segmentsDir = segmentsDir(logFilePath);
+        Files.createDirectories(segmentsDir);
+        String baseName = logFilePath.getFileName().toString();
+        int extension = baseName.lastIndexOf('.');
+        LogSegment segment = new LogSegment();
+        segment.setSeq(seq);
+        segment.setFileName(String.format("%s-%020d%s", baseName.substring(0, extension), seq, baseName.substring(extension)));
+        segment.setBytes(Files.size(logFilePath));
+        segment.setFirstMillis(firstMillis);
+        segment.setLastMillis(lastMillis);
+        Files.move(logFilePath, segmentsDir.resolve(segment.getFileName()), StandardCopyOption.ATOMIC_MOVE);
+        appendIndex(logFilePath, segment);
+        return segment;
+    }
+
+    /**
+     * 后台压缩分段
+     *
+     * @param logFilePath 日志路径
+     * @param segment     已滚动的分段
+     */
+    static void compressAsync(Path logFilePath, LogSegment segment) {
+        COMPRESSOR.execute(() -> {
+            try {
+                compress(logFilePath, segment);
+            } catch (Exception e) {
+                log.error("日志分段" + segment.getFileName() + "压缩失败", e);
+            }
+        });
+    }
+
+    /**
+     * 后台压缩全部未压缩的分段,用于补全进程退出前未完成的压缩
+     *
+     * @param logFilePath 日志路径
+     */
+    static void compressPendingAsync(Path logFilePath) {
+        COMPRESSOR.execute(() -> {
+            try {
+                for (LogSegment segment : closedSegments(logFilePath)) {
+                    if (!segment.isCompressed()) {
+                        compress(logFilePath, segment);
+                    }
+                }
+            } catch (Exception e) {
+                log.error("日志" + logFilePath + "分段压缩失败", e);
+            }
+        });
+    }
+
+    /**
+     * 压缩分段:先写入临时文件,原子改名后更新索引,最后删除未压缩的分段
+     *
+     * @param logFilePath 日志路径
+     * @param segment     已滚动的分段
+     * @throws IOException 压缩异常
+     */
+    private static void compress(Path logFilePath, LogSegment segment) throws IOException {
+        Path segmentsDir = segmentsDir(logFilePath);
+        Path plainPath = segmentsDir.resolve(segment.getFileName());
+        Path gzipPath = segmentsDir.resolve(segment.getFileName() + GZIP_SUFFIX);
+        if (!Files.exists(gzipPath)) {
+            Path tmpPath = segmentsDir.resolve(gzipPath.getFileName() + ".tmp");
+            try (InputStream in = Files.newInputStream(plainPath);
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmpPath), GZIP_BUFFER_SIZE)) {
+                in.transferTo(out);
+            }
+            Files.move(tmpPath, gzipPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        segment.setCompressed(true);
+        appendIndex(logFilePath, segment);
+        Files.deleteIfExists(plainPath);
+        log.info("日志分段{}压缩完成", gzipPath);
+    }
+
+    /**
+     * 追加分段索引,滚动与压缩在不同线程中执行,追加需互斥
+     *
+     * @param logFilePath 日志路径
+     * @param segment     分段
+     * @throws IOException 写入异常
+     */
+    private static synchronized void appendIndex(Path logFilePath, LogSegment segment) throws IOException {
+        byte[] line = (DEFAULT_OBJECT_MAPPER.writeValueAsString(segment) + "\n").getBytes(StandardCharsets.UTF_8);
+        Files.write(segmentsDir(logFilePath).resolve(INDEX_FILE_NAME), line, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * 读取消费方的检查点
+     *
+     * @param logFilePath 日志路径
+     * @param consumer    消费方名称
+     * @return 检查点,不存在时为从头读取的检查点
+     * @throws IOException 读取异常
+     */
+    static LogCheckpoint readCheckpoint(Path logFilePath, String consumer) throws IOException {
+        Path checkpointPath = checkpointPath(logFilePath, consumer);
+        if (!Files.exists(checkpointPath)) {
+            LogCheckpoint checkpoint = new LogCheckpoint();
+            checkpoint.setConsumer(consumer);
+            return checkpoint;
+        }
+        return DEFAULT_OBJECT_MAPPER.readValue(checkpointPath.toFile(), LogCheckpoint.class);
+    }
+
+    /**
+     * 写入检查点:先写入临时文件并刷盘,再原子替换,进程异常退出时检查点不会损坏
+     *
+     * @param logFilePath 日志路径
+     * @param checkpoint  检查点
+     * @throws IOException 写入异常
+     */
+    static void writeCheckpoint(Path logFilePath, LogCheckpoint checkpoint) throws IOException {
+        Path checkpointPath = checkpointPath(logFilePath, checkpoint.getConsumer());
+        Files.createDirectories(checkpointPath.getParent());
+        Path tmpPath = checkpointPath.resolveSibling(checkpointPath.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(DEFAULT_OBJECT_MAPPER.writeValueAsBytes(checkpoint));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tmpPath, checkpointPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * 删除消费方的检查点
+     *
+     * @param logFilePath 日志路径
+     * @param consumer    消费方名称
+     * @throws IOException 删除异常
+     */
+    static void deleteCheckpoint(Path logFilePath, String consumer) throws IOException {
+        Files.deleteIfExists(checkpointPath(logFilePath, consumer));
+    }
+
+    /**
+     * 检查点文件路径
+     *
+     * @param logFilePath 日志路径
+     * @param consumer    消费方名称
+     * @return 检查点文件路径
+     */
+    private static Path checkpointPath(Path logFilePath, String consumer) {
+        if (consumer == null || !CONSUMER_PATTERN.matcher(consumer).matches()) {
+            throw new IllegalArgumentException(String.format("错误的消费方名称:%s,只能包含字母、数字、'.'、'_'及'-'.", consumer));
+        }
+        return logFilePath.resolveSibling(logFilePath.getFileName() + CHECKPOINTS_DIR_SUFFIX).resolve(consumer + ".json");
+    }
+
+    /**
+     * 分段文件路径,未压缩的分段在读取前可能已被压缩
+     *
+     * @param logFilePath 日志路径
+     * @param segment     分段
+     * @return 分段文件路径,压缩分段以.gz结尾
+     */
+    static Path resolve(Path logFilePath, LogSegment segment) {
+        if (segment.isActive()) {
+            return logFilePath;
+        }
+        Path plainPath = segmentsDir(logFilePath).resolve(segment.getFileName());
+        return !segment.isCompressed() && Files.exists(plainPath) ? plainPath : segmentsDir(logFilePath).resolve(segment.getFileName() + GZIP_SUFFIX);
+    }
+
+    /**
+     * 分段是否已写完:只有已滚动的分段读取末尾没有换行符的行;日志文件可能正被其他进程追加,末尾的行可能未写完,
+     * 不读取也不将检查点推进到该行之后
+     *
+     * @param segment 分段
+     * @return 是否已写完
+     */
+    static boolean isComplete(LogSegment segment) {
+        return !segment.isActive();
+    }
+
+    /**
+     * 是否为压缩分段文件
+     *
+     * @param segmentPath 分段文件路径
+     * @return 是否压缩
+     */
+    static boolean isCompressed(Path segmentPath) {
+        return segmentPath.getFileName().toString().endsWith(GZIP_SUFFIX);
+    }
+
+    /**
+     * 从指定位置起顺序读取分段
+     *
+     * @param logFilePath 日志路径
+     * @param segment     分段
+     * @param from        起始位置(未压缩时的字节位置),需为行首
+     * @return 可获取读取位置的行游标,使用完毕后需关闭
+     * @throws IOException 打开文件异常
+     */
+    static LogFileReader.LineCursor cursor(Path logFilePath, LogSegment segment, long from) throws IOException {
+        Path segmentPath = resolve(logFilePath, segment);
+        if (!isCompressed(segmentPath)) {
+            try {
+                return LogFileReader.cursor(segmentPath, from, isComplete(segment));
+            } catch (NoSuchFileException e) {
+                if (segment.isActive()) {
+                    throw e;
+                }
+                // 检查文件后分段被压缩
+                segmentPath = segmentsDir(logFilePath).resolve(segment.getFileName() + GZIP_SUFFIX);
+            }
+        }
+        InputStream in = Files.newInputStream(segmentPath);
+        try {
+            // 跳过已读部分仍需解压,代价不超过单个分段
+            return LogFileReader.cursor(new GZIPInputStream(in, GZIP_BUFFER_SIZE), from);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 按行读取分段,未压缩的分段按区间并行解析,压缩分段顺序解压
+     *
+     * @param logFilePath 日志路径
+     * @param segment     分段
+     * @return 日志行流,使用完毕后需关闭
+     * @throws IOException 打开文件异常
+     */
+    static Stream<String> lines(Path logFilePath, LogSegment segment) throws IOException {
+        Path segmentPath = resolve(logFilePath, segment);
+        if (!isCompressed(segmentPath)) {
+            try {
+                return LogFileReader.lines(segmentPath, LogFileReader.RANGE_BYTES, isComplete(segment));
+            } catch (NoSuchFileException e) {
+                if (segment.isActive()) {
+                    throw e;
+                }
+                // 检查文件后分段被压缩
+                segmentPath = segmentsDir(logFilePath).resolve(segment.getFileName() + GZIP_SUFFIX);
+            }
+        }
+        InputStream in = Files.newInputStream(segmentPath);
+        BufferedReader reader;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(in, GZIP_BUFFER_SIZE), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return reader.lines().onClose(() -> {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+}
@@ -5,16 +5,23 @@ import org.apache.commons.io.FilenameUtils;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import java.io.File;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * @program: Wind.BDG.PEVC.DataTools
@@ -30,26 +37,128 @@ public class LogUtils {
      * 默认日志保存路径
      */
     public static String LOG_DIR_PATH;
+    /**
+     * 异步写入的环形队列容量(每次调用占一个位置)
+     */
+    private static int APPENDER_CAPACITY = 8192;
+    /**
+     * 单次合并写入的最大字节数
+     */
+    private static int APPENDER_BATCH_BYTES = 256 * 1024;
+    /**
+     * 合并写入的最长等待时间(毫秒)
+     */
+    private static long APPENDER_FLUSH_INTERVAL_MS = 10;
+    /**
+     * 刷盘策略:NONE(由操作系统决定)、BATCH(每次合并写入后)、INTERVAL(按合并写入间隔)
+     */
+    private static LogAppender.FsyncPolicy APPENDER_FSYNC_POLICY = LogAppender.FsyncPolicy.NONE;
+    /**
+     * 单个日志分段的最大字节数,不大于0时不按大小滚动;默认不滚动,直接读取.logx文件的程序不受影响
+     */
+    private static long SEGMENT_MAX_BYTES = 0;
+    /**
+     * 单个日志分段的最长写入时间(毫秒),不大于0时不按时间滚动
+     */
+    private static long SEGMENT_MAX_AGE_MS = 0;
+    /**
+     * 已滚动日志分段的压缩方式:NONE、GZIP,默认不压缩
+     */
+    private static LogSegments.Compression SEGMENT_COMPRESSION = LogSegments.Compression.NONE;
+
+    /**
+     * 各日志文件的异步写入器
+     */
+    private static final Map<Path, LogAppender> APPENDERS = new ConcurrentHashMap<>();
+
+    static {
+        // 非Spring环境不会调用destroy,JVM退出时关闭全部写入器,避免队列中的日志丢失
+        Runtime.getRuntime().addShutdownHook(new Thread(LogUtils::closeAppenders, "log-appender-shutdown"));
+    }
 
     /**
-     * 日志写入方法
+     * 日志写入方法,日志放入异步写入器后立即返回,同一次调用的日志在文件中连续
      *
      * @param logFilePath 日志路径
      * @param logs        写入内容
+     * @throws UncheckedIOException 此前写入该文件的日志有部分未能写入文件(本次的日志已放入写入器)
      */
     private static void writeLogs(Path logFilePath, String... logs) {
-        // 对文件地址加锁
-        synchronized (logFilePath.toString().intern()) {
+        LogAppender appender;
+        try {
+            appender = APPENDERS.computeIfAbsent(logFilePath.toAbsolutePath().normalize(), path -> {
+                try {
+                    return new LogAppender(path, APPENDER_CAPACITY, APPENDER_BATCH_BYTES, APPENDER_FLUSH_INTERVAL_MS, APPENDER_FSYNC_POLICY,
+                            SEGMENT_MAX_BYTES, SEGMENT_MAX_AGE_MS, SEGMENT_COMPRESSION);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            appender.append(logs.clone());
+            log.debug("写入{}条日志,到{}", logs.length, logFilePath);
+        } catch (Exception e) {
+            log.error("日志" + logFilePath + "记录失败", e);
+            return;
+        }
+        appender.checkFailure();
+    }
+
+    /**
+     * 等待已写入的日志全部写入文件
+     *
+     * @throws UncheckedIOException 有日志未能写入文件
+     */
+    public static void flushLogs() {
+        UncheckedIOException failure = null;
+        for (LogAppender appender : APPENDERS.values()) {
+            try {
+                appender.flush();
+            } catch (UncheckedIOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * 读取前等待指定日志文件已写入的日志全部写入文件,写入异常留给写入方处理
+     *
+     * @param logFilePath 日志路径
+     */
+    private static void flushLogs(Path logFilePath) {
+        LogAppender appender = APPENDERS.get(logFilePath.toAbsolutePath().normalize());
+        if (appender != null) {
+            appender.awaitWritten();
+        }
+    }
+
+    /**
+     * 关闭全部异步写入器,未写入的日志写入文件
+     */
+    @PreDestroy
+    public void destroy() {
+        closeAppenders();
+    }
+
+    /**
+     * 关闭全部异步写入器,未写入的日志写入文件
+     */
+    private static void closeAppenders() {
+        for (Path path : new ArrayList<>(APPENDERS.keySet())) {
+            LogAppender appender = APPENDERS.remove(path);
+            if (appender == null) {
+                continue;
+            }
             try {
-                // 创建保存路径
-                Files.createDirectories(logFilePath.getParent());
-                // 写入日志数据(替换换行符)
-                Files.write(logFilePath, Arrays.stream(logs)
-                        .map(text -> text.replaceAll("[\\r\\n]", ""))
-                        .collect(Collectors.toList()), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
-                log.info("成功写入{}条日志,到{}", logs.length, logFilePath);
+                appender.close();
             } catch (Exception e) {
-                log.error("日志" + logFilePath + "记录失败", e);
+                log.error("日志" + path + "关闭失败", e);
             }
         }
     }
@@ -59,6 +168,7 @@ public class LogUtils {
      *
      * @param logFileName 日志名称
      * @param logs        需要写入的日志
+     * @throws UncheckedIOException 此前写入该文件的日志有部分未能写入文件
      */
     public static void writeLogs(String logFileName, String... logs) {
         writeLogs(Paths.get(LOG_DIR_PATH + File.separator + logFileName + ".logx"), logs);
@@ -69,6 +179,7 @@ public class LogUtils {
      *
      * @param logFileName 日志名称
      * @param logs        需要写入的日志
+     * @throws UncheckedIOException 此前写入该文件的日志有部分未能写入文件
      */
     public static void writeLogs(String logFileName, List<String> logs) {
         writeLogs(logFileName, logs.toArray(new String[]{}));
@@ -81,18 +192,11 @@ public class LogUtils {
      * @return 日志内容
      */
     private static List<String> readLogs(Path logFilePath) {
-        // 对文件地址加锁
-        synchronized (logFilePath.toString().intern()) {
-            try {
-                if (!"logx".equals(FilenameUtils.getExtension(logFilePath.toString()))) {
-                    throw new RuntimeException(String.format("错误的日志文件格式:%s,请检查文件拓展名.", FilenameUtils.getExtension(logFilePath.toString())));
-                }
-                log.info("开始从日志文件{},读取日志", logFilePath);
-                return Files.lines(logFilePath, StandardCharsets.UTF_8).parallel().collect(Collectors.toList());
-            } catch (Exception e) {
-                log.error("日志" + logFilePath + "读取失败", e);
-                return new ArrayList<>();
-            }
+        try (Stream<String> lines = streamLogs(logFilePath)) {
+            return lines.collect(Collectors.toList());
+        } catch (Exception e) {
+            log.error("日志" + logFilePath + "读取失败", e);
+            return new ArrayList<>();
         }
     }
 
@@ -106,8 +210,316 @@ public class LogUtils {
         return readLogs(Paths.get(logFilePath));
     }
 
+    /**
+     * 校验日志文件拓展名
+     *
+     * @param logFilePath 日志路径
+     */
+    private static void checkLogFile(Path logFilePath) {
+        if (!"logx".equals(FilenameUtils.getExtension(logFilePath.toString()))) {
+            throw new IllegalArgumentException(String.format("错误的日志文件格式:%s,请检查文件拓展名.", FilenameUtils.getExtension(logFilePath.toString())));
+        }
+    }
+
+    /**
+     * 以流的方式读取日志文件的全部分段,未压缩的文件按行边界切分为多个区间后以内存映射方式按需解析,不加锁也不会一次性载入整个文件
+     *
+     * @param logFilePath 日志路径
+     * @return 日志内容流(顺序与写入一致),使用完毕后需关闭
+     * @throws IOException 打开文件异常
+     */
+    private static Stream<String> streamLogs(Path logFilePath) throws IOException {
+        checkLogFile(logFilePath);
+        // 读取前先写入本进程尚未写入的日志
+        flushLogs(logFilePath);
+        log.info("开始从日志文件{},读取日志", logFilePath);
+        List<LogSegment> segments = LogSegments.segments(logFilePath);
+        if (segments.stream().allMatch(LogSegment::isActive)) {
+            // 未滚动过时直接并行读取日志文件
+            return LogFileReader.lines(logFilePath, LogFileReader.RANGE_BYTES, false);
+        }
+        return streamSegments(logFilePath, segments);
+    }
+
+    /**
+     * 依次读取多个分段,每个分段在被消费时才打开
+     *
+     * @param logFilePath 日志路径
+     * @param segments    分段
+     * @return 日志内容流,使用完毕后需关闭
+     */
+    private static Stream<String> streamSegments(Path logFilePath, List<LogSegment> segments) {
+        return segments.stream().flatMap(segment -> {
+            try {
+                return LogSegments.lines(logFilePath, segment);
+            } catch (IOException e) {
+                throw new UncheckedIOException("日志分段" + segment.getFileName() + "读取失败", e);
+            }
+        });
+    }
+
+    /**
+     * 以流的方式读取日志内容,读取打开文件时已写入的行,正在写入的日志文件末尾没有换行符的行不读取
+     *
+     * @param logFilePath 日志文件路径
+     * @return 日志内容流(可并行处理,顺序与文件一致),使用完毕后需关闭
+     * @throws IOException 打开文件异常
+     */
+    public static Stream<String> streamLogs(String logFilePath) throws IOException {
+        return streamLogs(Paths.get(logFilePath));
+    }
+
+    /**
+     * 列出日志文件的全部分段,按写入顺序排列,正在写入的日志文件为最后一个分段
+     *
+     * @param logFilePath 日志文件路径
+     * @return 日志分段
+     * @throws IOException 读取分段索引异常
+     */
+    public static List<LogSegment> listLogSegments(String logFilePath) throws IOException {
+        Path path = Paths.get(logFilePath);
+        checkLogFile(path);
+        flushLogs(path);
+        return LogSegments.segments(path);
+    }
+
+    /**
+     * 以流的方式读取单个日志分段
+     *
+     * @param logFilePath 日志文件路径
+     * @param segment     日志分段,由{@link #listLogSegments(String)}获取
+     * @return 日志内容流,使用完毕后需关闭
+     * @throws IOException 打开文件异常
+     */
+    public static Stream<String> streamLogs(String logFilePath, LogSegment segment) throws IOException {
+        Path path = Paths.get(logFilePath);
+        checkLogFile(path);
+        flushLogs(path);
+        log.info("开始从日志文件{}的分段{},读取日志", path, segment.getSeq());
+        return LogSegments.lines(path, segment);
+    }
+
+    /**
+     * 以流的方式读取写入时间与时间范围有交集的日志分段,按分段粒度过滤,不解析日志内容
+     *
+     * @param logFilePath 日志文件路径
+     * @param fromMillis  开始时间(毫秒,含)
+     * @param toMillis    结束时间(毫秒,含)
+     * @return 日志内容流(顺序与写入一致),使用完毕后需关闭
+     * @throws IOException 读取分段索引异常
+     */
+    public static Stream<String> streamLogs(String logFilePath, long fromMillis, long toMillis) throws IOException {
+        Path path = Paths.get(logFilePath);
+        checkLogFile(path);
+        flushLogs(path);
+        List<LogSegment> segments = LogSegments.segments(path).stream()
+                .filter(segment -> segment.overlaps(fromMillis, toMillis))
+                .collect(Collectors.toList());
+        log.info("开始从日志文件{}的{}个分段,读取日志", path, segments.size());
+        return streamSegments(path, segments);
+    }
+
+    /**
+     * 分批读取日志内容,各分段依次读取,未压缩分段的各区间并行解析,每积累一批即回调,回调可能在多个线程中同时执行
+     *
+     * @param logFilePath 日志文件路径
+     * @param batchSize   每批日志条数
+     * @param logBatchOp  分批处理函数
+     * @throws Exception 读取日志或处理异常
+     */
+    public static void readLogs(String logFilePath, int batchSize, LogBatchOp logBatchOp) throws Exception {
+        Path path = Paths.get(logFilePath);
+        checkLogFile(path);
+        flushLogs(path);
+        log.info("开始从日志文件{},分批读取日志", path);
+        List<LogSegment> segments = LogSegments.segments(path);
+        if (segments.isEmpty()) {
+            throw new NoSuchFileException(path.toString());
+        }
+        for (LogSegment segment : segments) {
+            Path segmentPath = LogSegments.resolve(path, segment);
+            if (LogSegments.isCompressed(segmentPath)) {
+                readCompressedLogs(path, segment, batchSize, logBatchOp);
+            } else {
+                readLogs(segmentPath, LogSegments.isComplete(segment), batchSize, logBatchOp);
+            }
+        }
+    }
+
+    /**
+     * 顺序解压并分批读取压缩分段
+     *
+     * @param logFilePath 日志路径
+     * @param segment     压缩分段
+     * @param batchSize   每批日志条数
+     * @param logBatchOp  分批处理函数
+     * @throws Exception 读取日志或处理异常
+     */
+    private static void readCompressedLogs(Path logFilePath, LogSegment segment, int batchSize, LogBatchOp logBatchOp) throws Exception {
+        List<String> batch = new ArrayList<>(Math.max(batchSize, 1));
+        try (Stream<String> lines = LogSegments.lines(logFilePath, segment)) {
+            Iterator<String> iterator = lines.iterator();
+            while (iterator.hasNext()) {
+                batch.add(iterator.next());
+                if (batch.size() >= batchSize || !iterator.hasNext()) {
+                    logBatchOp.batchOp(batch);
+                    batch = new ArrayList<>(Math.max(batchSize, 1));
+                }
+            }
+        }
+    }
+
+    /**
+     * 分批读取未压缩的日志文件,各区间并行解析
+     *
+     * @param path        日志文件路径
+     * @param includeTail 是否读取末尾没有换行符的行
+     * @param batchSize   每批日志条数
+     * @param logBatchOp  分批处理函数
+     * @throws Exception 读取日志或处理异常
+     */
+    private static void readLogs(Path path, boolean includeTail, int batchSize, LogBatchOp logBatchOp) throws Exception {
+        // 每个区间在一个线程中顺序处理
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            LogFileReader.ranges(channel, LogFileReader.RANGE_BYTES, includeTail).parallelStream().forEach(range -> {
+                List<String> batch = new ArrayList<>(Math.max(batchSize, 1));
+                try (Stream<String> lines = LogFileReader.lines(channel, range[0], range[1])) {
+                    Iterator<String> iterator = lines.iterator();
+                    while (iterator.hasNext()) {
+                        batch.add(iterator.next());
+                        if (batch.size() >= batchSize || !iterator.hasNext()) {
+                            logBatchOp.batchOp(batch);
+                            batch = new ArrayList<>(Math.max(batchSize, 1));
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            });
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * 从消费方的检查点起顺序分批读取日志,每批处理成功后更新检查点,重启后只读取检查点之后的日志;
+     * 处理中断时最后一批会被再次读取,处理函数需可重入
+     *
+     * @param logFilePath 日志文件路径
+     * @param consumer    消费方名称,只能包含字母、数字、'.'、'_'及'-'
+     * @param batchSize   每批日志条数
+     * @param logBatchOp  分批处理函数,在调用线程中按写入顺序执行
+     * @return 读取完成后的检查点
+     * @throws Exception 读取日志、处理或写入检查点异常
+     */
+    public static LogCheckpoint replayLogs(String logFilePath, String consumer, int batchSize, LogBatchOp logBatchOp) throws Exception {
+        Path path = Paths.get(logFilePath);
+        checkLogFile(path);
+        flushLogs(path);
+        LogCheckpoint checkpoint = LogSegments.readCheckpoint(path, consumer);
+        log.info("消费方{}从日志文件{}的分段{}位置{}(第{}行)起,读取日志", consumer, path, checkpoint.getSeq(), checkpoint.getOffset(), checkpoint.getLine());
+        for (LogSegment segment : LogSegments.segments(path)) {
+            if (segment.getSeq() < checkpoint.getSeq()) {
+                continue;
+            }
+            long from = segment.getSeq() == checkpoint.getSeq() ? checkpoint.getOffset() : 0;
+            if (!segment.isActive() && from >= segment.getBytes()) {
+                continue;
+            }
+            List<String> batch = new ArrayList<>(Math.max(batchSize, 1));
+            try (LogFileReader.LineCursor cursor = LogSegments.cursor(path, segment, from)) {
+                while (cursor.hasNext()) {
+                    batch.add(cursor.next());
+                    if (batch.size() >= batchSize || !cursor.hasNext()) {
+                        logBatchOp.batchOp(batch);
+                        checkpoint.setSeq(segment.getSeq());
+                        checkpoint.setOffset(cursor.position());
+                        checkpoint.setLine(checkpoint.getLine() + batch.size());
+                        checkpoint.setUpdateMillis(System.currentTimeMillis());
+                        LogSegments.writeCheckpoint(path, checkpoint);
+                        batch = new ArrayList<>(Math.max(batchSize, 1));
+                    }
+                }
+            }
+        }
+        log.info("消费方{}读取日志文件{}完成,共处理{}行", consumer, path, checkpoint.getLine());
+        return checkpoint;
+    }
+
+    /**
+     * 读取消费方的检查点
+     *
+     * @param logFilePath 日志文件路径
+     * @param consumer    消费方名称
+     * @return 检查点,不存在时为从头读取的检查点
+     * @throws IOException 读取异常
+     */
+    public static LogCheckpoint readCheckpoint(String logFilePath, String consumer) throws IOException {
+        return LogSegments.readCheckpoint(Paths.get(logFilePath), consumer);
+    }
+
+    /**
+     * 删除消费方的检查点,下次从头读取
+     *
+     * @param logFilePath 日志文件路径
+     * @param consumer    消费方名称
+     * @throws IOException 删除异常
+     */
+    public static void deleteCheckpoint(String logFilePath, String consumer) throws IOException {
+        LogSegments.deleteCheckpoint(Paths.get(logFilePath), consumer);
+    }
+
+    /**
+     * 日志分批处理函数
+     */
+    @FunctionalInterface
+    public interface LogBatchOp {
+
+        /**
+         * 分批处理函数
+         *
+         * @param logs 一批日志
+         */
+        void batchOp(List<String> logs) throws Exception;
+    }
+
     @Value(value = "${basic-service.log-dir-path:./logs}")
     public void setLogDirPath(String logDirPath) {
         LOG_DIR_PATH = logDirPath;
     }
+
+    @Value(value = "${basic-service.log.appender-capacity:8192}")
+    public void setAppenderCapacity(int appenderCapacity) {
+        APPENDER_CAPACITY = appenderCapacity;
+    }
+
+    @Value(value = "${basic-service.log.appender-batch-bytes:262144}")
+    public void setAppenderBatchBytes(int appenderBatchBytes) {
+        APPENDER_BATCH_BYTES = appenderBatchBytes;
+    }
+
+    @Value(value = "${basic-service.log.appender-flush-interval-ms:10}")
+    public void setAppenderFlushIntervalMs(long appenderFlushIntervalMs) {
+        APPENDER_FLUSH_INTERVAL_MS = appenderFlushIntervalMs;
+    }
+
+    @Value(value = "${basic-service.log.appender-fsync-policy:NONE}")
+    public void setAppenderFsyncPolicy(String appenderFsyncPolicy) {
+        APPENDER_FSYNC_POLICY = LogAppender.FsyncPolicy.valueOf(appenderFsyncPolicy.toUpperCase());
+    }
+
+    @Value(value = "${basic-service.log.segment-max-bytes:0}")
+    public void setSegmentMaxBytes(long segmentMaxBytes) {
+        SEGMENT_MAX_BYTES = segmentMaxBytes;
+    }
+
+    @Value(value = "${basic-service.log.segment-max-age-ms:0}")
+    public void setSegmentMaxAgeMs(long segmentMaxAgeMs) {
+        SEGMENT_MAX_AGE_MS = segmentMaxAgeMs;
+    }
+
+    @Value(value = "${basic-service.log.segment-compression:NONE}")
+    public void setSegmentCompression(String segmentCompression) {
+        SEGMENT_COMPRESSION = LogSegments.Compression.valueOf(segmentCompression.toUpperCase());
+    }
 }
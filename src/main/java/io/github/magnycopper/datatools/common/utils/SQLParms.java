@@ -0,0 +1,36 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: SQL语句及按占位符顺序排列的参数
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2021-04-29 14:21
+ */
+@Data
+@NoArgsConstructor
+public class SQLParms {
+
+    /**
+     * SQL语句
+     */
+    private String sql;
+
+    /**
+     * SQL参数
+     */
+    private Object[] parms;
+
+    /**
+     * 语句包含的数据行数
+     */
+    private int rows;
+
+    public SQLParms(String sql, Object[] parms, int rows) {
+        this.sql = sql;
+        this.parms = parms;
+        this.rows = rows;
+    }
+}
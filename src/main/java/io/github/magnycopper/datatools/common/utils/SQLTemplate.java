@@ -0,0 +1,197 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: 预先生成的插入语句模板,按表名、字段及是否更新缓存,可在多个线程中共用
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-10-10 09:30
+ */
+public final class SQLTemplate {
+
+    /**
+     * 表名
+     */
+    private final String dbName;
+
+    /**
+     * 字段,顺序与语句中的占位符一致
+     */
+    private final String[] columns;
+
+    /**
+     * 是否带ON DUPLICATE KEY UPDATE子句
+     */
+    private final boolean hasUpdate;
+
+    /**
+     * 插入语句
+     */
+    private final String sql;
+
+    /**
+     * 最近一次生成的多行语句及其行数,分块插入时除最后一块外行数相同,可直接复用
+     */
+    private volatile Map.Entry<Integer, String> multiRowSql;
+
+    SQLTemplate(String dbName, String[] columns, boolean hasUpdate) {
+        this.dbName = dbName;
+        this.columns = columns;
+        this.hasUpdate = hasUpdate;
+        this.sql = buildSQL(1);
+    }
+
+    /**
+     * 生成多行插入语句
+     *
+     * @param rows 行数
+     * @return 插入语句
+     */
+    private String buildSQL(int rows) {
+        StringBuilder builder = new StringBuilder(32 + dbName.length() + columns.length * (hasUpdate ? 40 : 16) + rows * (columns.length * 2 + 2));
+        builder.append("INSERT INTO ").append(dbName).append(" (");
+        appendColumns(builder);
+        builder.append(") VALUES ");
+        for (int i = 0; i < rows; i++) {
+            builder.append(i > 0 ? ",(" : "(");
+            appendPlaceholders(builder);
+            builder.append(')');
+        }
+        if (hasUpdate) {
+            builder.append(" ON DUPLICATE KEY UPDATE ");
+            appendUpdates(builder);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 拼接以逗号分隔的字段
+     *
+     * @param builder 语句
+     */
+    void appendColumns(StringBuilder builder) {
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(columns[i]);
+        }
+    }
+
+    /**
+     * 拼接以逗号分隔的占位符
+     *
+     * @param builder 语句
+     */
+    void appendPlaceholders(StringBuilder builder) {
+        for (int i = 0; i < columns.length; i++) {
+            builder.append(i > 0 ? ",?" : "?");
+        }
+    }
+
+    /**
+     * 拼接UPDATE子句中的字段赋值
+     *
+     * @param builder 语句
+     */
+    void appendUpdates(StringBuilder builder) {
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(columns[i]).append(" = VALUES(").append(columns[i]).append(')');
+        }
+    }
+
+    public String getDbName() {
+        return dbName;
+    }
+
+    public List<String> getColumns() {
+        return Collections.unmodifiableList(Arrays.asList(columns));
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    String getColumn(int index) {
+        return columns[index];
+    }
+
+    public boolean isHasUpdate() {
+        return hasUpdate;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * 获取多行插入语句,形如INSERT INTO t (a,b) VALUES (?,?),(?,?)
+     *
+     * @param rows 行数
+     * @return 插入语句
+     */
+    public String getSql(int rows) {
+        if (rows == 1) {
+            return sql;
+        }
+        Map.Entry<Integer, String> cached = multiRowSql;
+        if (cached != null && cached.getKey() == rows) {
+            return cached.getValue();
+        }
+        String text = buildSQL(rows);
+        multiRowSql = new AbstractMap.SimpleImmutableEntry<>(rows, text);
+        return text;
+    }
+
+    /**
+     * 按字段顺序取值
+     *
+     * @param data 数据
+     * @return 语句参数
+     */
+    public Object[] getValues(Map<String, Object> data) {
+        return getValues(data, new Object[columns.length]);
+    }
+
+    /**
+     * 按字段顺序取值并填入传入的数组,数组可在多行间复用
+     *
+     * @param data   数据
+     * @param values 长度不小于字段数的数组
+     * @return 传入的数组
+     */
+    public Object[] getValues(Map<String, Object> data, Object[] values) {
+        return getValues(data, values, 0);
+    }
+
+    /**
+     * 按字段顺序取值并填入传入数组的指定位置,用于拼接多行语句的参数
+     *
+     * @param data   数据
+     * @param values 参数数组
+     * @param offset 开始位置
+     * @return 传入的数组
+     */
+    public Object[] getValues(Map<String, Object> data, Object[] values, int offset) {
+        if (offset < 0 || values.length - offset < columns.length) {
+            throw new IllegalArgumentException(String.format("参数数组长度%d从位置%d开始不足字段数%d", values.length, offset, columns.length));
+        }
+        for (int i = 0; i < columns.length; i++) {
+            values[offset + i] = data.get(columns[i]);
+        }
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return sql;
+    }
+}
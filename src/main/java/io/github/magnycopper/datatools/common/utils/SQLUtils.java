@@ -1,11 +1,9 @@
 package io.github.magnycopper.datatools.common.utils;
 
-import lombok.Data;
 import org.apache.commons.lang3.StringUtils;
 
-import java.util.Collection;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -17,6 +15,49 @@ import java.util.stream.Stream;
  */
 public class SQLUtils {
 
+    /**
+     * 语句模板缓存的最大数量,超出后清空重建
+     */
+    private static final int TEMPLATE_CACHE_SIZE = 1024;
+
+    /**
+     * 语句模板缓存,按表名、字段及是否更新区分
+     */
+    private static final Map<TemplateKey, SQLTemplate> TEMPLATE_CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * 单条语句默认的最大参数个数,为MySQL预编译语句的上限
+     */
+    public static final int DEFAULT_MAX_PARAMS = 65535;
+
+    /**
+     * 单条语句默认的最大估算字节数,为MySQL 5.7默认的max_allowed_packet
+     */
+    public static final int DEFAULT_MAX_PACKET_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * 一次遍历data中的key得到需要操作的字段,顺序与data一致
+     *
+     * @param data       原始数据
+     * @param keys       需要操作的key
+     * @param ignoreKeys 需要过滤的key
+     * @return 需要操作的字段
+     */
+    private static String[] resolveColumns(Map<String, Object> data, Collection<String> keys, String... ignoreKeys) {
+        Set<String> dataKeys = data.keySet();
+        // keys为data自身的key时不需要判断,否则转为哈希集合后判断,避免逐个比较
+        boolean allKeys = keys == dataKeys;
+        Collection<String> keySet = allKeys || keys instanceof HashSet ? keys : new HashSet<>(keys);
+        String[] columns = new String[dataKeys.size()];
+        int count = 0;
+        for (String key : dataKeys) {
+            if ((allKeys || keySet.contains(key)) && !StringUtils.equalsAny(key, ignoreKeys)) {
+                columns[count++] = key;
+            }
+        }
+        return count == columns.length ? columns : Arrays.copyOf(columns, count);
+    }
+
     /**
      * 获取需要操作的keys
      *
@@ -26,13 +67,8 @@ public class SQLUtils {
      * @return 真实需要操作的key
      */
     public static List<String> getKeys(Map<String, Object> data, Collection<String> keys, String... ignoreKeys) {
-        // 将data中的key经过2此过两次过滤,首先要在keys中,其次要不出现在ignoreKeys,设下的是合法key
-        return data.keySet()
-                .stream()
-                .filter(key -> StringUtils.equalsAny(key, keys.toArray(new String[0])))
-                .filter(key -> !StringUtils.equalsAny(key, ignoreKeys))
-                .distinct()
-                .collect(Collectors.toList());
+        // data中的key首先要在keys中,其次要不出现在ignoreKeys,剩下的是合法key
+        return new ArrayList<>(Arrays.asList(resolveColumns(data, keys, ignoreKeys)));
     }
 
     /**
@@ -56,9 +92,13 @@ public class SQLUtils {
      */
     public static Object[] getValues(Map<String, Object> data, Collection<String> keys, String... ignoreKeys) {
         // 获取需要处理的keys
-        List<String> keySet = getKeys(data, keys, ignoreKeys);
+        String[] columns = resolveColumns(data, keys, ignoreKeys);
         // 按照key从data中取值
-        return keySet.stream().map(key -> data.getOrDefault(key, null)).toArray(Object[]::new);
+        Object[] values = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = data.get(columns[i]);
+        }
+        return values;
     }
 
     /**
@@ -69,33 +109,64 @@ public class SQLUtils {
      * @return 需要处理的values
      */
     public static Object[] getValues(Map<String, Object> data, String... ignoreKeys) {
-        // 获取需要处理的keys
-        List<String> keySet = getKeys(data, data.keySet(), ignoreKeys);
-        // 按照key从data中取值
-        return keySet.stream().map(key -> data.getOrDefault(key, null)).toArray(Object[]::new);
+        return getValues(data, data.keySet(), ignoreKeys);
     }
 
     /**
-     * 生成插入语句模板
+     * 按模板的字段顺序取值并填入传入的数组,数组可在多行间复用
+     *
+     * @param template 语句模板
+     * @param data     原始数据
+     * @param values   长度不小于字段数的数组
+     * @return 传入的数组
+     */
+    public static Object[] getValues(SQLTemplate template, Map<String, Object> data, Object[] values) {
+        return template.getValues(data, values);
+    }
+
+    /**
+     * 获取插入语句模板,相同表名、字段及是否更新的模板只生成一次
+     *
+     * @param dbName    数据库名称
+     * @param columns   字段,顺序与占位符一致
+     * @param hasUpdate 是否添加UPDATE语句
+     * @return 插入语句模板
+     */
+    public static SQLTemplate getInsertTemplate(String dbName, Collection<String> columns, boolean hasUpdate) {
+        return getInsertTemplate(dbName, columns.toArray(new String[0]), hasUpdate);
+    }
+
+    /**
+     * 获取插入语句模板,字段为data中未被忽略的key
      *
      * @param dbName     数据库名称
      * @param data       需要插入的数据
-     * @param keys       需要写入的key
      * @param hasUpdate  是否添加UPDATE语句
      * @param ignoreKeys 忽略的key
      * @return 插入语句模板
      */
-    private static String getInsertSQL(String dbName, Map<String, Object> data, Collection<String> keys, boolean hasUpdate, String... ignoreKeys) {
-        // 获取需要处理的key
-        List<String> keySet = getKeys(data, keys, ignoreKeys);
-        if (hasUpdate) {
-            // 生成update部分的语句
-            List<String> updatePart = keySet.stream().map(key -> String.format("%s = VALUES(%s)", key, key)).collect(Collectors.toList());
-            // 拼接SQL语句
-            return String.format("INSERT INTO %s (%s) VALUES (%s) ON DUPLICATE KEY UPDATE %s", dbName, String.join(",", keySet), Stream.generate(() -> "?").limit(keySet.size()).collect(Collectors.joining(",")), String.join(",", updatePart));
+    public static SQLTemplate getInsertTemplate(String dbName, Map<String, Object> data, boolean hasUpdate, String... ignoreKeys) {
+        return getInsertTemplate(dbName, resolveColumns(data, data.keySet(), ignoreKeys), hasUpdate);
+    }
+
+    /**
+     * 从缓存中获取插入语句模板,不存在时生成
+     *
+     * @param dbName    数据库名称
+     * @param columns   字段,调用后不能再修改
+     * @param hasUpdate 是否添加UPDATE语句
+     * @return 插入语句模板
+     */
+    static SQLTemplate getInsertTemplate(String dbName, String[] columns, boolean hasUpdate) {
+        TemplateKey key = new TemplateKey(dbName, columns, hasUpdate);
+        SQLTemplate template = TEMPLATE_CACHE.get(key);
+        if (template == null) {
+            if (TEMPLATE_CACHE.size() >= TEMPLATE_CACHE_SIZE) {
+                TEMPLATE_CACHE.clear();
+            }
+            template = TEMPLATE_CACHE.computeIfAbsent(key, k -> new SQLTemplate(dbName, columns, hasUpdate));
         }
-        // 拼接SQL语句
-        return String.format("INSERT INTO %s (%s) VALUES (%s)", dbName, String.join(",", keySet), Stream.generate(() -> "?").limit(keySet.size()).collect(Collectors.joining(",")));
+        return template;
     }
 
     /**
@@ -107,7 +178,7 @@ public class SQLUtils {
      * @return 插入语句模板
      */
     public static String getInsertSQL(String dbName, Map<String, Object> data, String... ignoreKeys) {
-        return getInsertSQL(dbName, data, data.keySet(), false, ignoreKeys);
+        return getInsertTemplate(dbName, data, false, ignoreKeys).getSql();
     }
 
     /**
@@ -119,20 +190,214 @@ public class SQLUtils {
      * @return 插入语句模板
      */
     public static String getInsertSQLWithUpdate(String dbName, Map<String, Object> data, String... ignoreKeys) {
-        return getInsertSQL(dbName, data, data.keySet(), true, ignoreKeys);
+        return getInsertTemplate(dbName, data, true, ignoreKeys).getSql();
     }
-}
 
-@Data
-class SQLParms {
+    /**
+     * 生成多行插入语句,按默认的最大参数个数及最大字节数分块
+     *
+     * @param dbName     数据库名称
+     * @param datas      需要插入的数据
+     * @param ignoreKeys 忽略的key
+     * @return 分块的插入语句及参数
+     */
+    public static List<SQLParms> getBatchInsertSQL(String dbName, List<? extends Map<String, Object>> datas, String... ignoreKeys) {
+        return getBatchInsertSQL(dbName, datas, false, DEFAULT_MAX_PARAMS, DEFAULT_MAX_PACKET_BYTES, ignoreKeys);
+    }
 
     /**
-     * SQL语句
+     * 生成多行插入语句,主键或唯一键冲突时更新,按默认的最大参数个数及最大字节数分块
+     *
+     * @param dbName     数据库名称
+     * @param datas      需要插入的数据
+     * @param ignoreKeys 忽略的key
+     * @return 分块的插入语句及参数
      */
-    private String sql;
+    public static List<SQLParms> getBatchInsertSQLWithUpdate(String dbName, List<? extends Map<String, Object>> datas, String... ignoreKeys) {
+        return getBatchInsertSQL(dbName, datas, true, DEFAULT_MAX_PARAMS, DEFAULT_MAX_PACKET_BYTES, ignoreKeys);
+    }
+
+    /**
+     * 生成多行插入语句,字段相同的连续数据合并为一条语句,顺序与数据一致;
+     * 每条语句的参数个数不超过maxParams,按语句文本及参数值(按客户端拼接参数计算)估算的字节数不超过maxPacketBytes,
+     * 单行超出限制时单独成为一条语句
+     *
+     * @param dbName         数据库名称
+     * @param datas          需要插入的数据
+     * @param hasUpdate      是否添加UPDATE语句
+     * @param maxParams      单条语句的最大参数个数
+     * @param maxPacketBytes 单条语句的最大估算字节数
+     * @param ignoreKeys     忽略的key
+     * @return 分块的插入语句及参数
+     */
+    public static List<SQLParms> getBatchInsertSQL(String dbName, List<? extends Map<String, Object>> datas, boolean hasUpdate, int maxParams, long maxPacketBytes, String... ignoreKeys) {
+        List<SQLParms> sqlParms = new ArrayList<>();
+        SQLTemplate template = null;
+        int start = 0;
+        long packetBytes = 0;
+        for (int i = 0; i < datas.size(); i++) {
+            Map<String, Object> data = datas.get(i);
+            SQLTemplate rowTemplate = getInsertTemplate(dbName, data, hasUpdate, ignoreKeys);
+            int columns = rowTemplate.getColumnCount();
+            // 每行的占位符"(?,?),"及参数值
+            long rowBytes = columns * 2L + 2 + estimateBytes(data, rowTemplate);
+            if (template != null) {
+                int rows = i - start;
+                if (rowTemplate != template || (long) columns * (rows + 1) > maxParams || packetBytes + rowBytes > maxPacketBytes) {
+                    sqlParms.add(toSQLParms(template, datas, start, i));
+                    template = null;
+                }
+            }
+            if (template == null) {
+                template = rowTemplate;
+                start = i;
+                packetBytes = template.getSql().length();
+            }
+            packetBytes += rowBytes;
+        }
+        if (template != null) {
+            sqlParms.add(toSQLParms(template, datas, start, datas.size()));
+        }
+        return sqlParms;
+    }
 
     /**
-     * SQL参数
+     * 生成一块数据的多行插入语句及参数
+     *
+     * @param template 语句模板
+     * @param datas    数据
+     * @param from     开始位置(含)
+     * @param to       结束位置(不含)
+     * @return 插入语句及参数
      */
-    private Object[] parms;
+    private static SQLParms toSQLParms(SQLTemplate template, List<? extends Map<String, Object>> datas, int from, int to) {
+        int rows = to - from;
+        int columns = template.getColumnCount();
+        Object[] parms = new Object[rows * columns];
+        for (int i = 0; i < rows; i++) {
+            template.getValues(datas.get(from + i), parms, i * columns);
+        }
+        return new SQLParms(template.getSql(rows), parms, rows);
+    }
+
+    /**
+     * 估算一行参数值拼接到语句中的字节数
+     *
+     * @param data     数据
+     * @param template 语句模板
+     * @return 估算的字节数
+     */
+    private static long estimateBytes(Map<String, Object> data, SQLTemplate template) {
+        long bytes = 0;
+        for (int i = 0; i < template.getColumnCount(); i++) {
+            Object value = data.get(template.getColumn(i));
+            if (value == null) {
+                bytes += 4;
+            } else if (value instanceof CharSequence) {
+                // 按UTF-8编码计算,另加两侧引号
+                CharSequence text = (CharSequence) value;
+                int length = text.length();
+                bytes += length + 2;
+                for (int j = 0; j < length; j++) {
+                    char c = text.charAt(j);
+                    if (c >= 0x80) {
+                        bytes += c >= 0x800 && !Character.isSurrogate(c) ? 2 : 1;
+                    }
+                }
+            } else if (value instanceof byte[]) {
+                // 按十六进制字面量计算
+                bytes += ((byte[]) value).length * 2L + 3;
+            } else {
+                bytes += 32;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 获取更新语句需要更新的key,数据为差异数据时只取变更的字段
+     *
+     * @param data       需要更新的数据
+     * @param whereKeys  更新条件的key
+     * @param ignoreKeys 忽略的key
+     * @return 需要更新的key
+     */
+    private static List<String> getUpdateKeys(Map<String, Object> data, Collection<String> whereKeys, String... ignoreKeys) {
+        Collection<String> keys = data instanceof DiffUtils.ChangedRow ? ((DiffUtils.ChangedRow) data).getChangedFields() : data.keySet();
+        return getKeys(data, keys, ignoreKeys)
+                .stream()
+                .filter(key -> !whereKeys.contains(key))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 生成更新语句模板,数据为{@link DiffUtils.ChangedRow}时只更新变更的字段
+     *
+     * @param dbName     数据库名称
+     * @param data       需要更新的数据
+     * @param whereKeys  更新条件的key(一般为唯一键)
+     * @param ignoreKeys 忽略的key
+     * @return 更新语句模板,没有需要更新的字段时返回null
+     */
+    public static String getUpdateSQL(String dbName, Map<String, Object> data, Collection<String> whereKeys, String... ignoreKeys) {
+        // 获取需要更新的key
+        List<String> keySet = getUpdateKeys(data, whereKeys, ignoreKeys);
+        if (keySet.isEmpty()) {
+            return null;
+        }
+        // 拼接SQL语句
+        return String.format("UPDATE %s SET %s WHERE %s", dbName,
+                keySet.stream().map(key -> key + " = ?").collect(Collectors.joining(",")),
+                whereKeys.stream().map(key -> key + " = ?").collect(Collectors.joining(" AND ")));
+    }
+
+    /**
+     * 获取更新语句的参数,依次为更新的值及更新条件的值,与{@link #getUpdateSQL(String, Map, Collection, String...)}对应
+     *
+     * @param data       需要更新的数据
+     * @param whereKeys  更新条件的key(一般为唯一键)
+     * @param ignoreKeys 忽略的key
+     * @return 更新语句的参数
+     */
+    public static Object[] getUpdateValues(Map<String, Object> data, Collection<String> whereKeys, String... ignoreKeys) {
+        return Stream.concat(getUpdateKeys(data, whereKeys, ignoreKeys).stream(), whereKeys.stream())
+                .map(data::get)
+                .toArray(Object[]::new);
+    }
+
+    /**
+     * 语句模板缓存的key
+     */
+    private static final class TemplateKey {
+
+        private final String dbName;
+        private final String[] columns;
+        private final boolean hasUpdate;
+        private final int hash;
+
+        private TemplateKey(String dbName, String[] columns, boolean hasUpdate) {
+            this.dbName = dbName;
+            this.columns = columns;
+            this.hasUpdate = hasUpdate;
+            this.hash = (dbName.hashCode() * 31 + Arrays.hashCode(columns)) * 31 + (hasUpdate ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TemplateKey)) {
+                return false;
+            }
+            TemplateKey that = (TemplateKey) o;
+            return hash == that.hash && hasUpdate == that.hasUpdate && dbName.equals(that.dbName) && Arrays.equals(columns, that.columns);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
 }
+
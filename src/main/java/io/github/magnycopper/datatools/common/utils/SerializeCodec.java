@@ -0,0 +1,56 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: 序列化编解码器,可通过{@link SerializeUtils#registerCodec(SerializeCodec)}或
+ * META-INF/services/io.github.magnycopper.datatools.common.utils.SerializeCodec注册;
+ * 编码结果以魔数及编解码器ID开头,反序列化时按ID自动选择编解码器
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-09-29 15:10
+ */
+public interface SerializeCodec {
+
+    /**
+     * 编解码器ID,写入编码结果的头部,取值1~127,0保留给Java序列化
+     *
+     * @return 编解码器ID
+     */
+    byte id();
+
+    /**
+     * 编解码器名称,用于配置默认编解码器
+     *
+     * @return 名称
+     */
+    String name();
+
+    /**
+     * 是否支持编码该对象,不支持时退化为Java序列化
+     *
+     * @param value 对象
+     * @return 是否支持
+     */
+    boolean supports(Object value);
+
+    /**
+     * 编码
+     *
+     * @param out   输出
+     * @param value 对象
+     * @throws IOException 编码异常
+     */
+    void encode(DataOutput out, Object value) throws IOException;
+
+    /**
+     * 解码
+     *
+     * @param in 输入
+     * @return 对象
+     * @throws IOException 解码异常
+     */
+    Object decode(DataInput in) throws IOException;
+}
@@ -0,0 +1,189 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ObjectInputFilter;
+import java.util.*;
+
+/**
+ * @program: Wind.BDG.PEVC.DataTools
+ * @description: 反序列化允许的类:登记的包下的类及常用的JDK值类型、集合类型,
+ * 二进制编解码器按字段解码的类及Java序列化流中的类都需要在允许范围内;
+ * 非Spring环境可通过系统属性basic-service.serialize.allowed-packages或SerializeUtils.allowPackages登记,登记*时不限制包
+ * @author: cmhan.han@wind.com.cn
+ * @create: 2022-10-14 10:20
+ */
+@Slf4j
+final class SerializeFilter {
+
+    /**
+     * 默认允许的包
+     */
+    static final String DEFAULT_PACKAGES = "io.github.magnycopper.datatools";
+
+    /**
+     * 允许的包的配置项及系统属性名
+     */
+    static final String PACKAGES_PROPERTY = "basic-service.serialize.allowed-packages";
+
+    /**
+     * 不限制包
+     */
+    static final String ALL_PACKAGES = "*";
+
+    /**
+     * Java序列化流的最大嵌套深度
+     */
+    static final long MAX_DEPTH = 64;
+
+    /**
+     * Java序列化流中数组的最大长度
+     */
+    static final long MAX_ARRAY_LENGTH = 16 * 1024 * 1024;
+
+    /**
+     * Java序列化流中的最大对象引用数
+     */
+    static final long MAX_REFERENCES = 16 * 1024 * 1024;
+
+    /**
+     * 允许的JDK包,其中的类不执行自定义代码即可还原
+     */
+    private static final List<String> JDK_PACKAGES = Arrays.asList("java.lang.", "java.math.", "java.time.", "java.util.");
+
+    /**
+     * JDK包中不允许的子包
+     */
+    private static final List<String> JDK_EXCLUDED_PACKAGES = Arrays.asList("java.lang.reflect.", "java.lang.invoke.", "java.util.logging.", "java.util.prefs.", "java.util.jar.", "java.util.zip.");
+
+    /**
+     * 允许的其他JDK类
+     */
+    private static final Set<String> JDK_CLASSES = new HashSet<>(Arrays.asList("java.io.Serializable", "java.sql.Date", "java.sql.Time", "java.sql.Timestamp"));
+
+    /**
+     * 登记的包,以"."结尾
+     */
+    private static volatile List<String> packages = normalize(Arrays.asList(System.getProperty(PACKAGES_PROPERTY, DEFAULT_PACKAGES).split(",")));
+
+    /**
+     * 用户指定的过滤规则,优先于默认规则判断
+     */
+    private static volatile ObjectInputFilter customFilter;
+
+    /**
+     * Java序列化使用的过滤器:先按用户规则判断,未决定时按嵌套深度、数组长度、引用数及允许的类判断
+     */
+    static final ObjectInputFilter JAVA_FILTER = info -> {
+        ObjectInputFilter custom = customFilter;
+        if (custom != null) {
+            ObjectInputFilter.Status status = custom.checkInput(info);
+            if (status != ObjectInputFilter.Status.UNDECIDED) {
+                return status;
+            }
+        }
+        if (info.depth() > MAX_DEPTH || info.arrayLength() > MAX_ARRAY_LENGTH || info.references() > MAX_REFERENCES) {
+            return ObjectInputFilter.Status.REJECTED;
+        }
+        Class<?> type = info.serialClass();
+        if (type == null) {
+            return ObjectInputFilter.Status.UNDECIDED;
+        }
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        if (type.isPrimitive() || allowsJdk(type.getName()) || allows(type.getName())) {
+            return ObjectInputFilter.Status.ALLOWED;
+        }
+        log.warn("类{}不在允许反序列化的包中,可通过SerializeUtils.allowPackages或{}登记", type.getName(), PACKAGES_PROPERTY);
+        return ObjectInputFilter.Status.REJECTED;
+    };
+
+    private SerializeFilter() {
+    }
+
+    private static List<String> normalize(Collection<String> packageNames) {
+        List<String> normalized = new ArrayList<>();
+        for (String packageName : packageNames) {
+            String trimmed = packageName == null ? "" : packageName.trim();
+            if (ALL_PACKAGES.equals(trimmed)) {
+                log.warn("反序列化不限制包,只应在数据来源可信时使用");
+                normalized.add("");
+            } else if (!trimmed.isEmpty()) {
+                normalized.add(trimmed.endsWith(".") ? trimmed : trimmed + ".");
+            }
+        }
+        return Collections.unmodifiableList(normalized);
+    }
+
+    /**
+     * 设置允许的包,替换之前登记的包
+     *
+     * @param packageNames 包名
+     */
+    static synchronized void setPackages(Collection<String> packageNames) {
+        packages = normalize(packageNames);
+    }
+
+    /**
+     * 增加允许的包
+     *
+     * @param packageNames 包名
+     */
+    static synchronized void addPackages(String... packageNames) {
+        List<String> merged = new ArrayList<>(packages);
+        for (String packageName : normalize(Arrays.asList(packageNames))) {
+            if (!merged.contains(packageName)) {
+                merged.add(packageName);
+            }
+        }
+        packages = Collections.unmodifiableList(merged);
+    }
+
+    /**
+     * 设置用户的过滤规则
+     *
+     * @param pattern 过滤规则,格式同jdk.serialFilter,为空时只按默认规则过滤
+     */
+    static void setCustomFilter(String pattern) {
+        customFilter = pattern == null || pattern.trim().isEmpty() ? null : ObjectInputFilter.Config.createFilter(pattern);
+    }
+
+    /**
+     * 类是否在登记的包下
+     *
+     * @param className 类名
+     * @return 是否允许
+     */
+    static boolean allows(String className) {
+        for (String packageName : packages) {
+            if (className.startsWith(packageName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 类是否为允许的JDK类
+     *
+     * @param className 类名
+     * @return 是否允许
+     */
+    static boolean allowsJdk(String className) {
+        if (JDK_CLASSES.contains(className)) {
+            return true;
+        }
+        for (String excluded : JDK_EXCLUDED_PACKAGES) {
+            if (className.startsWith(excluded)) {
+                return false;
+            }
+        }
+        for (String packageName : JDK_PACKAGES) {
+            if (className.startsWith(packageName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,9 +1,18 @@
 package io.github.magnycopper.datatools.common.utils;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
 
 import java.io.*;
-import java.util.Base64;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * @program: Wind.BDG.PEVC.DataTools
@@ -12,8 +21,92 @@ import java.util.Base64;
  * @create: 2022-08-18 15:45
  */
 @Slf4j
+@Component
 public class SerializeUtils {
 
+    /**
+     * 编码结果的魔数,其后1个字节为编解码器ID;Java序列化的结果不写入头部,以Java序列化流的头部识别
+     */
+    private static final byte MAGIC_0 = (byte) 0xB5;
+    private static final byte MAGIC_1 = (byte) 0x1E;
+    /**
+     * 头部长度
+     */
+    private static final int HEADER_LENGTH = 3;
+    /**
+     * 线程复用的编码缓冲区超过该大小时不再保留,避免长期占用内存
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+    /**
+     * 流式读写的缓冲区大小
+     */
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 编解码器ID -> 编解码器
+     */
+    private static final SerializeCodec[] CODECS_BY_ID = new SerializeCodec[128];
+    /**
+     * 编解码器名称 -> 编解码器
+     */
+    private static final Map<String, SerializeCodec> CODECS_BY_NAME = new ConcurrentHashMap<>();
+    /**
+     * 线程复用的编码缓冲区
+     */
+    private static final ThreadLocal<EncodeBuffer> ENCODE_BUFFERS = ThreadLocal.withInitial(EncodeBuffer::new);
+    /**
+     * 默认编解码器,默认为Java序列化;binary编解码器按字段结构校验,实体字段增删后旧数据无法解码,需显式启用
+     */
+    private static SerializeCodec DEFAULT_CODEC;
+
+    static {
+        registerCodec(new JavaSerializeCodec());
+        registerCodec(new BinarySerializeCodec());
+        for (SerializeCodec codec : ServiceLoader.load(SerializeCodec.class)) {
+            registerCodec(codec);
+        }
+        DEFAULT_CODEC = CODECS_BY_NAME.get(JavaSerializeCodec.NAME);
+    }
+
+    /**
+     * 注册编解码器
+     *
+     * @param codec 编解码器
+     */
+    public static synchronized void registerCodec(SerializeCodec codec) {
+        if (codec.id() < 0 || CODECS_BY_ID[codec.id()] != null && CODECS_BY_ID[codec.id()] != codec) {
+            throw new IllegalArgumentException(String.format("编解码器%s的ID:%s不可用", codec.name(), codec.id()));
+        }
+        CODECS_BY_ID[codec.id()] = codec;
+        CODECS_BY_NAME.put(codec.name(), codec);
+        log.info("注册序列化编解码器:{}(ID:{})", codec.name(), codec.id());
+    }
+
+    /**
+     * 登记允许反序列化的包,按字段解码的对象及Java序列化流中的对象只能是已登记包下的类或常用的JDK值类型、集合类型,
+     * 默认只允许io.github.magnycopper.datatools;此前版本不限制反序列化的类,其他包的类需在此登记,
+     * 或通过配置项/系统属性basic-service.serialize.allowed-packages(逗号分隔)登记,登记*时不限制包
+     *
+     * @param packageNames 包名
+     */
+    public static void allowPackages(String... packageNames) {
+        SerializeFilter.addPackages(packageNames);
+    }
+
+    /**
+     * 获取编解码器
+     *
+     * @param codecName 编解码器名称
+     * @return 编解码器
+     */
+    private static SerializeCodec codec(String codecName) {
+        SerializeCodec codec = CODECS_BY_NAME.get(codecName);
+        if (codec == null) {
+            throw new IllegalArgumentException(String.format("未知的序列化编解码器:%s", codecName));
+        }
+        return codec;
+    }
+
     /**
      * 反序列化
      *
@@ -22,10 +115,7 @@ public class SerializeUtils {
      * @return 反序列化结果
      */
     public static <T> T deserialize(String serializeText) throws Exception {
-        ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(Base64.getDecoder().decode(serializeText));
-        try (ObjectInputStream objectInputStream = new ObjectInputStream(byteArrayInputStream)) {
-            return (T) objectInputStream.readObject();
-        }
+        return deserialize(Base64.getDecoder().decode(serializeText));
     }
 
     /**
@@ -35,10 +125,434 @@ public class SerializeUtils {
      * @return 序列化结果
      */
     public static String serialize(Serializable serializable) throws IOException {
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream)) {
-            objectOutputStream.writeObject(serializable);
-            return Base64.getEncoder().encodeToString(byteArrayOutputStream.toByteArray());
+        return Base64.getEncoder().encodeToString(serializeToBytes(serializable));
+    }
+
+    /**
+     * 使用默认编解码器序列化,不支持的对象退化为Java序列化
+     *
+     * @param serializable 需要被序列化的对象
+     * @return 序列化结果
+     * @throws IOException 序列化异常
+     */
+    public static byte[] serializeToBytes(Serializable serializable) throws IOException {
+        return serializeToBytes(serializable, DEFAULT_CODEC);
+    }
+
+    /**
+     * 使用指定编解码器序列化,不支持的对象退化为Java序列化
+     *
+     * @param serializable 需要被序列化的对象
+     * @param codecName    编解码器名称
+     * @return 序列化结果
+     * @throws IOException 序列化异常
+     */
+    public static byte[] serializeToBytes(Serializable serializable, String codecName) throws IOException {
+        return serializeToBytes(serializable, codec(codecName));
+    }
+
+    /**
+     * 使用默认编解码器序列化到ByteBuffer,避免Base64编码
+     *
+     * @param serializable 需要被序列化的对象
+     * @return 序列化结果,position为0,limit为结果长度
+     * @throws IOException 序列化异常
+     */
+    public static ByteBuffer serializeToBuffer(Serializable serializable) throws IOException {
+        return ByteBuffer.wrap(serializeToBytes(serializable));
+    }
+
+    /**
+     * 反序列化,按头部自动识别编解码器
+     *
+     * @param bytes 序列化结果
+     * @param <T>   序列化的类型
+     * @return 反序列化结果
+     * @throws IOException 反序列化异常
+     */
+    public static <T> T deserialize(byte[] bytes) throws IOException {
+        return deserialize(bytes, 0, bytes.length);
+    }
+
+    /**
+     * 反序列化,按头部自动识别编解码器,读取后ByteBuffer的position移到末尾;直接内存的ByteBuffer不复制到堆内存
+     *
+     * @param buffer 序列化结果
+     * @param <T>    序列化的类型
+     * @return 反序列化结果
+     * @throws IOException 反序列化异常
+     */
+    public static <T> T deserialize(ByteBuffer buffer) throws IOException {
+        T value;
+        if (buffer.hasArray()) {
+            value = deserialize(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            value = deserialize(new ByteBufferInputStream(buffer.duplicate()));
+        }
+        buffer.position(buffer.limit());
+        return value;
+    }
+
+    /**
+     * 使用默认编解码器序列化并直接写入输出流,不在内存中生成完整结果,写入后不关闭输出流
+     *
+     * @param serializable 需要被序列化的对象
+     * @param outputStream 输出流
+     * @throws IOException 序列化或写入异常
+     */
+    public static void serialize(Serializable serializable, OutputStream outputStream) throws IOException {
+        boolean buffered = outputStream instanceof BufferedOutputStream || outputStream instanceof ByteArrayOutputStream;
+        DataOutputStream output = new DataOutputStream(buffered ? outputStream : new BufferedOutputStream(outputStream, STREAM_BUFFER_SIZE));
+        encode(serializable, DEFAULT_CODEC, output);
+        output.flush();
+    }
+
+    /**
+     * 使用默认编解码器序列化并直接写入通道,写入后不关闭通道
+     *
+     * @param serializable 需要被序列化的对象
+     * @param channel      通道
+     * @throws IOException 序列化或写入异常
+     */
+    public static void serialize(Serializable serializable, WritableByteChannel channel) throws IOException {
+        serialize(serializable, Channels.newOutputStream(channel));
+    }
+
+    /**
+     * 从输入流中反序列化一个对象,按头部自动识别编解码器,读取后不关闭输入流
+     *
+     * @param inputStream 输入流
+     * @param <T>         序列化的类型
+     * @return 反序列化结果
+     * @throws IOException 读取或反序列化异常
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T deserialize(InputStream inputStream) throws IOException {
+        PushbackInputStream pushbackInputStream = new PushbackInputStream(inputStream, HEADER_LENGTH);
+        byte[] header = new byte[HEADER_LENGTH];
+        int length = pushbackInputStream.readNBytes(header, 0, 2);
+        if (length == 2 && (short) (((header[0] & 0xFF) << 8) | (header[1] & 0xFF)) == JavaSerializeCodec.STREAM_MAGIC) {
+            pushbackInputStream.unread(header, 0, 2);
+            return (T) CODECS_BY_ID[JavaSerializeCodec.ID].decode(new DataInputStream(pushbackInputStream));
+        }
+        length += pushbackInputStream.readNBytes(header, 2, 1);
+        return (T) codec(header, 0, length).decode(new DataInputStream(pushbackInputStream));
+    }
+
+    /**
+     * 从通道中反序列化一个对象,按头部自动识别编解码器;读取时会预读,通道中对象之后的数据不可再用
+     *
+     * @param channel 通道
+     * @param <T>     序列化的类型
+     * @return 反序列化结果
+     * @throws IOException 读取或反序列化异常
+     */
+    public static <T> T deserialize(ReadableByteChannel channel) throws IOException {
+        return deserialize(new BufferedInputStream(Channels.newInputStream(channel), STREAM_BUFFER_SIZE));
+    }
+
+    /**
+     * 以帧格式逐个写入对象:每帧为4字节长度前缀加序列化结果,对象逐个编码后写入,不需要在内存中构建完整集合,写入后不关闭输出流
+     *
+     * @param serializables 需要被序列化的对象
+     * @param outputStream  输出流
+     * @return 写入的帧数
+     * @throws IOException 序列化或写入异常
+     */
+    public static long writeFrames(Iterator<? extends Serializable> serializables, OutputStream outputStream) throws IOException {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream, STREAM_BUFFER_SIZE));
+        long frames = 0;
+        while (serializables.hasNext()) {
+            writeFrame(serializables.next(), output);
+            frames++;
+        }
+        output.flush();
+        return frames;
+    }
+
+    /**
+     * 以帧格式逐个写入对象到通道,写入后不关闭通道
+     *
+     * @param serializables 需要被序列化的对象
+     * @param channel       通道
+     * @return 写入的帧数
+     * @throws IOException 序列化或写入异常
+     */
+    public static long writeFrames(Iterator<? extends Serializable> serializables, WritableByteChannel channel) throws IOException {
+        return writeFrames(serializables, Channels.newOutputStream(channel));
+    }
+
+    /**
+     * 写入一帧
+     *
+     * @param serializable 需要被序列化的对象
+     * @param output       输出
+     * @throws IOException 序列化或写入异常
+     */
+    private static void writeFrame(Serializable serializable, DataOutputStream output) throws IOException {
+        EncodeBuffer buffer = acquireBuffer();
+        try {
+            encode(serializable, DEFAULT_CODEC, buffer.output);
+            buffer.output.flush();
+            output.writeInt(buffer.size());
+            buffer.writeTo(output);
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    /**
+     * 以流的方式逐帧读取对象,帧在被消费时才读取及反序列化,关闭返回的流时关闭输入流
+     *
+     * @param inputStream 输入流
+     * @param <T>         序列化的类型
+     * @return 对象流,使用完毕后需关闭
+     */
+    public static <T> Stream<T> readFrames(InputStream inputStream) {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(inputStream, STREAM_BUFFER_SIZE));
+        Iterator<T> iterator = new Iterator<T>() {
+            private byte[] frame = new byte[256];
+            private int frameLength = -1;
+
+            @Override
+            public boolean hasNext() {
+                if (frameLength < 0) {
+                    frameLength = readFrame();
+                }
+                return frameLength >= 0;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    return deserialize(frame, 0, frameLength);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("反序列化帧失败", e);
+                } finally {
+                    frameLength = -1;
+                }
+            }
+
+            /**
+             * 读取一帧到复用的数组中
+             *
+             * @return 帧长度,已读到末尾时返回-1
+             */
+            private int readFrame() {
+                try {
+                    int first = input.read();
+                    if (first < 0) {
+                        return -1;
+                    }
+                    int length = (first << 24) | (input.readUnsignedByte() << 16) | (input.readUnsignedByte() << 8) | input.readUnsignedByte();
+                    if (length < 0) {
+                        throw new StreamCorruptedException("帧长度错误:" + length);
+                    }
+                    if (frame.length < length) {
+                        frame = new byte[Math.max(length, frame.length * 2)];
+                    }
+                    input.readFully(frame, 0, length);
+                    return length;
+                } catch (IOException e) {
+                    throw new UncheckedIOException("读取帧失败", e);
+                }
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    try {
+                        input.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    /**
+     * 以流的方式逐帧从通道读取对象,关闭返回的流时关闭通道
+     *
+     * @param channel 通道
+     * @param <T>     序列化的类型
+     * @return 对象流,使用完毕后需关闭
+     */
+    public static <T> Stream<T> readFrames(ReadableByteChannel channel) {
+        return readFrames(Channels.newInputStream(channel));
+    }
+
+    /**
+     * 编码,使用线程复用的缓冲区,只在返回时复制一次结果
+     *
+     * @param value 需要被序列化的对象
+     * @param codec 编解码器
+     * @return 序列化结果
+     * @throws IOException 序列化异常
+     */
+    private static byte[] serializeToBytes(Object value, SerializeCodec codec) throws IOException {
+        EncodeBuffer buffer = acquireBuffer();
+        try {
+            encode(value, codec, buffer.output);
+            buffer.output.flush();
+            return buffer.toByteArray();
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    /**
+     * 写入头部及编码结果,编解码器不支持的对象退化为Java序列化
+     *
+     * @param value  需要被序列化的对象
+     * @param codec  编解码器
+     * @param output 输出
+     * @throws IOException 序列化异常
+     */
+    private static void encode(Object value, SerializeCodec codec, DataOutputStream output) throws IOException {
+        if (!(codec instanceof JavaSerializeCodec) && !codec.supports(value)) {
+            codec = CODECS_BY_ID[JavaSerializeCodec.ID];
+        }
+        if (!(codec instanceof JavaSerializeCodec)) {
+            output.writeByte(MAGIC_0);
+            output.writeByte(MAGIC_1);
+            output.writeByte(codec.id());
+        }
+        codec.encode(output, value);
+    }
+
+    /**
+     * 获取线程复用的编码缓冲区,编解码器中嵌套调用时使用新的缓冲区
+     *
+     * @return 已清空的编码缓冲区
+     */
+    private static EncodeBuffer acquireBuffer() {
+        EncodeBuffer buffer = ENCODE_BUFFERS.get();
+        if (buffer.inUse) {
+            buffer = new EncodeBuffer();
+        }
+        buffer.inUse = true;
+        buffer.reset();
+        return buffer;
+    }
+
+    /**
+     * 归还编码缓冲区,超过保留大小的缓冲区不再复用
+     *
+     * @param buffer 编码缓冲区
+     */
+    private static void releaseBuffer(EncodeBuffer buffer) {
+        buffer.inUse = false;
+        if (buffer.capacity() > MAX_RETAINED_BUFFER_SIZE && ENCODE_BUFFERS.get() == buffer) {
+            ENCODE_BUFFERS.remove();
+        }
+    }
+
+    /**
+     * 解码,按头部自动识别编解码器
+     *
+     * @param bytes  序列化结果
+     * @param offset 起始位置
+     * @param length 长度
+     * @param <T>    序列化的类型
+     * @return 反序列化结果
+     * @throws IOException 反序列化异常
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T deserialize(byte[] bytes, int offset, int length) throws IOException {
+        if (length >= 2 && (short) (((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF)) == JavaSerializeCodec.STREAM_MAGIC) {
+            return (T) CODECS_BY_ID[JavaSerializeCodec.ID].decode(new DataInputStream(new ByteArrayInputStream(bytes, offset, length)));
+        }
+        SerializeCodec codec = codec(bytes, offset, length);
+        return (T) codec.decode(new DataInputStream(new ByteArrayInputStream(bytes, offset + HEADER_LENGTH, length - HEADER_LENGTH)));
+    }
+
+    /**
+     * 按头部获取编解码器
+     *
+     * @param header 头部
+     * @param offset 起始位置
+     * @param length 可用长度
+     * @return 编解码器
+     * @throws StreamCorruptedException 无法识别的头部
+     */
+    private static SerializeCodec codec(byte[] header, int offset, int length) throws StreamCorruptedException {
+        if (length < HEADER_LENGTH || header[offset] != MAGIC_0 || header[offset + 1] != MAGIC_1 || header[offset + 2] < 0 || CODECS_BY_ID[header[offset + 2]] == null) {
+            throw new StreamCorruptedException("无法识别的序列化格式");
+        }
+        return CODECS_BY_ID[header[offset + 2]];
+    }
+
+    @Value(value = "${basic-service.serialize.codec:java}")
+    public void setCodec(String codecName) {
+        DEFAULT_CODEC = codec(codecName);
+    }
+
+    @Value(value = "${" + SerializeFilter.PACKAGES_PROPERTY + ":" + SerializeFilter.DEFAULT_PACKAGES + "}")
+    public void setAllowedPackages(String allowedPackages) {
+        SerializeFilter.setPackages(Arrays.asList(allowedPackages.split(",")));
+    }
+
+    @Value(value = "${basic-service.serialize.java-filter:}")
+    public void setJavaFilter(String javaFilter) {
+        JavaSerializeCodec.setInputFilter(javaFilter);
+    }
+
+    /**
+     * 线程复用的编码缓冲区
+     */
+    private static final class EncodeBuffer extends ByteArrayOutputStream {
+
+        /**
+         * 写入缓冲区的DataOutput
+         */
+        private final DataOutputStream output = new DataOutputStream(this);
+        /**
+         * 是否正在使用
+         */
+        private boolean inUse;
+
+        EncodeBuffer() {
+            super(256);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+    }
+
+    /**
+     * 直接读取ByteBuffer的输入流,不复制到堆内存
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
         }
     }
 }
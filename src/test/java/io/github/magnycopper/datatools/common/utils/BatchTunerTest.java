@@ -0,0 +1,108 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchTunerTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(150);
+    private static final long OVERLOADED = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private static BatchPolicy adaptivePolicy() {
+        BatchPolicy policy = BatchPolicy.noRetry();
+        policy.setTargetLatencyMillis(100);
+        policy.setMinBatchSize(10);
+        policy.setMaxBatchSize(200);
+        policy.setMaxParallelism(6);
+        return policy;
+    }
+
+    private static void window(BatchTuner tuner, int rows, long elapsedNanos, boolean succeeded) {
+        for (int i = tuner.parallelism(); i > 0; i--) {
+            tuner.onBatch(rows, elapsedNanos, succeeded);
+        }
+    }
+
+    @Test
+    void batchSizeGrowsAdditivelyAndShrinksByHalf() {
+        BatchTuner tuner = new BatchTuner(100, 1, adaptivePolicy());
+        assertEquals(100, tuner.batchSize());
+
+        // 每批耗时低于目标时按初始数量的1/4增加,不超过最大数量
+        tuner.onBatch(100, FAST, true);
+        assertEquals(125, tuner.batchSize());
+        for (int i = 0; i < 10; i++) {
+            tuner.onBatch(tuner.batchSize(), FAST, true);
+        }
+        assertEquals(200, tuner.batchSize());
+
+        // 超过目标耗时减半,小于当前数量的批次不触发减小
+        tuner.onBatch(200, SLOW, true);
+        assertEquals(100, tuner.batchSize());
+        tuner.onBatch(50, SLOW, true);
+        assertEquals(100, tuner.batchSize());
+        tuner.onBatch(100, FAST, false);
+        assertEquals(50, tuner.batchSize());
+        for (int i = 0; i < 10; i++) {
+            tuner.onBatch(tuner.batchSize(), SLOW, true);
+        }
+        assertEquals(10, tuner.batchSize());
+    }
+
+    @Test
+    void parallelismGrowsWithThroughputAndShrinksWhenOverloaded() {
+        BatchTuner tuner = new BatchTuner(100, 4, adaptivePolicy());
+        assertEquals(6, tuner.maxParallelism());
+        assertEquals(4, tuner.parallelism());
+
+        // 吞吐量提升时每轮增加1,不超过最大并发数
+        window(tuner, 1, FAST, true);
+        assertEquals(5, tuner.parallelism());
+        window(tuner, 1_000_000, FAST, true);
+        assertEquals(6, tuner.parallelism());
+        window(tuner, 1_000_000_000, FAST, true);
+        assertEquals(6, tuner.parallelism());
+
+        // 本轮有耗时超过目标2倍或失败的批次时减小为3/4
+        window(tuner, 1, OVERLOADED, true);
+        assertEquals(4, tuner.parallelism());
+        window(tuner, 1, FAST, false);
+        assertEquals(3, tuner.parallelism());
+    }
+
+    @Test
+    void fixedModeIgnoresLatency() {
+        BatchTuner tuner = new BatchTuner(100, 4, BatchPolicy.noRetry());
+        for (int i = 0; i < 20; i++) {
+            tuner.onBatch(100, i % 2 == 0 ? FAST : OVERLOADED, i % 3 != 0);
+        }
+
+        assertEquals(100, tuner.batchSize());
+        assertEquals(4, tuner.parallelism());
+        assertEquals(4, tuner.maxParallelism());
+    }
+
+    @Test
+    void acquireWaitsForFreeSlot() throws Exception {
+        BatchTuner tuner = new BatchTuner(100, 1, BatchPolicy.noRetry());
+        tuner.acquire();
+        CompletableFuture<Void> waiting = CompletableFuture.runAsync(() -> {
+            try {
+                tuner.acquire();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(waiting.isDone());
+
+        tuner.release();
+        waiting.get(5, TimeUnit.SECONDS);
+        tuner.release();
+    }
+}
@@ -0,0 +1,240 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchUtilsTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final String logDirPath = LogUtils.LOG_DIR_PATH;
+
+    @AfterEach
+    void tearDown() {
+        BatchUtils.setExecutor(null);
+        new LogUtils().destroy();
+        LogUtils.LOG_DIR_PATH = logDirPath;
+    }
+
+    private static Iterator<Integer> failingSource(int rows) {
+        return new Iterator<Integer>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public Integer next() {
+                if (next == rows) {
+                    throw new IllegalStateException("source broken");
+                }
+                return next++;
+            }
+        };
+    }
+
+    @Test
+    void pipelineReportsSourceFailureAfterDrainingWorkers() {
+        List<Integer> processed = Collections.synchronizedList(new ArrayList<>());
+        BatchReport report = BatchUtils.batchProcess(failingSource(5), 2, 2, BatchPolicy.noRetry(), datas -> {
+            Thread.sleep(50);
+            processed.addAll(datas);
+        });
+
+        assertTrue(report.isAborted());
+        assertTrue(report.getAbortError().contains("source broken"));
+        assertInstanceOf(IllegalStateException.class, report.getAbortCause());
+        assertEquals(5, report.getRows());
+        assertEquals(3, report.getSucceededBatches());
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), processed.stream().sorted().collect(Collectors.toList()));
+    }
+
+    @Test
+    void pipelineRethrowsSourceFailureWhenReturningRows() {
+        AtomicInteger processed = new AtomicInteger();
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> BatchUtils.batchProcess(failingSource(5), 2, 2, datas -> processed.addAndGet(datas.size())));
+
+        assertEquals("source broken", e.getMessage());
+        assertEquals(5, processed.get());
+    }
+
+    @Test
+    void listReportsSubmitFailureAfterRunningBatchesFinish() {
+        ExecutorService rejecting = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<>()) {
+            private final AtomicInteger submitted = new AtomicInteger();
+
+            @Override
+            public void execute(Runnable command) {
+                if (submitted.incrementAndGet() > 2) {
+                    throw new RejectedExecutionException("executor saturated");
+                }
+                super.execute(command);
+            }
+        };
+        BatchUtils.setExecutor(rejecting);
+        AtomicInteger finished = new AtomicInteger();
+        List<Integer> rows = IntStream.range(0, 5).boxed().collect(Collectors.toList());
+        BatchReport report = BatchUtils.batchProcess(rows, 1, 4, BatchPolicy.noRetry(), datas -> {
+            Thread.sleep(100);
+            finished.incrementAndGet();
+        });
+
+        assertEquals(2, finished.get());
+        assertTrue(report.isAborted());
+        assertTrue(report.getAbortError().contains("executor saturated"));
+        assertEquals(2, report.getSucceededBatches());
+        rejecting.shutdown();
+    }
+
+    private static ExecutorService namedExecutor(String prefix) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> new Thread(runnable, prefix + threadNumber.incrementAndGet()));
+    }
+
+    @Test
+    void batchesRunOnConfiguredExecutor() {
+        ExecutorService executor = namedExecutor("custom-");
+        BatchUtils.setExecutor(executor);
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        List<Integer> rows = IntStream.range(0, 20).boxed().collect(Collectors.toList());
+        BatchUtils.batchProcess(rows, 2, 3, datas -> threads.add(Thread.currentThread().getName()));
+        BatchUtils.batchProcess(rows.iterator(), 2, 3, datas -> threads.add(Thread.currentThread().getName()));
+
+        assertFalse(threads.isEmpty());
+        assertTrue(threads.stream().allMatch(name -> name.startsWith("custom-")), threads.toString());
+        executor.shutdown();
+    }
+
+    @Test
+    void timedOutAttemptIsInterruptedOnWorkerThread() {
+        BatchPolicy policy = BatchPolicy.noRetry();
+        policy.setMaxAttempts(2);
+        policy.setInitialBackoffMillis(0);
+        policy.setTimeoutMillis(50);
+        List<Thread> attempts = Collections.synchronizedList(new ArrayList<>());
+        List<Boolean> interruptedAfterTimeout = new ArrayList<>();
+        long startNanos = System.nanoTime();
+        BatchReport report = BatchUtils.batchProcess(Arrays.asList(0, 1), 1, 1, policy, datas -> {
+            if (datas.get(0) == 0) {
+                attempts.add(Thread.currentThread());
+                Thread.sleep(10_000);
+            } else {
+                interruptedAfterTimeout.add(Thread.currentThread().isInterrupted());
+            }
+        });
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) < 5_000);
+        // 超时的处理在原线程中被中断,重试在同一线程中执行
+        assertEquals(Arrays.asList(Thread.currentThread(), Thread.currentThread()), attempts);
+        assertEquals(2, report.getTimeouts());
+        assertEquals(1, report.getRetries());
+        assertEquals(1, report.getFailedBatches());
+        assertEquals(1, report.getSucceededBatches());
+        assertEquals(Collections.singletonList(false), interruptedAfterTimeout);
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    void attemptIgnoringInterruptSucceedsAfterTimeout() {
+        BatchPolicy policy = BatchPolicy.noRetry();
+        policy.setMaxAttempts(2);
+        policy.setTimeoutMillis(20);
+        AtomicInteger attempts = new AtomicInteger();
+        BatchReport report = BatchUtils.batchProcess(Collections.singletonList(0), 1, 2, policy, datas -> {
+            attempts.incrementAndGet();
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(150);
+            while (System.nanoTime() < deadline) {
+                Thread.onSpinWait();
+            }
+        });
+
+        assertEquals(1, attempts.get());
+        assertEquals(1, report.getTimeouts());
+        assertEquals(0, report.getRetries());
+        assertEquals(1, report.getSucceededBatches());
+    }
+
+    @Test
+    void failingBatchIsRetriedWithBackoff() {
+        BatchPolicy policy = new BatchPolicy();
+        policy.setMaxAttempts(3);
+        policy.setInitialBackoffMillis(30);
+        policy.setBackoffMultiplier(2);
+        AtomicInteger attempts = new AtomicInteger();
+        long startNanos = System.nanoTime();
+        BatchReport report = BatchUtils.batchProcess(Arrays.asList(1, 2), 2, 1, policy, datas -> {
+            if (attempts.incrementAndGet() <= 2) {
+                throw new IllegalStateException("attempt " + attempts.get());
+            }
+        });
+
+        // 两次重试前分别等待30毫秒、60毫秒
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) >= 90);
+        assertEquals(3, attempts.get());
+        assertEquals(2, report.getRetries());
+        assertEquals(1, report.getSucceededBatches());
+        assertEquals(0, report.getFailedBatches());
+        assertNull(report.getFirstError());
+    }
+
+    @Test
+    void batchFailsAfterMaxAttempts() {
+        BatchPolicy policy = new BatchPolicy();
+        policy.setMaxAttempts(3);
+        policy.setInitialBackoffMillis(0);
+        AtomicInteger attempts = new AtomicInteger();
+        BatchReport report = BatchUtils.batchProcess(Arrays.asList(1, 2, 3), 2, 2, policy, datas -> {
+            if (datas.contains(1)) {
+                attempts.incrementAndGet();
+                throw new IllegalStateException("always broken");
+            }
+        });
+
+        assertEquals(3, attempts.get());
+        assertEquals(2, report.getRetries());
+        assertEquals(2, report.getBatches());
+        assertEquals(1, report.getSucceededBatches());
+        assertEquals(1, report.getFailedBatches());
+        assertEquals(2, report.getFailedRows());
+        assertTrue(report.getFirstError().contains("always broken"));
+    }
+
+    @Test
+    void failedBatchesAreDeadLetteredAndReplayed() throws IOException {
+        LogUtils.LOG_DIR_PATH = tempDir.toString();
+        BatchPolicy policy = BatchPolicy.noRetry();
+        policy.setDeadLetterLogName("dead");
+        List<Integer> rows = IntStream.range(0, 10).boxed().collect(Collectors.toList());
+        BatchReport report = BatchUtils.batchProcess(rows, 2, 2, policy, datas -> {
+            if (datas.contains(4) || datas.contains(7)) {
+                throw new IllegalStateException("rejected");
+            }
+        });
+        LogUtils.flushLogs();
+
+        assertEquals(2, report.getFailedBatches());
+        assertEquals(4, report.getDeadLetterRows());
+        List<Integer> replayed = Collections.synchronizedList(new ArrayList<>());
+        BatchPolicy replayPolicy = BatchPolicy.noRetry();
+        replayPolicy.setDeadLetterLogName("dead-again");
+        BatchReport replayReport = BatchUtils.<Integer>replayDeadLetters("dead", 3, 2, replayPolicy, replayed::addAll);
+        assertEquals(4, replayReport.getRows());
+        assertEquals(0, replayReport.getFailedBatches());
+        assertEquals(Arrays.asList(4, 5, 6, 7), replayed.stream().sorted().collect(Collectors.toList()));
+    }
+}
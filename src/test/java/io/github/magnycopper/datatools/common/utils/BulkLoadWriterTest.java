@@ -0,0 +1,127 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BulkLoadWriterTest {
+
+    private static final List<String> COLUMNS = Arrays.asList("id", "text", "bin");
+
+    @TempDir
+    Path tempDir;
+
+    private static Map<String, Object> row(Object id, Object text, Object bin) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("id", id);
+        row.put("text", text);
+        row.put("bin", bin);
+        return row;
+    }
+
+    private static List<Map<String, Object>> specialRows() {
+        return Arrays.asList(
+                row(1, "a\tb\nc\\d\"e'\rf", null),
+                row(2, "", new byte[]{0, '\t', 'A', (byte) 0xFF}),
+                row(3, "\uD83D\uDE00中", null),
+                row(4L, null, new byte[0]),
+                row(true, "lone\uD83Dsurrogate", null));
+    }
+
+    private static byte[] bytes(Object... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Object part : parts) {
+            byte[] data = part instanceof byte[] ? (byte[]) part : part.toString().getBytes(StandardCharsets.UTF_8);
+            out.write(data, 0, data.length);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    void writesMySQLEscapes() throws IOException {
+        BulkLoadWriter writer = new BulkLoadWriter(tempDir, "t_demo", BulkLoadWriter.Dialect.MYSQL, COLUMNS, 0);
+        writer.write(specialRows());
+        writer.close();
+
+        Path file = tempDir.resolve("t_demo-00001.tsv");
+        assertEquals(Collections.singletonList(file), writer.getFiles());
+        assertEquals(5, writer.getRows());
+        assertArrayEquals(bytes(
+                "1\ta\\tb\\nc\\\\d\"e'\\rf\t\\N\n",
+                "2\t\t\\0\\tA", new byte[]{(byte) 0xFF}, "\n",
+                "3\t", new byte[]{(byte) 0xF0, (byte) 0x9F, (byte) 0x98, (byte) 0x80, (byte) 0xE4, (byte) 0xB8, (byte) 0xAD}, "\t\\N\n",
+                "4\t\\N\t\n",
+                "1\tlone?surrogate\t\\N\n"), Files.readAllBytes(file));
+        assertEquals(Collections.singletonList("LOAD DATA LOCAL INFILE '" + file.toAbsolutePath() + "' INTO TABLE t_demo CHARACTER SET utf8mb4 "
+                + "FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n' (id,text,bin)"), writer.getLoadStatements());
+    }
+
+    @Test
+    void writesPostgreSQLCsv() throws IOException {
+        BulkLoadWriter writer = new BulkLoadWriter(tempDir, "public.t_demo", BulkLoadWriter.Dialect.POSTGRESQL, COLUMNS, 0);
+        writer.write(specialRows());
+        writer.close();
+
+        Path file = tempDir.resolve("public.t_demo-00001.csv");
+        assertEquals(Collections.singletonList(file), writer.getFiles());
+        assertArrayEquals(bytes(
+                "1,\"a\tb\nc\\d\"\"e'\rf\",\n",
+                "2,\"\",\"\\x000941ff\"\n",
+                "3,\"\uD83D\uDE00中\",\n",
+                "4,,\"\\x\"\n",
+                "true,\"lone?surrogate\",\n"), Files.readAllBytes(file));
+        assertEquals(Collections.singletonList("COPY public.t_demo (id,text,bin) FROM STDIN WITH (FORMAT csv, DELIMITER ',', QUOTE '\"', NULL '', ENCODING 'UTF8')"),
+                writer.getLoadStatements());
+    }
+
+    @Test
+    void rotatesFilesAtRowBoundary() throws IOException {
+        BulkLoadWriter writer = new BulkLoadWriter(tempDir, "t_demo", BulkLoadWriter.Dialect.MYSQL, COLUMNS, 20);
+        for (int i = 1; i <= 5; i++) {
+            writer.write(row(i, "row-" + i, null));
+        }
+        writer.close();
+
+        List<Path> files = writer.getFiles();
+        assertEquals(Arrays.asList(tempDir.resolve("t_demo-00001.tsv"), tempDir.resolve("t_demo-00002.tsv"), tempDir.resolve("t_demo-00003.tsv")), files);
+        assertEquals("1\trow-1\t\\N\n2\trow-2\t\\N\n", new String(Files.readAllBytes(files.get(0)), StandardCharsets.UTF_8));
+        assertEquals("3\trow-3\t\\N\n4\trow-4\t\\N\n", new String(Files.readAllBytes(files.get(1)), StandardCharsets.UTF_8));
+        assertEquals("5\trow-5\t\\N\n", new String(Files.readAllBytes(files.get(2)), StandardCharsets.UTF_8));
+        List<String> statements = writer.getLoadStatements();
+        assertEquals(3, statements.size());
+        for (int i = 0; i < files.size(); i++) {
+            assertTrue(statements.get(i).startsWith("LOAD DATA LOCAL INFILE '" + files.get(i).toAbsolutePath() + "' INTO TABLE t_demo "));
+        }
+    }
+
+    @Test
+    void discardsFailedRow() throws IOException {
+        Object broken = new Object() {
+            @Override
+            public String toString() {
+                throw new IllegalStateException("broken value");
+            }
+        };
+        char[] large = new char[3 * 1024 * 1024];
+        Arrays.fill(large, 'x');
+        BulkLoadWriter writer = new BulkLoadWriter(tempDir, "t_demo", BulkLoadWriter.Dialect.MYSQL, COLUMNS, 0);
+        writer.write(row(1, "a", null));
+        // 行内容仍在缓冲区中
+        assertThrows(IllegalStateException.class, () -> writer.write(row(2, "b", broken)));
+        // 行内容已有部分写入文件
+        assertThrows(IllegalStateException.class, () -> writer.write(row(3, new String(large), broken)));
+        writer.write(row(4, "d", null));
+        writer.close();
+
+        assertEquals(2, writer.getRows());
+        assertEquals("1\ta\t\\N\n4\td\t\\N\n", new String(Files.readAllBytes(tempDir.resolve("t_demo-00001.tsv")), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,120 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiffBucketStoreTest {
+
+    private static final String[] KEYS = {"id"};
+
+    @TempDir
+    Path tempDir;
+
+    private static Map<String, Object> typedRow(int id) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("id", id);
+        row.put("null", null);
+        row.put("string", "值-" + id);
+        row.put("long", 1L << 40);
+        row.put("double", 1.5d);
+        row.put("float", 2.5f);
+        row.put("boolean", true);
+        row.put("decimal", new BigDecimal("12345678901234567890.000123"));
+        row.put("bigint", new BigInteger("-98765432109876543210"));
+        Timestamp timestamp = new Timestamp(1665000000123L);
+        timestamp.setNanos(123456789);
+        row.put("timestamp", timestamp);
+        row.put("sqlDate", new java.sql.Date(1665000000000L));
+        row.put("date", new Date(1665000000456L));
+        row.put("localDate", LocalDate.of(2022, 10, 6));
+        row.put("localDateTime", LocalDateTime.of(2022, 10, 6, 12, 30, 45, 999));
+        row.put("localTime", LocalTime.of(23, 59, 59, 1));
+        row.put("bytes", new byte[]{0, 1, (byte) 0xFF});
+        row.put("short", (short) 7);
+        row.put("byte", (byte) -1);
+        row.put("uuid", new UUID(id, id));
+        return row;
+    }
+
+    private static void assertSameNode(DiffUtils.Node expected, DiffUtils.Node actual) {
+        assertEquals(expected.getKeyHash(), actual.getKeyHash());
+        assertArrayEquals(expected.getKeyBytes(), actual.getKeyBytes());
+        assertEquals(expected.getValueDigestLow(), actual.getValueDigestLow());
+        assertEquals(expected.getValueDigestHigh(), actual.getValueDigestHigh());
+        assertArrayEquals(expected.getIgnoreFields(), actual.getIgnoreFields());
+        Map<String, Object> expectedData = expected.getData();
+        Map<String, Object> actualData = actual.getData();
+        assertEquals(expectedData.keySet(), actualData.keySet());
+        for (String field : expectedData.keySet()) {
+            if (expectedData.get(field) instanceof byte[]) {
+                assertArrayEquals((byte[]) expectedData.get(field), (byte[]) actualData.get(field), field);
+            } else {
+                assertEquals(expectedData.get(field), actualData.get(field), field);
+            }
+        }
+    }
+
+    @Test
+    void rowCodecRoundTripsEveryValueType() throws IOException {
+        DiffSchema schema = new DiffSchema();
+        // 先登记一个数据中不存在的列,解码后仍应不存在
+        schema.intern("absent");
+        DiffUtils.Node node = new DiffUtils.Node("codec", DiffUtils.DataType.SOURCE, schema, KEYS, typedRow(1), new String[]{"float"});
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DiffRowCodec.writeNode(new DataOutputStream(bytes), node);
+
+        DiffUtils.Node decoded = DiffRowCodec.readNode(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), "codec", DiffUtils.DataType.SOURCE, schema);
+
+        assertSameNode(node, decoded);
+        assertFalse(decoded.getData().containsKey("absent"));
+        assertTrue(decoded.getData().containsKey("null"));
+        assertTrue(decoded.sameKey(node));
+        assertTrue(decoded.sameValues(node, new String[]{"float"}));
+    }
+
+    @Test
+    void spilledBucketsReadBackInWriteOrder() throws IOException {
+        DiffBucketStore store = new DiffBucketStore(tempDir, 10);
+        DiffSchema schema = new DiffSchema();
+        List<DiffUtils.Node> nodes = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            nodes.add(new DiffUtils.Node("spill", DiffUtils.DataType.SOURCE, schema, KEYS, typedRow(i), new String[0]));
+            // 每次写入5条,超过内存预算后溢写到分段文件
+            if (nodes.size() % 5 == 0) {
+                store.writeToBucket(Collections.singletonMap("3", new ArrayList<>(nodes.subList(nodes.size() - 5, nodes.size()))));
+            }
+        }
+        try (Stream<Path> files = Files.walk(tempDir)) {
+            assertTrue(files.anyMatch(Files::isRegularFile), "数据应已溢写到分段文件");
+        }
+
+        List<DiffUtils.Node> read = store.readFromBucket("spill", DiffUtils.DataType.SOURCE, 3);
+
+        assertEquals(nodes.size(), read.size());
+        for (int i = 0; i < nodes.size(); i++) {
+            assertSameNode(nodes.get(i), read.get(i));
+        }
+        assertEquals(Collections.emptyList(), store.readFromBucket("spill", DiffUtils.DataType.TARGET, 3));
+
+        store.cleanBucket("spill");
+        assertEquals(Collections.emptyList(), store.readFromBucket("spill", DiffUtils.DataType.SOURCE, 3));
+        try (Stream<Path> files = Files.walk(tempDir)) {
+            assertEquals(Collections.emptyList(), files.filter(Files::isRegularFile).collect(Collectors.toList()));
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiffUtilsTest {
+
+    private static final List<String> KEYS = Collections.singletonList("id");
+
+    @TempDir
+    Path tempDir;
+
+    private final List<DiffUtils> instances = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        instances.forEach(DiffUtils::destroy);
+    }
+
+    private DiffUtils newDiffUtils(int partitionIndex, int partitionCount) {
+        DiffUtils diffUtils = new DiffUtils();
+        ReflectionTestUtils.setField(diffUtils, "BUCKETS", 0);
+        ReflectionTestUtils.setField(diffUtils, "MAX_BUCKETS", 16);
+        ReflectionTestUtils.setField(diffUtils, "ROWS_PER_BUCKET", 500L);
+        ReflectionTestUtils.setField(diffUtils, "PARALLELISM", 2);
+        ReflectionTestUtils.setField(diffUtils, "SPLIT_THRESHOLD", 400);
+        ReflectionTestUtils.setField(diffUtils, "MEM_BUDGET_ROWS", 1000000L);
+        ReflectionTestUtils.setField(diffUtils, "SPILL_DIR_PATH", tempDir.resolve("spill-" + partitionIndex).toString());
+        ReflectionTestUtils.setField(diffUtils, "SNAPSHOT_DIR_PATH", tempDir.resolve("snapshot").toString());
+        ReflectionTestUtils.setField(diffUtils, "PARTITION_INDEX", partitionIndex);
+        ReflectionTestUtils.setField(diffUtils, "PARTITION_COUNT", partitionCount);
+        ReflectionTestUtils.setField(diffUtils, "PARTITION_DIR_PATH", tempDir.resolve("partition").toString());
+        ReflectionTestUtils.setField(diffUtils, "RESULT_CHUNK_SIZE", 100);
+        diffUtils.init();
+        instances.add(diffUtils);
+        return diffUtils;
+    }
+
+    private static List<Map<String, Object>> rows(int from, int to, int changeEvery) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("id", i);
+            row.put("name", "name-" + i);
+            row.put("amount", i % changeEvery == 0 ? i + 1 : i);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static Map<String, Object> row(int id, String name, int amount) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("id", id);
+        row.put("name", name);
+        row.put("amount", amount);
+        return row;
+    }
+
+    private static DiffUtils.DiffSink collect(Map<DiffUtils.ResultType, List<Map<String, Object>>> results) {
+        return (resultType, datas) -> {
+            synchronized (results) {
+                results.computeIfAbsent(resultType, type -> new ArrayList<>()).addAll(datas);
+            }
+        };
+    }
+
+    private static List<Object> ids(Map<DiffUtils.ResultType, List<Map<String, Object>>> results, DiffUtils.ResultType resultType) {
+        return results.getOrDefault(resultType, Collections.emptyList()).stream()
+                .map(row -> row.get("id"))
+                .sorted(Comparator.comparing(Object::toString))
+                .collect(Collectors.toList());
+    }
+
+    private static void load(DiffUtils diffUtils, String taskId) {
+        diffUtils.addToMemBucket(taskId, DiffUtils.DataType.SOURCE, KEYS, rows(0, 3000, Integer.MAX_VALUE));
+        diffUtils.addToMemBucket(taskId, DiffUtils.DataType.TARGET, KEYS, rows(500, 3500, 7));
+    }
+
+    @Test
+    void mergedPartitionSummariesMatchSingleProcessDiff() throws Exception {
+        DiffUtils single = newDiffUtils(0, 1);
+        load(single, "single");
+        Map<DiffUtils.ResultType, List<Map<String, Object>>> expectedRows = new EnumMap<>(DiffUtils.ResultType.class);
+        DiffSummary expected = single.memDiff("single", collect(expectedRows));
+        assertNull(expected.getError());
+        assertEquals(6000, expected.getRows());
+        assertTrue(expected.getMoreCount() > 0 && expected.getDiffCount() > 0 && expected.getLessCount() > 0);
+
+        int partitionCount = 3;
+        long[] partitionRows = new long[partitionCount];
+        for (Map<String, Object> row : rows(0, 3500, Integer.MAX_VALUE)) {
+            DiffUtils.Node node = new DiffUtils.Node("check", DiffUtils.DataType.SOURCE, new DiffSchema(), KEYS.toArray(new String[0]), row, new String[0]);
+            partitionRows[DiffUtils.partitionOf(node.getKeyHash(), partitionCount)]++;
+        }
+        DiffUtils coordinator = null;
+        Map<DiffUtils.ResultType, List<Map<String, Object>>> partitionedRows = new EnumMap<>(DiffUtils.ResultType.class);
+        for (int i = 0; i < partitionCount; i++) {
+            DiffUtils partition = newDiffUtils(i, partitionCount);
+            coordinator = coordinator == null ? partition : coordinator;
+            load(partition, "partitioned");
+            Map<DiffUtils.ResultType, List<Map<String, Object>>> results = new EnumMap<>(DiffUtils.ResultType.class);
+            DiffSummary summary = partition.memDiff("partitioned", collect(results));
+            assertNull(summary.getError());
+            assertEquals(i, summary.getPartitionIndex());
+            assertTrue(partitionRows[i] > 0);
+            results.forEach((resultType, datas) -> partitionedRows.computeIfAbsent(resultType, type -> new ArrayList<>()).addAll(datas));
+        }
+        DiffSummary merged = coordinator.awaitPartitions("partitioned", 10000);
+
+        assertNull(merged.getError());
+        assertEquals(partitionCount, merged.getPartitions().size());
+        assertEquals(expected.getRows(), merged.getRows());
+        assertEquals(expected.getMoreCount(), merged.getMoreCount());
+        assertEquals(expected.getDiffCount(), merged.getDiffCount());
+        assertEquals(expected.getLessCount(), merged.getLessCount());
+        for (DiffUtils.ResultType resultType : DiffUtils.ResultType.values()) {
+            assertEquals(ids(expectedRows, resultType), ids(partitionedRows, resultType), resultType.name());
+        }
+    }
+
+    @Test
+    void bucketFailureIsReportedInSummary() {
+        DiffUtils diffUtils = newDiffUtils(0, 1);
+        DiffBucketStore store = new DiffBucketStore(tempDir.resolve("failing"), 1000000L);
+        diffUtils.addToBucket("failing", DiffUtils.DataType.SOURCE, KEYS, rows(0, 3000, Integer.MAX_VALUE), store);
+        diffUtils.addToBucket("failing", DiffUtils.DataType.TARGET, KEYS, rows(500, 3500, 7), store);
+        DiffSummary summary = diffUtils.diff("failing", (resultType, datas) -> {
+        }, (taskId, dataType, bucketNum) -> {
+            if (bucketNum == 1) {
+                throw new IllegalStateException("bucket unavailable");
+            }
+            return store.readFromBucket(taskId, dataType, bucketNum);
+        }, store);
+
+        assertNotNull(summary.getError());
+        assertTrue(summary.getError().contains("bucket unavailable"));
+    }
+
+    @Test
+    void singleChangedColumnGivesOneColumnUpdate() throws Exception {
+        List<Map<String, Object>> target = Arrays.asList(row(1, "a", 10), row(2, "b", 20), row(3, "c", 30));
+        List<Map<String, Object>> source = Arrays.asList(row(1, "a", 10), row(2, "b", 21), row(3, "c", 30));
+
+        DiffUtils diffUtils = newDiffUtils(0, 1);
+        diffUtils.addToMemBucket("columns", DiffUtils.DataType.SOURCE, KEYS, source);
+        diffUtils.addToMemBucket("columns", DiffUtils.DataType.TARGET, KEYS, target);
+        Map<DiffUtils.ResultType, List<Map<String, Object>>> memResults = new EnumMap<>(DiffUtils.ResultType.class);
+        diffUtils.memDiff("columns", collect(memResults));
+
+        Map<DiffUtils.ResultType, List<Map<String, Object>>> firstRun = new EnumMap<>(DiffUtils.ResultType.class);
+        diffUtils.snapshotDiff("columns", KEYS, target.iterator(), collect(firstRun));
+        assertEquals(3, firstRun.get(DiffUtils.ResultType.MORE).size());
+        Map<DiffUtils.ResultType, List<Map<String, Object>>> snapshotResults = new EnumMap<>(DiffUtils.ResultType.class);
+        diffUtils.snapshotDiff("columns", KEYS, source.iterator(), collect(snapshotResults));
+
+        for (Map<DiffUtils.ResultType, List<Map<String, Object>>> results : Arrays.asList(memResults, snapshotResults)) {
+            assertEquals(Collections.singleton(DiffUtils.ResultType.DIFF), results.keySet());
+            Map<String, Object> changed = results.get(DiffUtils.ResultType.DIFF).get(0);
+            assertEquals(1, results.get(DiffUtils.ResultType.DIFF).size());
+            assertEquals(Collections.singleton("amount"), ((DiffUtils.ChangedRow) changed).getChangedFields());
+            assertEquals("UPDATE t_demo SET amount = ? WHERE id = ?", SQLUtils.getUpdateSQL("t_demo", changed, KEYS));
+            assertArrayEquals(new Object[]{21, 2}, SQLUtils.getUpdateValues(changed, KEYS));
+        }
+    }
+
+    @Test
+    void memDiffReportsMoreDiffAndLessRows() {
+        DiffUtils diffUtils = newDiffUtils(0, 1);
+        diffUtils.addToMemBucket("rows", DiffUtils.DataType.SOURCE, KEYS, Arrays.asList(row(1, "a", 10), row(2, "b", 20), row(3, "c", 30)));
+        diffUtils.addToMemBucket("rows", DiffUtils.DataType.TARGET, KEYS, Arrays.asList(row(2, "b", 20), row(3, "c", 31), row(4, "d", 40)));
+        Map<DiffUtils.ResultType, List<Map<String, Object>>> results = new EnumMap<>(DiffUtils.ResultType.class);
+        DiffSummary summary = diffUtils.memDiff("rows", collect(results));
+
+        assertEquals(Collections.singletonList(1), ids(results, DiffUtils.ResultType.MORE));
+        assertEquals(Collections.singletonList(3), ids(results, DiffUtils.ResultType.DIFF));
+        assertEquals(Collections.singletonList(4), ids(results, DiffUtils.ResultType.LESS));
+        // 差异数据为source的数据
+        assertEquals(30, results.get(DiffUtils.ResultType.DIFF).get(0).get("amount"));
+        assertEquals(row(4, "d", 40), new HashMap<>(results.get(DiffUtils.ResultType.LESS).get(0)));
+        assertEquals(1, summary.getMoreCount());
+        assertEquals(1, summary.getDiffCount());
+        assertEquals(1, summary.getLessCount());
+    }
+
+    @Test
+    void duplicateTargetKeysGiveOneDiffPerDifferingTarget() {
+        DiffUtils diffUtils = newDiffUtils(0, 1);
+        diffUtils.addToMemBucket("duplicates", DiffUtils.DataType.SOURCE, KEYS, Arrays.asList(row(1, "a", 10), row(2, "b", 20)));
+        diffUtils.addToMemBucket("duplicates", DiffUtils.DataType.TARGET, KEYS,
+                Arrays.asList(row(1, "a", 11), row(1, "a", 12), row(1, "a", 10), row(2, "b", 20), row(2, "b", 20)));
+        Map<DiffUtils.ResultType, List<Map<String, Object>>> results = new EnumMap<>(DiffUtils.ResultType.class);
+        diffUtils.memDiff("duplicates", collect(results));
+
+        // 与source一致的重复目标数据不输出,全部重复目标数据均已匹配
+        assertEquals(Arrays.asList(1, 1), ids(results, DiffUtils.ResultType.DIFF));
+        assertEquals(Collections.emptyList(), ids(results, DiffUtils.ResultType.MORE));
+        assertEquals(Collections.emptyList(), ids(results, DiffUtils.ResultType.LESS));
+    }
+
+    @Test
+    void spillingStoreGivesSameResultsAsMemDiff() {
+        DiffUtils diffUtils = newDiffUtils(0, 1);
+        load(diffUtils, "memory");
+        Map<DiffUtils.ResultType, List<Map<String, Object>>> expected = new EnumMap<>(DiffUtils.ResultType.class);
+        diffUtils.memDiff("memory", collect(expected));
+
+        DiffBucketStore store = new DiffBucketStore(tempDir.resolve("spilled"), 100);
+        diffUtils.addToBucket("spilled", DiffUtils.DataType.SOURCE, KEYS, rows(0, 3000, Integer.MAX_VALUE), store);
+        diffUtils.addToBucket("spilled", DiffUtils.DataType.TARGET, KEYS, rows(500, 3500, 7), store);
+        Map<DiffUtils.ResultType, List<Map<String, Object>>> actual = new EnumMap<>(DiffUtils.ResultType.class);
+        DiffSummary summary = diffUtils.diff("spilled", collect(actual), store, store);
+
+        assertNull(summary.getError());
+        for (DiffUtils.ResultType resultType : DiffUtils.ResultType.values()) {
+            assertFalse(ids(expected, resultType).isEmpty());
+            assertEquals(ids(expected, resultType), ids(actual, resultType), resultType.name());
+        }
+    }
+
+    @Test
+    void mergeDiffMatchesMemDiffForPresortedAndUnsortedInput() throws Exception {
+        DiffUtils diffUtils = newDiffUtils(0, 1);
+        ReflectionTestUtils.setField(diffUtils, "MEM_BUDGET_ROWS", 256L);
+        load(diffUtils, "memory");
+        Map<DiffUtils.ResultType, List<Map<String, Object>>> expected = new EnumMap<>(DiffUtils.ResultType.class);
+        diffUtils.memDiff("memory", collect(expected));
+
+        Map<DiffUtils.ResultType, List<Map<String, Object>>> presorted = new EnumMap<>(DiffUtils.ResultType.class);
+        diffUtils.mergeDiff("presorted", KEYS, rows(0, 3000, Integer.MAX_VALUE).iterator(), rows(500, 3500, 7).iterator(), true, collect(presorted));
+
+        List<Map<String, Object>> shuffledSource = rows(0, 3000, Integer.MAX_VALUE);
+        List<Map<String, Object>> shuffledTarget = rows(500, 3500, 7);
+        Collections.shuffle(shuffledSource, new Random(1));
+        Collections.shuffle(shuffledTarget, new Random(2));
+        Map<DiffUtils.ResultType, List<Map<String, Object>>> unsorted = new EnumMap<>(DiffUtils.ResultType.class);
+        diffUtils.mergeDiff("unsorted", KEYS, shuffledSource.iterator(), shuffledTarget.iterator(), false, collect(unsorted));
+
+        for (DiffUtils.ResultType resultType : DiffUtils.ResultType.values()) {
+            assertEquals(ids(expected, resultType), ids(presorted, resultType), resultType.name());
+            assertEquals(ids(expected, resultType), ids(unsorted, resultType), resultType.name());
+        }
+        // 归并按唯一键顺序输出
+        List<Object> moreIds = presorted.get(DiffUtils.ResultType.MORE).stream().map(row -> row.get("id")).collect(Collectors.toList());
+        assertEquals(IntStream.range(0, 500).boxed().collect(Collectors.toList()), moreIds);
+        // 外排序的临时文件已删除
+        try (Stream<Path> files = Files.walk(tempDir.resolve("spill-0"))) {
+            assertEquals(Collections.emptyList(), files.filter(Files::isRegularFile).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void mergeDiffRejectsOutOfOrderPresortedInput() {
+        DiffUtils diffUtils = newDiffUtils(0, 1);
+        List<Map<String, Object>> source = Arrays.asList(row(1, "a", 1), row(3, "c", 3), row(2, "b", 2));
+        List<Map<String, Object>> target = Collections.singletonList(row(1, "a", 1));
+
+        assertThrows(IllegalStateException.class, () -> diffUtils.mergeDiff("disorder", KEYS, source.iterator(), target.iterator(), true, (resultType, datas) -> {
+        }));
+    }
+
+    @Test
+    void snapshotDiffComparesWithPreviousRun() throws Exception {
+        DiffUtils diffUtils = newDiffUtils(0, 1);
+        // 快照索引项外排序时分多批
+        ReflectionTestUtils.setField(diffUtils, "MEM_BUDGET_ROWS", 256L);
+        Map<DiffUtils.ResultType, List<Map<String, Object>>> firstRun = new EnumMap<>(DiffUtils.ResultType.class);
+        diffUtils.snapshotDiff("orders", KEYS, rows(500, 3500, 7).iterator(), collect(firstRun));
+        assertEquals(Collections.singleton(DiffUtils.ResultType.MORE), firstRun.keySet());
+        assertEquals(3000, firstRun.get(DiffUtils.ResultType.MORE).size());
+
+        load(diffUtils, "memory");
+        Map<DiffUtils.ResultType, List<Map<String, Object>>> expected = new EnumMap<>(DiffUtils.ResultType.class);
+        diffUtils.memDiff("memory", collect(expected));
+        Map<DiffUtils.ResultType, List<Map<String, Object>>> secondRun = new EnumMap<>(DiffUtils.ResultType.class);
+        diffUtils.snapshotDiff("orders", KEYS, rows(0, 3000, Integer.MAX_VALUE).iterator(), collect(secondRun));
+
+        for (DiffUtils.ResultType resultType : DiffUtils.ResultType.values()) {
+            assertEquals(ids(expected, resultType), ids(secondRun, resultType), resultType.name());
+        }
+        // 缺少数据仅包含唯一键
+        assertEquals(Collections.singleton("id"), secondRun.get(DiffUtils.ResultType.LESS).get(0).keySet());
+
+        // 第三次与第二次的来源数据一致,没有差异
+        Map<DiffUtils.ResultType, List<Map<String, Object>>> thirdRun = new EnumMap<>(DiffUtils.ResultType.class);
+        diffUtils.snapshotDiff("orders", KEYS, rows(0, 3000, Integer.MAX_VALUE).iterator(), collect(thirdRun));
+        assertEquals(Collections.emptySet(), thirdRun.keySet());
+        try (Stream<Path> files = Files.list(tempDir.resolve("snapshot"))) {
+            assertEquals(Collections.singletonList("orders.snap"), files.map(file -> file.getFileName().toString()).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void failedSnapshotDiffKeepsPreviousSnapshot() throws Exception {
+        DiffUtils diffUtils = newDiffUtils(0, 1);
+        diffUtils.snapshotDiff("orders", KEYS, rows(0, 10, Integer.MAX_VALUE).iterator(), (resultType, datas) -> {
+        });
+
+        assertThrows(IllegalStateException.class, () -> diffUtils.snapshotDiff("orders", KEYS, rows(0, 20, Integer.MAX_VALUE).iterator(), (resultType, datas) -> {
+            throw new IllegalStateException("sink failed");
+        }));
+        try (Stream<Path> files = Files.list(tempDir.resolve("snapshot"))) {
+            assertEquals(Collections.singletonList("orders.snap"), files.map(file -> file.getFileName().toString()).collect(Collectors.toList()));
+        }
+        Map<DiffUtils.ResultType, List<Map<String, Object>>> results = new EnumMap<>(DiffUtils.ResultType.class);
+        diffUtils.snapshotDiff("orders", KEYS, rows(0, 20, Integer.MAX_VALUE).iterator(), collect(results));
+        assertEquals(IntStream.range(10, 20).boxed().collect(Collectors.toSet()), new HashSet<>(ids(results, DiffUtils.ResultType.MORE)));
+        assertEquals(Collections.singleton(DiffUtils.ResultType.MORE), results.keySet());
+    }
+
+    @Test
+    void changedFieldsCoverAddedRemovedAndIgnoredColumns() throws Exception {
+        Map<String, Object> source = row(1, "a2", 10);
+        source.put("updated", "t2");
+        source.put("note", "n");
+        Map<String, Object> target = row(1, "a", 10);
+        // 数值按规范化后的文本比较
+        target.put("amount", 10L);
+        target.put("updated", "t1");
+        target.put("old", "o");
+        Set<String> expected = new HashSet<>(Arrays.asList("name", "note", "old"));
+
+        DiffUtils diffUtils = newDiffUtils(0, 1);
+        diffUtils.addToMemBucket("fields", DiffUtils.DataType.SOURCE, KEYS, Collections.singletonList(source), "updated");
+        diffUtils.addToMemBucket("fields", DiffUtils.DataType.TARGET, KEYS, Collections.singletonList(target), "updated");
+        Map<DiffUtils.ResultType, List<Map<String, Object>>> memResults = new EnumMap<>(DiffUtils.ResultType.class);
+        diffUtils.memDiff("fields", collect(memResults), "updated");
+
+        diffUtils.snapshotDiff("fields", KEYS, Collections.singletonList(target).iterator(), (resultType, datas) -> {
+        }, "updated");
+        Map<DiffUtils.ResultType, List<Map<String, Object>>> snapshotResults = new EnumMap<>(DiffUtils.ResultType.class);
+        diffUtils.snapshotDiff("fields", KEYS, Collections.singletonList(source).iterator(), collect(snapshotResults), "updated");
+
+        Map<DiffUtils.ResultType, List<Map<String, Object>>> mergeResults = new EnumMap<>(DiffUtils.ResultType.class);
+        diffUtils.mergeDiff("fields", KEYS, Collections.singletonList(source).iterator(), Collections.singletonList(target).iterator(), true, collect(mergeResults), "updated");
+
+        for (Map<DiffUtils.ResultType, List<Map<String, Object>>> results : Arrays.asList(memResults, snapshotResults, mergeResults)) {
+            assertEquals(Collections.singleton(DiffUtils.ResultType.DIFF), results.keySet());
+            DiffUtils.ChangedRow changed = (DiffUtils.ChangedRow) results.get(DiffUtils.ResultType.DIFF).get(0);
+            assertEquals(expected, changed.getChangedFields());
+            // target中有而source中没有的字段更新为null
+            assertNull(changed.get("old"));
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogAppenderTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final String logDirPath = LogUtils.LOG_DIR_PATH;
+
+    @AfterEach
+    void restoreLogUtils() {
+        new LogUtils().destroy();
+        LogUtils.LOG_DIR_PATH = logDirPath;
+    }
+
+    private LogAppender appender(Path path, int capacity, long flushIntervalMs) throws IOException {
+        return new LogAppender(path, capacity, 4096, flushIntervalMs, LogAppender.FsyncPolicy.NONE, 0, 0, LogSegments.Compression.NONE);
+    }
+
+    private static List<String> readLines(Path path) throws IOException {
+        return Files.readAllLines(path, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void concurrentCallsStayContiguousAndInOrder() throws Exception {
+        Path path = tempDir.resolve("demo.logx");
+        int threads = 8;
+        int calls = 500;
+        LogAppender appender = appender(path, 16, 1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < calls; i++) {
+                        appender.append(new String[]{thread + "-" + i + "-a", thread + "-" + i + "-b", thread + "-" + i + "-c"});
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        appender.flush();
+
+        List<String> lines = readLines(path);
+        assertEquals(threads * calls * 3, lines.size());
+        int[] nextCall = new int[threads];
+        for (int i = 0; i < lines.size(); i += 3) {
+            String[] parts = lines.get(i).split("-");
+            int thread = Integer.parseInt(parts[0]);
+            assertEquals(nextCall[thread] + "", parts[1], "同一线程的调用按顺序写入");
+            String prefix = parts[0] + "-" + parts[1] + "-";
+            assertEquals(Arrays.asList(prefix + "a", prefix + "b", prefix + "c"), lines.subList(i, i + 3), "同一次调用的日志连续");
+            nextCall[thread]++;
+        }
+        appender.close();
+    }
+
+    @Test
+    void flushWritesQueuedLogsBeforeInterval() throws IOException {
+        Path path = tempDir.resolve("demo.logx");
+        LogAppender appender = appender(path, 1024, 60_000);
+        appender.append(new String[]{"a", "b"});
+        appender.append(new String[]{"c"});
+        // 合并写入间隔未到,日志仍在队列或缓冲区中
+        assertEquals(0, Files.size(path));
+
+        appender.flush();
+        assertEquals(Arrays.asList("a", "b", "c"), readLines(path));
+        appender.close();
+    }
+
+    @Test
+    void closeWritesQueuedLogsAndRejectsAppends() throws IOException {
+        Path path = tempDir.resolve("demo.logx");
+        LogAppender appender = appender(path, 1024, 60_000);
+        appender.append(new String[]{"a", "b"});
+        appender.close();
+
+        assertEquals(Arrays.asList("a", "b"), readLines(path));
+        assertThrows(IllegalStateException.class, () -> appender.append(new String[]{"c"}));
+    }
+
+    @Test
+    void lineBreaksNullsAndOversizedLogsAreWrittenInOrder() throws IOException {
+        Path path = tempDir.resolve("demo.logx");
+        char[] large = new char[10_000];
+        Arrays.fill(large, 'x');
+        LogAppender appender = appender(path, 1024, 1);
+        appender.append(new String[]{"a\r\nb", null, new String(large), "c\n"});
+        appender.append(null);
+        appender.append(new String[]{"d"});
+        appender.close();
+
+        assertEquals(Arrays.asList("ab", "null", new String(large), "c", "d"), readLines(path));
+    }
+
+    @Test
+    void writeLogsAppendsThroughAppender() {
+        LogUtils.LOG_DIR_PATH = tempDir.toString();
+        LogUtils.writeLogs("demo", "a", "b");
+        LogUtils.writeLogs("demo", Arrays.asList("c", "d"));
+        LogUtils.writeLogs("other", "e");
+        LogUtils.flushLogs();
+
+        assertEquals(Arrays.asList("a", "b", "c", "d"), LogUtils.readLogs(tempDir.resolve("demo.logx").toString()));
+        assertEquals(Collections.singletonList("e"), LogUtils.readLogs(tempDir.resolve("other.logx").toString()));
+    }
+}
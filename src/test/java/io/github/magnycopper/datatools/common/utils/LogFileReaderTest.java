@@ -0,0 +1,147 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogFileReaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static List<String> lines(int count) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            lines.add(i % 7 == 0 ? "" : "line-" + i + "-" + "中".repeat(i % 5));
+        }
+        return lines;
+    }
+
+    private Path write(String content) throws IOException {
+        Path path = tempDir.resolve("demo.logx");
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    private static List<String> readAll(LogFileReader.LineCursor cursor) throws IOException {
+        try (cursor) {
+            List<String> lines = new ArrayList<>();
+            cursor.forEachRemaining(lines::add);
+            return lines;
+        }
+    }
+
+    @Test
+    void rangesSplitAtLineBoundaries() throws IOException {
+        List<String> expected = lines(500);
+        Path path = write(String.join("\n", expected) + "\n");
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            List<long[]> ranges = LogFileReader.ranges(channel, 64, false);
+            assertTrue(ranges.size() > 1);
+            byte[] bytes = Files.readAllBytes(path);
+            long start = 0;
+            for (long[] range : ranges) {
+                assertEquals(start, range[0]);
+                assertEquals('\n', bytes[(int) range[1] - 1]);
+                start = range[1];
+            }
+            assertEquals(bytes.length, start);
+        }
+        try (Stream<String> lines = LogFileReader.lines(path, 64, false)) {
+            assertEquals(expected, lines.collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void crlfLineBreaksAreStripped() throws IOException {
+        Path path = write("a\r\nb\n\r\nc\r\n");
+
+        try (Stream<String> lines = LogFileReader.lines(path, 1, false)) {
+            assertEquals(Arrays.asList("a", "b", "", "c"), lines.collect(Collectors.toList()));
+        }
+        assertEquals(Arrays.asList("a", "b", "", "c"), readAll(LogFileReader.cursor(new ByteArrayInputStream(Files.readAllBytes(path)), 0)));
+    }
+
+    @Test
+    void unterminatedTailIsReadOnlyWhenIncluded() throws IOException {
+        Path path = write("a\nb\nc");
+
+        try (Stream<String> lines = LogFileReader.lines(path, 1, false)) {
+            assertEquals(Arrays.asList("a", "b"), lines.collect(Collectors.toList()));
+        }
+        try (Stream<String> lines = LogFileReader.lines(path, 1, true)) {
+            assertEquals(Arrays.asList("a", "b", "c"), lines.collect(Collectors.toList()));
+        }
+        LogFileReader.LineCursor cursor = LogFileReader.cursor(path, 0, false);
+        assertEquals(Arrays.asList("a", "b"), readAll(cursor));
+        assertEquals(4, cursor.position());
+        assertEquals(Arrays.asList("a", "b", "c"), readAll(LogFileReader.cursor(path, 0, true)));
+        assertEquals(Arrays.asList("a", "b", "c"), readAll(LogFileReader.cursor(new ByteArrayInputStream(Files.readAllBytes(path)), 0)));
+    }
+
+    @Test
+    void cursorResumesFromPosition() throws IOException {
+        List<String> expected = lines(100);
+        Path path = write(String.join("\n", expected) + "\n");
+
+        LogFileReader.LineCursor cursor = LogFileReader.cursor(path, 0, false);
+        List<String> head = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            head.add(cursor.next());
+        }
+        long position = cursor.position();
+        cursor.close();
+        assertEquals(expected.subList(0, 40), head);
+
+        assertEquals(expected.subList(40, 100), readAll(LogFileReader.cursor(path, position, false)));
+        assertEquals(expected.subList(40, 100), readAll(LogFileReader.cursor(new ByteArrayInputStream(Files.readAllBytes(path)), position)));
+    }
+
+    @Test
+    void activeLogFileSkipsUnterminatedTailAndRolledSegmentReadsIt() throws Exception {
+        Path path = write("a\nb\nc");
+        String logFilePath = path.toString();
+
+        try (Stream<String> lines = LogUtils.streamLogs(logFilePath)) {
+            assertEquals(Arrays.asList("a", "b"), lines.collect(Collectors.toList()));
+        }
+        List<String> batched = new ArrayList<>();
+        LogUtils.readLogs(logFilePath, 10, batched::addAll);
+        assertEquals(Arrays.asList("a", "b"), batched);
+        LogCheckpoint checkpoint = LogUtils.replayLogs(logFilePath, "tail", 10, logs -> {
+        });
+        assertEquals(2, checkpoint.getLine());
+        assertEquals(4, checkpoint.getOffset());
+
+        // 末尾的行写完后从检查点继续读取
+        Files.write(path, "d\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        List<String> replayed = new ArrayList<>();
+        LogUtils.replayLogs(logFilePath, "tail", 10, replayed::addAll);
+        assertEquals(Arrays.asList("cd"), replayed);
+
+        // 已滚动的分段不再写入,末尾没有换行符的行也读取
+        Files.write(path, "e".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        LogSegments.roll(path, 1, 0, System.currentTimeMillis());
+        try (Stream<String> lines = LogUtils.streamLogs(logFilePath)) {
+            assertEquals(Arrays.asList("a", "b", "cd", "e"), lines.collect(Collectors.toList()));
+        }
+        batched.clear();
+        LogUtils.readLogs(logFilePath, 10, batched::addAll);
+        assertEquals(Arrays.asList("a", "b", "cd", "e"), batched);
+    }
+}
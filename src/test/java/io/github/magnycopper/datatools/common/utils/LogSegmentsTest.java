@@ -0,0 +1,156 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogSegmentsTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static LogAppender appender(Path path, long segmentMaxBytes, long segmentMaxAgeMs, LogSegments.Compression compression) throws IOException {
+        return new LogAppender(path, 1024, 4096, 1, LogAppender.FsyncPolicy.NONE, segmentMaxBytes, segmentMaxAgeMs, compression);
+    }
+
+    private static List<String> write(LogAppender appender, int from, int to) {
+        List<String> lines = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            lines.add("line-" + i);
+            appender.append(new String[]{"line-" + i});
+            // 每次写入后刷新,使分段在多次写入之间滚动
+            appender.flush();
+        }
+        return lines;
+    }
+
+    private static List<String> streamAll(Path path) throws IOException {
+        try (Stream<String> lines = LogUtils.streamLogs(path.toString())) {
+            return lines.collect(Collectors.toList());
+        }
+    }
+
+    private static List<String> readAll(Path path) throws Exception {
+        List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        // 单个分段读取时只有一个区间,批次按写入顺序回调
+        LogUtils.readLogs(path.toString(), 7, lines::addAll);
+        return lines;
+    }
+
+    private static void awaitUntil(Callable<Boolean> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.call()) {
+            assertTrue(System.currentTimeMillis() < deadline, "等待超时");
+            Thread.sleep(10);
+        }
+    }
+
+    private static void assertSegments(Path path, List<LogSegment> closedSegments, long segmentMaxBytes) throws IOException {
+        for (int i = 0; i < closedSegments.size(); i++) {
+            LogSegment segment = closedSegments.get(i);
+            assertEquals(i + 1, segment.getSeq());
+            assertFalse(segment.isActive());
+            assertTrue(segment.getBytes() >= segmentMaxBytes, "分段达到最大字节数后才滚动");
+            assertTrue(segment.getFirstMillis() <= segment.getLastMillis());
+            if (!segment.isCompressed()) {
+                assertEquals(segment.getBytes(), Files.size(LogSegments.resolve(path, segment)));
+            }
+        }
+    }
+
+    @Test
+    void rollsBySizeIntoIndexedSegments() throws Exception {
+        Path path = tempDir.resolve("demo.logx");
+        LogAppender appender = appender(path, 100, 0, LogSegments.Compression.NONE);
+        List<String> expected = write(appender, 0, 60);
+        appender.close();
+
+        List<LogSegment> closedSegments = LogSegments.closedSegments(path);
+        assertTrue(closedSegments.size() >= 3);
+        assertSegments(path, closedSegments, 100);
+        List<String> index = Files.readAllLines(LogSegments.segmentsDir(path).resolve("index.jsonl"), StandardCharsets.UTF_8);
+        assertEquals(closedSegments.size(), index.size());
+        assertEquals(expected, streamAll(path));
+        assertEquals(expected, readAll(path));
+
+        // 重新打开后分段序号接续
+        appender = appender(path, 100, 0, LogSegments.Compression.NONE);
+        expected.addAll(write(appender, 60, 120));
+        appender.close();
+        List<LogSegment> segments = LogUtils.listLogSegments(path.toString());
+        assertSegments(path, LogSegments.closedSegments(path), 100);
+        assertTrue(segments.size() > closedSegments.size() + 2);
+        List<String> bySegment = new ArrayList<>();
+        for (LogSegment segment : segments) {
+            try (Stream<String> lines = LogUtils.streamLogs(path.toString(), segment)) {
+                bySegment.addAll(lines.collect(Collectors.toList()));
+            }
+        }
+        assertEquals(expected, bySegment);
+        assertEquals(expected, streamAll(path));
+    }
+
+    @Test
+    void rolledSegmentsAreCompressed() throws Exception {
+        Path path = tempDir.resolve("demo.logx");
+        LogAppender appender = appender(path, 100, 0, LogSegments.Compression.GZIP);
+        List<String> expected = write(appender, 0, 60);
+        appender.close();
+
+        awaitUntil(() -> LogSegments.closedSegments(path).stream().allMatch(LogSegment::isCompressed));
+        List<LogSegment> closedSegments = LogSegments.closedSegments(path);
+        assertTrue(closedSegments.size() >= 3);
+        assertSegments(path, closedSegments, 100);
+        for (LogSegment segment : closedSegments) {
+            Path segmentPath = LogSegments.resolve(path, segment);
+            assertTrue(LogSegments.isCompressed(segmentPath));
+            assertTrue(Files.exists(segmentPath));
+            assertFalse(Files.exists(LogSegments.segmentsDir(path).resolve(segment.getFileName())));
+        }
+        // 滚动及压缩各追加一行索引,同一分段以最后一行为准
+        List<String> index = Files.readAllLines(LogSegments.segmentsDir(path).resolve("index.jsonl"), StandardCharsets.UTF_8);
+        assertEquals(closedSegments.size() * 2, index.size());
+        assertEquals(expected, streamAll(path));
+        assertEquals(expected, readAll(path));
+    }
+
+    @Test
+    void rollsByAgeAndFiltersByTime() throws Exception {
+        Path path = tempDir.resolve("demo.logx");
+        LogAppender appender = appender(path, 0, 50, LogSegments.Compression.NONE);
+        List<String> expected = new ArrayList<>(List.of("a", "b", "c"));
+        appender.append(expected.toArray(new String[0]));
+        appender.flush();
+        awaitUntil(() -> !LogSegments.closedSegments(path).isEmpty());
+        LogSegment first = LogSegments.closedSegments(path).get(0);
+        Thread.sleep(100);
+        List<String> recent = write(appender, 0, 3);
+        appender.close();
+        expected.addAll(recent);
+
+        assertEquals(expected, streamAll(path));
+        List<LogSegment> segments = LogUtils.listLogSegments(path.toString());
+        assertEquals(first, segments.get(0));
+        try (Stream<String> lines = LogUtils.streamLogs(path.toString(), first)) {
+            assertEquals(expected.subList(0, 3), lines.collect(Collectors.toList()));
+        }
+        try (Stream<String> lines = LogUtils.streamLogs(path.toString(), first.getLastMillis() + 50, Long.MAX_VALUE)) {
+            assertEquals(recent, lines.collect(Collectors.toList()));
+        }
+        try (Stream<String> lines = LogUtils.streamLogs(path.toString(), 0, first.getLastMillis() - 1)) {
+            assertEquals(expected.subList(0, 3), lines.collect(Collectors.toList()));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogUtilsTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static List<String> write(Path path, int from, int to, LogSegments.Compression compression) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (LogAppender appender = new LogAppender(path, 1024, 4096, 1, LogAppender.FsyncPolicy.NONE, 100, 0, compression)) {
+            for (int i = from; i < to; i++) {
+                lines.add("line-" + i);
+                appender.append(new String[]{"line-" + i});
+                appender.flush();
+            }
+        }
+        return lines;
+    }
+
+    private static void awaitCompressed(Path path) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!LogSegments.closedSegments(path).stream().allMatch(LogSegment::isCompressed)) {
+            assertTrue(System.currentTimeMillis() < deadline, "等待压缩超时");
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void replayResumesFromCheckpointAfterFailure() throws Exception {
+        Path path = tempDir.resolve("demo.logx");
+        String logFilePath = path.toString();
+        List<String> expected = write(path, 0, 100, LogSegments.Compression.GZIP);
+        assertTrue(LogSegments.closedSegments(path).size() > 1);
+
+        // 每批不跨分段,第3批处理失败
+        List<String> processed = new ArrayList<>();
+        AtomicInteger batches = new AtomicInteger();
+        Exception e = assertThrows(IllegalStateException.class, () -> LogUtils.replayLogs(logFilePath, "sync", 10, logs -> {
+            if (batches.incrementAndGet() == 3) {
+                throw new IllegalStateException("sync failed");
+            }
+            processed.addAll(logs);
+        }));
+        assertEquals("sync failed", e.getMessage());
+        assertTrue(processed.size() > 10 && processed.size() <= 20);
+        assertEquals(expected.subList(0, processed.size()), processed);
+        LogCheckpoint checkpoint = LogUtils.readCheckpoint(logFilePath, "sync");
+        assertEquals("sync", checkpoint.getConsumer());
+        assertEquals(processed.size(), checkpoint.getLine());
+
+        // 从检查点继续时分段已压缩,失败的一批重新读取
+        awaitCompressed(path);
+        checkpoint = LogUtils.replayLogs(logFilePath, "sync", 10, processed::addAll);
+        assertEquals(expected, processed);
+        assertEquals(100, checkpoint.getLine());
+        assertEquals(checkpoint, LogUtils.readCheckpoint(logFilePath, "sync"));
+
+        // 追加后只读取新写入的日志
+        List<String> appended = write(path, 100, 130, LogSegments.Compression.NONE);
+        List<String> resumed = new ArrayList<>();
+        checkpoint = LogUtils.replayLogs(logFilePath, "sync", 10, resumed::addAll);
+        assertEquals(appended, resumed);
+        assertEquals(130, checkpoint.getLine());
+        resumed.clear();
+        LogUtils.replayLogs(logFilePath, "sync", 10, resumed::addAll);
+        assertTrue(resumed.isEmpty());
+
+        // 删除检查点后从头读取
+        expected.addAll(appended);
+        LogUtils.deleteCheckpoint(logFilePath, "sync");
+        resumed.clear();
+        LogUtils.replayLogs(logFilePath, "sync", 10, resumed::addAll);
+        assertEquals(expected, resumed);
+    }
+
+    @Test
+    void consumersKeepSeparateCheckpoints() throws Exception {
+        Path path = tempDir.resolve("demo.logx");
+        String logFilePath = path.toString();
+        List<String> expected = write(path, 0, 50, LogSegments.Compression.NONE);
+
+        List<String> first = new ArrayList<>();
+        LogUtils.replayLogs(logFilePath, "first", 7, first::addAll);
+        assertEquals(expected, first);
+        assertEquals(0, LogUtils.readCheckpoint(logFilePath, "second").getLine());
+
+        List<String> second = new ArrayList<>();
+        LogCheckpoint checkpoint = LogUtils.replayLogs(logFilePath, "second", 100, second::addAll);
+        assertEquals(expected, second);
+        assertEquals(50, checkpoint.getLine());
+    }
+
+    @Test
+    void invalidConsumerNameIsRejected() {
+        String logFilePath = tempDir.resolve("demo.logx").toString();
+        assertThrows(IllegalArgumentException.class, () -> LogUtils.replayLogs(logFilePath, "../sync", 10, logs -> {
+        }));
+        assertThrows(IllegalArgumentException.class, () -> LogUtils.readCheckpoint(logFilePath, null));
+    }
+}
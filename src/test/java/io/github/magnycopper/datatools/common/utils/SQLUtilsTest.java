@@ -0,0 +1,123 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SQLUtilsTest {
+
+    private static Map<String, Object> data(Object id, Object name, Object amount, Object updateTime) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("id", id);
+        data.put("name", name);
+        data.put("amount", amount);
+        data.put("update_time", updateTime);
+        return data;
+    }
+
+    @Test
+    void insertSQLMatchesBaseline() {
+        Map<String, Object> data = data(1, "a", new BigDecimal("1.5"), null);
+
+        assertEquals("INSERT INTO t_demo (id,name,amount,update_time) VALUES (?,?,?,?)", SQLUtils.getInsertSQL("t_demo", data));
+        assertEquals("INSERT INTO t_demo (id,amount) VALUES (?,?)", SQLUtils.getInsertSQL("t_demo", data, "name", "update_time"));
+        assertEquals("INSERT INTO t_demo (id,name,amount) VALUES (?,?,?) ON DUPLICATE KEY UPDATE id = VALUES(id),name = VALUES(name),amount = VALUES(amount)",
+                SQLUtils.getInsertSQLWithUpdate("t_demo", data, "update_time"));
+        assertEquals(Arrays.asList("id", "name", "amount"), SQLUtils.getKeys(data, "update_time"));
+        assertEquals(Arrays.asList("id", "amount"), SQLUtils.getKeys(data, Arrays.asList("amount", "id", "missing")));
+        assertArrayEquals(new Object[]{1, new BigDecimal("1.5")}, SQLUtils.getValues(data, Arrays.asList("amount", "id"), "name"));
+        assertArrayEquals(new Object[]{1, "a", new BigDecimal("1.5"), null}, SQLUtils.getValues(data));
+    }
+
+    @Test
+    void templatesAreCachedPerTableColumnsAndUpdate() {
+        SQLTemplate template = SQLUtils.getInsertTemplate("t_demo", data(1, "a", null, null), false, "update_time");
+
+        assertSame(template, SQLUtils.getInsertTemplate("t_demo", data(2, "b", BigDecimal.ONE, new Date()), false, "update_time"));
+        assertSame(template, SQLUtils.getInsertTemplate("t_demo", Arrays.asList("id", "name", "amount"), false));
+        assertNotSame(template, SQLUtils.getInsertTemplate("t_demo", data(1, "a", null, null), true, "update_time"));
+        assertNotSame(template, SQLUtils.getInsertTemplate("t_other", data(1, "a", null, null), false, "update_time"));
+        assertNotSame(template, SQLUtils.getInsertTemplate("t_demo", Arrays.asList("name", "id", "amount"), false));
+        assertEquals(Arrays.asList("id", "name", "amount"), template.getColumns());
+
+        Object[] values = new Object[3];
+        assertSame(values, SQLUtils.getValues(template, data(3, "c", BigDecimal.TEN, null), values));
+        assertArrayEquals(new Object[]{3, "c", BigDecimal.TEN}, values);
+        // 缺少的字段取null
+        Map<String, Object> partial = new HashMap<>();
+        partial.put("name", "d");
+        assertArrayEquals(new Object[]{null, "d", null}, template.getValues(partial, values));
+    }
+
+    @Test
+    void batchInsertMergesRowsIntoOneStatement() {
+        List<Map<String, Object>> datas = Arrays.asList(data(1, "a", null, null), data(2, "b", BigDecimal.ONE, null), data(3, "c", null, null));
+
+        List<SQLParms> sqlParms = SQLUtils.getBatchInsertSQL("t_demo", datas, "update_time");
+        assertEquals(1, sqlParms.size());
+        assertEquals("INSERT INTO t_demo (id,name,amount) VALUES (?,?,?),(?,?,?),(?,?,?)", sqlParms.get(0).getSql());
+        assertArrayEquals(new Object[]{1, "a", null, 2, "b", BigDecimal.ONE, 3, "c", null}, sqlParms.get(0).getParms());
+        assertEquals(3, sqlParms.get(0).getRows());
+
+        List<SQLParms> upserts = SQLUtils.getBatchInsertSQLWithUpdate("t_demo", datas.subList(0, 2), "update_time");
+        assertEquals("INSERT INTO t_demo (id,name,amount) VALUES (?,?,?),(?,?,?) ON DUPLICATE KEY UPDATE id = VALUES(id),name = VALUES(name),amount = VALUES(amount)",
+                upserts.get(0).getSql());
+        assertTrue(SQLUtils.getBatchInsertSQL("t_demo", Collections.emptyList()).isEmpty());
+    }
+
+    @Test
+    void batchInsertSplitsAtMaxParams() {
+        List<Map<String, Object>> datas = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            datas.add(data(i, "n" + i, null, null));
+        }
+
+        // 每行2个参数,每条语句最多5个参数即2行
+        List<SQLParms> sqlParms = SQLUtils.getBatchInsertSQL("t_demo", datas, false, 5, SQLUtils.DEFAULT_MAX_PACKET_BYTES, "amount", "update_time");
+        assertEquals(Arrays.asList(2, 2, 1), rows(sqlParms));
+        assertEquals("INSERT INTO t_demo (id,name) VALUES (?,?),(?,?)", sqlParms.get(0).getSql());
+        assertEquals("INSERT INTO t_demo (id,name) VALUES (?,?)", sqlParms.get(2).getSql());
+        assertArrayEquals(new Object[]{2, "n2", 3, "n3"}, sqlParms.get(1).getParms());
+    }
+
+    @Test
+    void batchInsertSplitsAtMaxPacketBytes() {
+        char[] text = new char[100];
+        Arrays.fill(text, 'x');
+        List<Map<String, Object>> datas = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            datas.add(data(i, new String(text), null, null));
+        }
+
+        // 语句模板41字节,每行估算140字节(占位符6字节、整数32字节、字符串102字节)
+        assertEquals(Arrays.asList(2, 2, 1), rows(SQLUtils.getBatchInsertSQL("t_demo", datas, false, SQLUtils.DEFAULT_MAX_PARAMS, 460, "amount", "update_time")));
+        assertEquals(Arrays.asList(3, 2), rows(SQLUtils.getBatchInsertSQL("t_demo", datas, false, SQLUtils.DEFAULT_MAX_PARAMS, 461, "amount", "update_time")));
+        // 单行超出限制时单独成为一条语句
+        assertEquals(Arrays.asList(1, 1, 1, 1, 1), rows(SQLUtils.getBatchInsertSQL("t_demo", datas, false, SQLUtils.DEFAULT_MAX_PARAMS, 10, "amount", "update_time")));
+    }
+
+    @Test
+    void batchInsertSplitsWhenColumnsChange() {
+        Map<String, Object> idOnly = new LinkedHashMap<>();
+        idOnly.put("id", 3);
+        List<Map<String, Object>> datas = Arrays.asList(data(1, "a", null, null), data(2, "b", null, null), idOnly, data(4, "d", null, null));
+
+        List<SQLParms> sqlParms = SQLUtils.getBatchInsertSQL("t_demo", datas, "amount", "update_time");
+        assertEquals(Arrays.asList(2, 1, 1), rows(sqlParms));
+        assertEquals("INSERT INTO t_demo (id,name) VALUES (?,?),(?,?)", sqlParms.get(0).getSql());
+        assertEquals("INSERT INTO t_demo (id) VALUES (?)", sqlParms.get(1).getSql());
+        assertEquals("INSERT INTO t_demo (id,name) VALUES (?,?)", sqlParms.get(2).getSql());
+        assertArrayEquals(new Object[]{4, "d"}, sqlParms.get(2).getParms());
+    }
+
+    private static List<Integer> rows(List<SQLParms> sqlParms) {
+        List<Integer> rows = new ArrayList<>();
+        for (SQLParms sqlParm : sqlParms) {
+            rows.add(sqlParm.getRows());
+        }
+        return rows;
+    }
+}
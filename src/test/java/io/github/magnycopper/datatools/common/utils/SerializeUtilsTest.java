@@ -0,0 +1,203 @@
+package io.github.magnycopper.datatools.common.utils;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SerializeUtilsTest {
+
+    @TempDir
+    Path tempDir;
+
+    enum Status {
+        NEW, DONE
+    }
+
+    @Data
+    @NoArgsConstructor
+    static class Demo implements Serializable {
+        private String name;
+        private int count;
+        private Long total;
+        private BigDecimal amount;
+        private LocalDateTime time;
+        private List<String> tags;
+        private Map<String, Integer> scores;
+        private byte[] data;
+        private Status status;
+        private Demo child;
+    }
+
+    private static Demo demo(String name) {
+        Demo demo = new Demo();
+        demo.setName(name);
+        demo.setCount(3);
+        demo.setAmount(new BigDecimal("12.50"));
+        demo.setTime(LocalDateTime.of(2022, 10, 14, 10, 20, 30, 123_000_000));
+        demo.setTags(new ArrayList<>(Arrays.asList("a", null, "中")));
+        Map<String, Integer> scores = new LinkedHashMap<>();
+        scores.put("x", 1);
+        scores.put("y", null);
+        demo.setScores(scores);
+        demo.setData(new byte[]{0, 1, (byte) 0xFF});
+        demo.setStatus(Status.DONE);
+        Demo child = new Demo();
+        child.setName(name + "-child");
+        child.setTotal(Long.MAX_VALUE);
+        demo.setChild(child);
+        return demo;
+    }
+
+    @AfterEach
+    void restoreDefaults() {
+        new SerializeUtils().setCodec(JavaSerializeCodec.NAME);
+        SerializeFilter.setPackages(Collections.singletonList(SerializeFilter.DEFAULT_PACKAGES));
+    }
+
+    @Test
+    void everyCodecRoundTrips() throws IOException {
+        Demo demo = demo("demo");
+        for (String codecName : Arrays.asList(JavaSerializeCodec.NAME, BinarySerializeCodec.NAME)) {
+            byte[] bytes = SerializeUtils.serializeToBytes(demo, codecName);
+            assertEquals(demo, SerializeUtils.deserialize(bytes), codecName);
+            HashMap<String, Object> map = new HashMap<>();
+            map.put("demo", demo);
+            map.put("list", new ArrayList<>(Arrays.asList(1, 2L, 3.0, "4", null)));
+            assertEquals(map, SerializeUtils.deserialize(SerializeUtils.serializeToBytes(map, codecName)), codecName);
+        }
+    }
+
+    @Test
+    void onlyNonJavaCodecsWriteHeader() throws IOException {
+        Demo demo = demo("demo");
+        byte[] java = SerializeUtils.serializeToBytes(demo, JavaSerializeCodec.NAME);
+        assertEquals((byte) 0xAC, java[0]);
+        assertEquals((byte) 0xED, java[1]);
+        assertArrayEquals(java, SerializeUtils.serializeToBytes(demo));
+
+        byte[] binary = SerializeUtils.serializeToBytes(demo, BinarySerializeCodec.NAME);
+        assertArrayEquals(new byte[]{(byte) 0xB5, 0x1E, BinarySerializeCodec.ID}, Arrays.copyOf(binary, 3));
+
+        // 二进制编解码器不支持的对象退化为无头部的Java序列化
+        TreeSet<String> sorted = new TreeSet<>(Comparator.reverseOrder());
+        sorted.addAll(Arrays.asList("a", "b"));
+        byte[] fallback = SerializeUtils.serializeToBytes(sorted, BinarySerializeCodec.NAME);
+        assertEquals((byte) 0xAC, fallback[0]);
+        assertEquals(sorted, SerializeUtils.deserialize(fallback));
+
+        assertThrows(StreamCorruptedException.class, () -> SerializeUtils.deserialize(new byte[]{(byte) 0xB5, 0x1E, 0x7F, 0}));
+        assertThrows(IllegalArgumentException.class, () -> SerializeUtils.serializeToBytes(demo, "unknown"));
+    }
+
+    @Test
+    void legacySerializeOutputStillDeserializes() throws Exception {
+        Demo demo = demo("legacy");
+        // 此前版本的serialize:ObjectOutputStream序列化后Base64编码
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(bytes)) {
+            objectOutputStream.writeObject(demo);
+        }
+        String legacy = Base64.getEncoder().encodeToString(bytes.toByteArray());
+
+        assertEquals(demo, SerializeUtils.deserialize(legacy));
+        assertEquals(legacy, SerializeUtils.serialize(demo));
+    }
+
+    @Test
+    void disallowedClassesAreRejected() throws IOException {
+        byte[] java = SerializeUtils.serializeToBytes(demo("demo"), JavaSerializeCodec.NAME);
+        byte[] binary = SerializeUtils.serializeToBytes(demo("demo"), BinarySerializeCodec.NAME);
+        assertThrows(InvalidClassException.class, () -> SerializeUtils.deserialize(SerializeUtils.serializeToBytes(Level.INFO)));
+
+        SerializeFilter.setPackages(Collections.singletonList("com.example"));
+        assertThrows(InvalidClassException.class, () -> SerializeUtils.deserialize(java));
+        assertThrows(InvalidClassException.class, () -> SerializeUtils.deserialize(binary));
+        // JDK值类型不需要登记
+        assertEquals(Arrays.asList(1, "a"), SerializeUtils.deserialize(SerializeUtils.serializeToBytes(new ArrayList<>(Arrays.asList(1, "a")))));
+
+        SerializeUtils.allowPackages(Demo.class.getPackage().getName());
+        assertEquals(demo("demo"), SerializeUtils.deserialize(java));
+        assertEquals(demo("demo"), SerializeUtils.deserialize(binary));
+
+        SerializeFilter.setPackages(Collections.singletonList(SerializeFilter.ALL_PACKAGES));
+        assertEquals(demo("demo"), SerializeUtils.deserialize(java));
+    }
+
+    @Test
+    void streamsAndBuffersRoundTripEveryCodec() throws IOException {
+        Demo demo = demo("stream");
+        for (String codecName : Arrays.asList(JavaSerializeCodec.NAME, BinarySerializeCodec.NAME)) {
+            new SerializeUtils().setCodec(codecName);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            SerializeUtils.serialize(demo, out);
+            assertArrayEquals(SerializeUtils.serializeToBytes(demo, codecName), out.toByteArray(), codecName);
+            assertEquals(demo, SerializeUtils.deserialize(new ByteArrayInputStream(out.toByteArray())), codecName);
+
+            Path path = tempDir.resolve(codecName + ".bin");
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                SerializeUtils.serialize(demo, channel);
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                assertEquals(demo, SerializeUtils.deserialize(channel), codecName);
+            }
+
+            ByteBuffer heap = SerializeUtils.serializeToBuffer(demo);
+            ByteBuffer direct = ByteBuffer.allocateDirect(heap.remaining() + 1);
+            direct.put((byte) 0).put(heap.duplicate()).flip().position(1);
+            assertEquals(demo, SerializeUtils.deserialize(heap), codecName);
+            assertFalse(heap.hasRemaining());
+            assertEquals(demo, SerializeUtils.deserialize(direct), codecName);
+            assertFalse(direct.hasRemaining());
+        }
+    }
+
+    @Test
+    void framesRoundTripEveryCodec() throws IOException {
+        List<Demo> demos = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            demos.add(demo("frame-" + i));
+        }
+        for (String codecName : Arrays.asList(JavaSerializeCodec.NAME, BinarySerializeCodec.NAME)) {
+            new SerializeUtils().setCodec(codecName);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(demos.size(), SerializeUtils.writeFrames(demos.iterator(), out));
+            try (Stream<Demo> frames = SerializeUtils.readFrames(new ByteArrayInputStream(out.toByteArray()))) {
+                assertEquals(demos, frames.collect(Collectors.toList()), codecName);
+            }
+
+            Path path = tempDir.resolve(codecName + ".frames");
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                assertEquals(demos.size(), SerializeUtils.writeFrames(demos.iterator(), channel));
+            }
+            try (Stream<Demo> frames = SerializeUtils.readFrames(FileChannel.open(path, StandardOpenOption.READ))) {
+                assertEquals(demos, frames.collect(Collectors.toList()), codecName);
+            }
+        }
+        try (Stream<Object> frames = SerializeUtils.readFrames(new ByteArrayInputStream(new byte[0]))) {
+            assertEquals(0, frames.count());
+        }
+        // 帧被截断
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SerializeUtils.writeFrames(demos.iterator(), out);
+        byte[] truncated = Arrays.copyOf(out.toByteArray(), out.size() - 1);
+        try (Stream<Demo> frames = SerializeUtils.readFrames(new ByteArrayInputStream(truncated))) {
+            assertThrows(UncheckedIOException.class, () -> frames.collect(Collectors.toList()));
+        }
+    }
+}